@@ -0,0 +1,135 @@
+#include "stdlib.h"
+
+/*
+ * Every block starts with a header, followed by the memory handed out. Small
+ * blocks come in power-of-two size classes, from MIN_BLOCK_SIZE bytes
+ * (header included) up to MIN_BLOCK_SIZE << (NUM_CLASSES - 1), and a freed
+ * block goes to the free list of its class. Larger blocks are sized to the
+ * request and reused first-fit once freed.
+ *
+ * New blocks are carved from the top of the heap, which is extended with
+ * sbrk() at least REFILL_SIZE bytes at a time. Carving does not touch the
+ * rest of the region, so heap pages get memory only as blocks are used.
+ */
+
+#define MIN_BLOCK_SIZE  16
+#define NUM_CLASSES     8
+#define REFILL_SIZE     4096
+#define LARGE_BLOCK     (-1)
+
+typedef struct {
+    int sizeClass;      /* size class, or LARGE_BLOCK */
+    unsigned int size;  /* size of the block, header included */
+} header_t;             /* 8 bytes, so blocks stay 8-byte aligned */
+
+#define headerOf(ptr)   ((header_t *) (ptr) - 1)
+#define nextFree(ptr)   (*(void **) (ptr))
+
+static void *freeLists[NUM_CLASSES];
+static void *largeFreeList;
+static char *heapNext, *heapEnd;
+
+/* Take size bytes, a multiple of 8, from the top of the heap. */
+static header_t *carve(unsigned int size) {
+    char *block;
+
+    if ((unsigned int) (heapEnd - heapNext) < size) {
+        unsigned int amount = max(size, REFILL_SIZE);
+        char *more = sbrk(amount);
+
+        if (more == (char *) -1)
+            return null;
+
+        /* start over if somebody else moved the break */
+        if (more != heapEnd)
+            heapNext = more;
+        heapEnd = more + amount;
+    }
+
+    block = heapNext;
+    heapNext += size;
+    return (header_t *) block;
+}
+
+static void *mallocLarge(unsigned int size) {
+    void **link;
+    header_t *header;
+
+    for (link = &largeFreeList; *link != null; link = &nextFree(*link)) {
+        if (headerOf(*link)->size >= size) {
+            void *ptr = *link;
+            *link = nextFree(ptr);
+            return ptr;
+        }
+    }
+
+    header = carve(size);
+    if (header == null)
+        return null;
+
+    header->sizeClass = LARGE_BLOCK;
+    header->size = size;
+    return header + 1;
+}
+
+void *malloc(unsigned int size) {
+    unsigned int blockSize = MIN_BLOCK_SIZE;
+    int sizeClass = 0;
+    header_t *header;
+
+    if (size == 0 || size > 0x7FFFFFF0)
+        return null;
+
+    size = (size + sizeof(header_t) + 7) & ~7;
+    while (sizeClass < NUM_CLASSES && blockSize < size) {
+        sizeClass++;
+        blockSize <<= 1;
+    }
+
+    if (sizeClass == NUM_CLASSES)
+        return mallocLarge(size);
+
+    if (freeLists[sizeClass] != null) {
+        void *ptr = freeLists[sizeClass];
+        freeLists[sizeClass] = nextFree(ptr);
+        return ptr;
+    }
+
+    header = carve(blockSize);
+    if (header == null)
+        return null;
+
+    header->sizeClass = sizeClass;
+    header->size = blockSize;
+    return header + 1;
+}
+
+void *calloc(unsigned int count, unsigned int size) {
+    void *ptr;
+
+    if (count != 0 && size > 0xFFFFFFFF / count)
+        return null;
+
+    ptr = malloc(count * size);
+    if (ptr != null)
+        memset(ptr, 0, count * size);
+
+    return ptr;
+}
+
+void free(void *ptr) {
+    header_t *header;
+
+    if (ptr == null)
+        return;
+
+    header = headerOf(ptr);
+    if (header->sizeClass == LARGE_BLOCK) {
+        nextFree(ptr) = largeFreeList;
+        largeFreeList = ptr;
+    }
+    else {
+        nextFree(ptr) = freeLists[header->sizeClass];
+        freeLists[header->sizeClass] = ptr;
+    }
+}
@@ -3,16 +3,18 @@
  *
  *    Intention is to stress virtual memory system. To increase the memory
  *    usage of this program, simply increase SORTSHIFT. The size of the array
- *    is (SORTSIZE)(2^(SORTSHIFT+2)).
+ *    is (SORTSIZE)(2^(SORTSHIFT+2)). It is allocated with malloc(), so its
+ *    pages are taken from the heap only when first touched.
  */
 
 #include "syscall.h"
+#include "stdlib.h"
 
 /* size of physical memory; with code, we'll run out of space! */
 #define SORTSIZE    256
 #define SORTSHIFT    0
 
-int array[SORTSIZE << SORTSHIFT];
+int *array;
 
 #define    A(i)    (array[(i)<<SORTSHIFT])
 
@@ -26,6 +28,10 @@ int
 main() {
     int i, j;
 
+    array = malloc((SORTSIZE << SORTSHIFT) * sizeof(int));
+    if (array == null)
+        return 1;
+
     /* first initialize the array, in reverse sorted order */
     for (i = 0; i < SORTSIZE; i++)
         A(i) = (SORTSIZE - 1) - i;
@@ -67,3 +67,54 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(futex_wait, syscallFutexWait)
+	SYSCALLSTUB(futex_wake, syscallFutexWake)
+	SYSCALLSTUB(fork, syscallFork)
+	SYSCALLSTUB(munmap, syscallMunmap)
+	SYSCALLSTUB(sbrk, syscallSbrk)
+	SYSCALLSTUB(getrusage, syscallGetrusage)
+
+/* -------------------------------------------------------------
+ * Atomic operations:
+ *	Built on the load linked / store conditional instruction pair.
+ *	The store conditional fails whenever the kernel ran between
+ *	the two instructions, in which case the sequence is retried.
+ *
+ *	atomic_cas(address, expected, desired) stores desired at
+ *	address only if it contains expected. atomic_swap(address,
+ *	value) stores value at address unconditionally. Both return
+ *	the previous content of the word.
+ * -------------------------------------------------------------
+ */
+
+	.set	push
+	.set	mips2
+	.set	noreorder
+
+	.globl	atomic_cas
+	.ent	atomic_cas
+atomic_cas:
+1:	ll	$2,0($4)
+	nop
+	bne	$2,$5,2f
+	addu	$8,$6,$0
+	sc	$8,0($4)
+	beq	$8,$0,1b
+	nop
+2:	j	$31
+	nop
+	.end	atomic_cas
+
+	.globl	atomic_swap
+	.ent	atomic_swap
+atomic_swap:
+1:	ll	$2,0($4)
+	addu	$8,$5,$0
+	sc	$8,0($4)
+	beq	$8,$0,1b
+	nop
+	j	$31
+	nop
+	.end	atomic_swap
+
+	.set	pop
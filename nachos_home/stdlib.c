@@ -1 +1,30 @@
 #include "stdlib.h"
+
+void mutex_init(mutex_t *mutex) {
+    mutex->state = 0;
+}
+
+void mutex_lock(mutex_t *mutex) {
+    int state = atomic_cas(&mutex->state, 0, 1);
+
+    if (state == 0)
+        return;
+
+    /* contended: announce a waiter, then sleep until the owner unlocks */
+    if (state != 2)
+        state = atomic_swap(&mutex->state, 2);
+
+    while (state != 0) {
+        futex_wait(&mutex->state, 2);
+        state = atomic_swap(&mutex->state, 2);
+    }
+}
+
+int mutex_trylock(mutex_t *mutex) {
+    return atomic_cas(&mutex->state, 0, 1) == 0;
+}
+
+void mutex_unlock(mutex_t *mutex) {
+    if (atomic_swap(&mutex->state, 0) == 2)
+        futex_wake(&mutex->state, 1);
+}
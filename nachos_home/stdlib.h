@@ -41,4 +41,57 @@ int strncmp(const char *a, const char *b, int n);
 
 int atoi(const char *s);
 
+/*
+ * Allocate size bytes from the heap, aligned to 8 bytes. Small requests are
+ * served from free lists of power-of-two size classes, refilled from sbrk() a
+ * few pages at a time; larger requests get blocks of their own. Returns null
+ * if the heap is exhausted.
+ */
+void *malloc(unsigned int size);
+
+/*
+ * Allocate zeroed memory for count objects of size bytes each.
+ */
+void *calloc(unsigned int count, unsigned int size);
+
+/*
+ * Return a block allocated by malloc() or calloc() to its free list. Freeing
+ * null has no effect.
+ */
+void free(void *ptr);
+
+/*
+ * Atomically replace the word at address with desired, if it contains
+ * expected. Returns the previous content of the word.
+ */
+int atomic_cas(int *address, int expected, int desired);
+
+/*
+ * Atomically replace the word at address with value. Returns the previous
+ * content of the word.
+ */
+int atomic_swap(int *address, int value);
+
+/*
+ * A mutual exclusion lock, which must be initialized with mutex_init() (or
+ * MUTEX_INITIALIZER) before use. Locking and unlocking an uncontended mutex
+ * never enters the kernel; the futex syscalls are used only to sleep while
+ * the mutex is held by somebody else and to wake up such sleepers. As each
+ * process has a single thread, a mutex is only contended if it lies in memory
+ * shared by several processes, i.e. in a file mapped by mmap().
+ */
+typedef struct {
+    int state;    /* 0 unlocked, 1 locked, 2 locked with possible waiters */
+} mutex_t;
+
+#define MUTEX_INITIALIZER    { 0 }
+
+void mutex_init(mutex_t *mutex);
+
+void mutex_lock(mutex_t *mutex);
+
+int mutex_trylock(mutex_t *mutex);
+
+void mutex_unlock(mutex_t *mutex);
+
 #endif // STDLIB_H
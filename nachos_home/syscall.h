@@ -25,6 +25,12 @@
 #define syscallMmap 10
 #define syscallConnect 11
 #define syscallAccept 12
+#define syscallFutexWait 13
+#define syscallFutexWake 14
+#define syscallFork 15
+#define syscallMunmap 16
+#define syscallSbrk 17
+#define syscallGetrusage 18
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -38,6 +44,13 @@
 #define fdStandardInput 0
 #define fdStandardOutput 1
 
+/*
+ * Protection of the pages of a file mapped by mmap(). A map is always
+ * readable; protWrite makes it writable too.
+ */
+#define protRead 1
+#define protWrite 2
+
 /*
  * Default pid of the first (root) user process created within nachos.
  * It is the only process, which can successfully call halt().
@@ -225,18 +238,34 @@ int close(int fileDescriptor);
 int unlink(char *name);
 
 /*
- * Map the file referenced by fileDescriptor into memory at address. The file
- * may be as large as 0x7FFFFFFF bytes.
- * 
- * To maintain consistency, further calls to read() and write() on this file
- * descriptor will fail (returning -1) until the file descriptor is closed.
- *
- * When the file descriptor is closed, all remaining dirty pages of the map
- * will be flushed to disk and the map will be removed.
+ * Map the first length bytes of the file referenced by fileDescriptor into
+ * memory, at an address chosen by the kernel. The map may extend past the end
+ * of the file; those bytes read as zero. prot is protRead, optionally or-ed
+ * with protWrite to allow writing to the map.
+ *
+ * All maps of a file share its pages: a change made through one map is seen
+ * at once through every other map of the file, in this or another process,
+ * including the maps a child inherits from fork(). read() of the file returns
+ * the changes made through its maps, and write() to the file updates the
+ * mapped pages. Bytes of the last page past length are not written back to
+ * the file by this map.
+ *
+ * Pages of the map are read from the file when first accessed. Dirty pages
+ * are written back to the file when the kernel needs their memory, when the
+ * file is closed or read, and when the map is removed by munmap() or when the
+ * process exits. The map stays valid after fileDescriptor is closed.
+ *
+ * Returns the address of the map on success, or -1 if an error occurred.
+ */
+char *mmap(int fileDescriptor, int length, int prot);
+
+/*
+ * Remove the map starting at address, which was returned by mmap(), writing
+ * its dirty pages back to the file.
  *
- * Returns the length of the file on success, or -1 if an error occurred.
+ * Returns 0 on success, or -1 if an error occurred.
  */
-int mmap(int fileDescriptor, char *address);
+int munmap(char *address);
 
 /*
  * Attempt to initiate a new connection to the specified port on the specified
@@ -267,6 +296,72 @@ int connect(int host, int port);
  */
 int accept(int port);
 
+/*
+ * Block the calling thread on the futex word at address, provided the word
+ * still contains expected. The check and the sleep are atomic with respect to
+ * futex_wake(), so a wake-up can not be lost between them. The address must be
+ * word aligned. Threads of different processes waiting on the same physical
+ * memory (e.g. a file mapped by mmap() in both) wait on the same futex.
+ *
+ * Returns 0 after being woken up by futex_wake(), or -1 if the word did not
+ * contain expected or the address is invalid.
+ */
+int futex_wait(int *address, int expected);
+
+/*
+ * Wake up at most count threads blocked in futex_wait() on the futex word at
+ * address.
+ *
+ * Returns the number of threads woken up, or -1 if an error occurred.
+ */
+int futex_wake(int *address, int count);
+
+/*
+ * Create a new child process, which is a copy of the current process. The
+ * child starts with the same memory contents, registers and open files as its
+ * parent, and continues by returning from fork() as well. Memory is shared
+ * copy-on-write, so a page is copied only when either process writes to it.
+ *
+ * Returns 0 in the child and the child's process ID in the parent, which can
+ * be passed to join(). On error, returns -1 and no child is created.
+ */
+int fork();
+
+/*
+ * Move the program break, the end of the heap, by increment bytes. The heap
+ * starts empty past the program's arguments and may grow up to a limit set by
+ * the kernel. New heap pages take no memory until they are first accessed,
+ * and then read as zero. Shrinking the heap releases the pages entirely above
+ * the new break. sbrk(0) returns the current break.
+ *
+ * Returns the previous break on success, or (void *) -1 if the break would
+ * move outside of the heap.
+ */
+void *sbrk(int increment);
+
+/*
+ * Memory usage of a process, as stored by getrusage(). The working set is the
+ * number of pages referenced during a timer interval, sampled when the
+ * process is switched out.
+ */
+struct rusage {
+    int residentPages;          /* pages in physical memory now */
+    int maxResidentPages;       /* most pages ever sampled in memory */
+    int pageFaults;             /* faults on pages not in memory */
+    int tlbMisses;
+    int swapIns;                /* pages read back from swap */
+    int copyOnWriteCopies;      /* shared pages copied on a write */
+    int workingSetSize;         /* at the last sample */
+    int averageWorkingSetSize;  /* over all samples */
+};
+
+/*
+ * Store the memory usage counters of the current process in usage.
+ *
+ * Returns 0 on success, or -1 if usage is not a valid address.
+ */
+int getrusage(struct rusage *usage);
+
 #endif /* START_S */
 
 #endif /* SYSCALL_H */
@@ -0,0 +1,61 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+/*
+ * Purpose is to test if calling fork creates a child process with a
+ * copy of the address space and of the open files of the parent.
+ *
+ * Opens the file and reads its first word, then forks. The child
+ * process reads the next word of the file from the copied file
+ * descriptor, increments a global integer variable and returns it.
+ * The parent process joins the child, checks that its own copy of
+ * the variable was not changed by the child, and reads the same next
+ * word of the file, as the file position is copied, not shared.
+ *
+ * argc     - equals 2
+ * argv[0]  - file that exists in nachos_home directory and starts
+ *            with "Test file"
+ * argv[1]  - integer variable, which the child process increments
+ *
+ * returns  - the integer variable in the parent process, and the
+ *            incremented integer variable in the child process
+ */
+int variable = -1;
+
+int main(int argc, char **argv) {
+    char buffer[5];
+    int fd = -1;
+    int child_pid = -1;
+    int child_status = -1;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 2);
+
+    variable = atoi(argv[1]);
+
+    fd = open(argv[0]);
+    assert(-1 != fd);
+    assert(5 == read(fd, buffer, 5));
+    assert(0 == strncmp("Test ", buffer, 5));
+
+    child_pid = fork();
+    assert(-1 != child_pid);
+
+    if (0 == child_pid) {
+        // Child process continues from the same file position
+        // and modifies its copy of the variable.
+        assert(4 == read(fd, buffer, 4));
+        assert(0 == strncmp("file", buffer, 4));
+        return ++variable;
+    }
+
+    // Wait for the child, which returns the incremented variable.
+    assert(1 == join(child_pid, &child_status));
+    assert(variable + 1 == child_status);
+
+    // The file position of the parent was not moved by the child.
+    assert(4 == read(fd, buffer, 4));
+    assert(0 == strncmp("file", buffer, 4));
+
+    return variable;
+}
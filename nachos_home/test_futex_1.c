@@ -0,0 +1,83 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+#define SPIN_ITERATIONS 10000
+
+/*
+ * Purpose is to test if a mutex in memory shared by two processes
+ * makes one of them sleep in futex_wait() until the other one
+ * unlocks it and wakes it up with futex_wake().
+ *
+ * Maps the file writable, which the child created by fork() shares
+ * with the parent, and locks a mutex in the map before forking. The
+ * child tries to lock the mutex, finds it held and sleeps. The parent
+ * waits until the child announced itself as a waiter, and long
+ * enough for it to fall asleep, then increments the counter in the
+ * map and unlocks the mutex, which wakes the child up. The child
+ * increments the counter too, while holding the mutex, and returns
+ * it.
+ *
+ * argc     - equals 1
+ * argv[0]  - file that does not exist in nachos_home directory
+ *
+ * returns  - 0 on success, the child returns the counter, 2
+ */
+struct shared {
+    mutex_t mutex;
+    int counter;
+};
+
+int main(int argc, char **argv) {
+    struct shared *shared = 0;
+    volatile int *state = 0;
+    int fd = -1;
+    int child_pid = -1;
+    int child_status = -1;
+    int counter = 0;
+    int i = 0;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 1);
+
+    fd = creat(argv[0]);
+    assert(-1 != fd);
+
+    shared = (struct shared *) mmap(fd, sizeof(struct shared), protRead | protWrite);
+    assert((struct shared *) -1 != shared);
+    state = &shared->mutex.state;
+
+    mutex_init(&shared->mutex);
+    shared->counter = 0;
+    mutex_lock(&shared->mutex);
+
+    child_pid = fork();
+    assert(-1 != child_pid);
+
+    if (0 == child_pid) {
+        // The mutex is held by the parent, so this sleeps.
+        mutex_lock(&shared->mutex);
+        counter = ++shared->counter;
+        mutex_unlock(&shared->mutex);
+        return counter;
+    }
+
+    // Wait for the child to announce itself as a waiter, then give it
+    // time to go to sleep.
+    while (2 != *state) {
+    }
+    for (i = 0; i < SPIN_ITERATIONS; i++) {
+        assert(2 == *state);
+    }
+
+    shared->counter++;
+    mutex_unlock(&shared->mutex);
+
+    assert(1 == join(child_pid, &child_status));
+    assert(2 == child_status);
+    assert(2 == shared->counter);
+
+    assert(0 == munmap((char *) shared));
+    assert(0 == close(fd));
+
+    return 0;
+}
@@ -0,0 +1,64 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+#define PAGE_SIZE 1024
+#define NUM_PAGES 4
+#define NUM_ROUNDS 5000
+
+/*
+ * Purpose is to test if calling getrusage stores the memory usage
+ * counters of the current process.
+ *
+ * First part touches NUM_PAGES pages of data for NUM_ROUNDS rounds,
+ * which takes many timer intervals, so the working set is sampled
+ * while the pages are in use. Then calls getrusage and checks, that
+ * the pages are counted as resident and that the sampled working
+ * set is not empty.
+ *
+ * Second part calls getrusage with an address outside of the address
+ * space, which should fail.
+ *
+ * argc     - equals 1
+ * argv[0]  - indicates which part should run
+ *
+ * returns  - 0 on success
+ */
+char memory[NUM_PAGES * PAGE_SIZE];
+
+int main(int argc, char **argv) {
+    struct rusage usage;
+    int round = 0;
+    int page = 0;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 1);
+
+    if (0 == strcmp("first", argv[0])) {
+        // Keep touching the data pages for many timer intervals.
+        for (round = 0; round < NUM_ROUNDS; round++) {
+            for (page = 0; page < NUM_PAGES; page++) {
+                memory[page * PAGE_SIZE + round % PAGE_SIZE]++;
+            }
+        }
+
+        assert(0 == getrusage(&usage));
+
+        // At least the data pages are resident, and the peak
+        // cannot be lower than the current resident set.
+        assert(usage.residentPages >= NUM_PAGES);
+        assert(usage.maxResidentPages >= usage.residentPages);
+
+        // Pages were referenced in every sampled interval.
+        assert(usage.workingSetSize > 0);
+        assert(usage.averageWorkingSetSize > 0);
+        assert(usage.workingSetSize <= usage.residentPages);
+    } else if (0 == strcmp("second", argv[0])) {
+        // Address outside of the address space.
+        assert(-1 == getrusage((struct rusage *) -1));
+    } else {
+        // Wrong usage, fail program.
+        assertNotReached();
+    }
+
+    return 0;
+}
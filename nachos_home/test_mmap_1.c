@@ -0,0 +1,75 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+/*
+ * Purpose is to test if all maps of a file share its pages, and if
+ * read() and write() on the file are consistent with its maps.
+ *
+ * Maps the file writable and changes its first word through the map,
+ * which read() on the file then returns. Writes the second word with
+ * write(), which then shows in the map. Maps the file a second time,
+ * which shows both changes. Then forks a child, which changes the
+ * last word of the file through its copy of the map; the parent sees
+ * the change after joining the child. Finally removes both maps,
+ * which writes the changed pages back to the file.
+ *
+ * argc     - equals 1
+ * argv[0]  - file that exists in nachos_home directory and contains
+ *            "Test file contents"
+ *
+ * returns  - 0 on success, the file then contains "Best FILE CONTENTS"
+ */
+int main(int argc, char **argv) {
+    char buffer[4];
+    char *map = 0;
+    char *second_map = 0;
+    int fd = -1;
+    int child_pid = -1;
+    int child_status = -1;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 1);
+
+    fd = open(argv[0]);
+    assert(-1 != fd);
+
+    map = mmap(fd, 18, protRead | protWrite);
+    assert((char *) -1 != map);
+    assert(0 == strncmp("Test file contents", map, 18));
+
+    // A change made through the map is read by read().
+    map[0] = 'B';
+    assert(4 == read(fd, buffer, 4));
+    assert(0 == strncmp("Best", buffer, 4));
+
+    // A change made by write() shows in the map.
+    assert(1 == read(fd, buffer, 1));
+    assert(4 == write(fd, "FILE", 4));
+    assert(0 == strncmp("Best FILE contents", map, 18));
+
+    // Another map of the file shares its pages.
+    second_map = mmap(fd, 18, protRead);
+    assert((char *) -1 != second_map);
+    assert(second_map != map);
+    assert(0 == strncmp("Best FILE contents", second_map, 18));
+
+    child_pid = fork();
+    assert(-1 != child_pid);
+
+    if (0 == child_pid) {
+        // The child changes the pages of the parent's map.
+        memcpy(map + 10, "CONTENTS", 8);
+        return 1;
+    }
+
+    assert(1 == join(child_pid, &child_status));
+    assert(1 == child_status);
+    assert(0 == strncmp("Best FILE CONTENTS", map, 18));
+    assert(0 == strncmp("Best FILE CONTENTS", second_map, 18));
+
+    assert(0 == munmap(second_map));
+    assert(0 == munmap(map));
+    assert(0 == close(fd));
+
+    return 0;
+}
@@ -0,0 +1,67 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+#define PAGE_SIZE 1024
+#define MAP_PAGES 24
+
+/*
+ * Purpose is to test if dirty pages of a map are written back to the
+ * file, both when they are evicted and when the map is removed.
+ *
+ * Creates the file and maps more pages of it than there is physical
+ * memory, past the end of the empty file, so that the pages read as
+ * zero. Fills each page with a letter, which forces dirty pages to be
+ * evicted to the file, and checks all pages again, which reads the
+ * evicted ones back. Then removes the map and checks the file with
+ * read().
+ *
+ * argc     - equals 1
+ * argv[0]  - file that does not exist in nachos_home directory
+ *
+ * returns  - 0 on success, the file then holds MAP_PAGES pages, page i
+ *            filled with the letter 'a' + i
+ */
+int main(int argc, char **argv) {
+    char buffer[PAGE_SIZE];
+    char *map = 0;
+    int fd = -1;
+    int i = 0;
+    int j = 0;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 1);
+
+    fd = creat(argv[0]);
+    assert(-1 != fd);
+
+    map = mmap(fd, MAP_PAGES * PAGE_SIZE, protRead | protWrite);
+    assert((char *) -1 != map);
+
+    for (i = 0; i < MAP_PAGES; i++) {
+        for (j = 0; j < PAGE_SIZE; j++) {
+            assert(0 == map[i * PAGE_SIZE + j]);
+            map[i * PAGE_SIZE + j] = 'a' + i;
+        }
+    }
+
+    // Evicted pages come back from the file.
+    for (i = 0; i < MAP_PAGES; i++) {
+        for (j = 0; j < PAGE_SIZE; j++) {
+            assert('a' + i == map[i * PAGE_SIZE + j]);
+        }
+    }
+
+    assert(0 == munmap(map));
+
+    // The file holds all pages of the map.
+    for (i = 0; i < MAP_PAGES; i++) {
+        assert(PAGE_SIZE == read(fd, buffer, PAGE_SIZE));
+        for (j = 0; j < PAGE_SIZE; j++) {
+            assert('a' + i == buffer[j]);
+        }
+    }
+    assert(0 == read(fd, buffer, 1));
+    assert(0 == close(fd));
+
+    return 0;
+}
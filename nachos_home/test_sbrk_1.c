@@ -0,0 +1,59 @@
+#include "syscall.h"
+#include "stdlib.h"
+
+#define PAGE_SIZE 1024
+
+/*
+ * Purpose is to test if calling sbrk grows and shrinks the heap.
+ *
+ * Grows the heap by three pages, which should read as zero, and fills
+ * them. Then shrinks the heap by two pages and grows it again, after
+ * which the two released pages should read as zero again, while the
+ * first page keeps its contents. Finally tries to move the break below
+ * the start of the heap and far above its limit, which should both
+ * fail and leave the break unchanged.
+ *
+ * argc     - equals 0
+ *
+ * returns  - 0 on success
+ */
+int main(int argc, char **argv) {
+    char *base = 0;
+    int i = 0;
+
+    // Make sure we have been called with correct number of arguments.
+    assert(argc == 0);
+
+    // Grow the heap by three pages.
+    base = (char *) sbrk(0);
+    assert((char *) -1 != base);
+    assert(base == (char *) sbrk(3 * PAGE_SIZE));
+    assert(base + 3 * PAGE_SIZE == (char *) sbrk(0));
+
+    // New heap pages read as zero and are writable.
+    for (i = 0; i < 3 * PAGE_SIZE; i++) {
+        assert(0 == base[i]);
+        base[i] = 'h';
+    }
+
+    // Shrink the heap by two pages.
+    assert(base + 3 * PAGE_SIZE == (char *) sbrk(-2 * PAGE_SIZE));
+    assert(base + PAGE_SIZE == (char *) sbrk(0));
+
+    // Grow it again, the released pages read as zero again,
+    // the page kept in the heap keeps its contents.
+    assert(base + PAGE_SIZE == (char *) sbrk(2 * PAGE_SIZE));
+    for (i = 0; i < PAGE_SIZE; i++) {
+        assert('h' == base[i]);
+    }
+    for (i = PAGE_SIZE; i < 3 * PAGE_SIZE; i++) {
+        assert(0 == base[i]);
+    }
+
+    // The break cannot leave the heap.
+    assert((char *) -1 == (char *) sbrk(-4 * PAGE_SIZE));
+    assert((char *) -1 == (char *) sbrk(0x40000000));
+    assert(base + 3 * PAGE_SIZE == (char *) sbrk(0));
+
+    return 0;
+}
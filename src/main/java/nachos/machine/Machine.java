@@ -31,6 +31,7 @@ import nachos.threads.RoundRobinScheduler;
 import nachos.threads.Scheduler;
 import nachos.threads.Semaphore;
 import nachos.threads.SemaphoresCondition;
+import nachos.threads.SynchronizationProfiler;
 import nachos.threads.ThreadQueue;
 import nachos.threads.ThreadedKernel;
 import nachos.userprog.SynchConsole;
@@ -229,11 +230,12 @@ public final class Machine {
     }
 
     /**
-     * Print stats, and terminate Nachos.
+     * Print stats and synchronization profile, and terminate Nachos.
      */
     public static void halt() {
         System.out.print("Machine halting!\n\n");
         stats.print();
+        SynchronizationProfiler.print();
         privilege.exit();
     }
 
@@ -310,7 +312,7 @@ public final class Machine {
             if ( numPhysPages == -1 ) {
                 numPhysPages = Config.getInteger("Processor.numPhysPages");
             }
-            processor = new Processor(privilege, numPhysPages);
+            processor = new Processor(privilege, numPhysPages, nachosHomeDirectory);
         }
 
         if ( Config.getBoolean("Machine.console") ) {
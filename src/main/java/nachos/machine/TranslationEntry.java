@@ -33,12 +33,27 @@ public final class TranslationEntry {
      * user program.
      */
     public boolean dirty;
+    /**
+     * The address space ID of a TLB entry. The entry only translates
+     * addresses while the processor's address space ID register holds the
+     * same value. Ignored in page tables.
+     */
+    public int asid;
+    /**
+     * The number of base pages mapped by this entry: 1 for an ordinary page,
+     * or <tt>Processor.smallSuperpagePages</tt> or
+     * <tt>Processor.largeSuperpagePages</tt> for a superpage. The virtual and
+     * physical page numbers of a superpage are aligned to its size, and page
+     * <tt>vpn + i</tt> is mapped to frame <tt>ppn + i</tt>.
+     */
+    public int numPages;
 
     /**
      * Allocate a new invalid translation entry.
      */
     public TranslationEntry() {
         valid = false;
+        numPages = 1;
     }
 
     /**
@@ -59,6 +74,7 @@ public final class TranslationEntry {
         this.readOnly = readOnly;
         this.used = used;
         this.dirty = dirty;
+        this.numPages = 1;
     }
 
     /**
@@ -74,5 +90,7 @@ public final class TranslationEntry {
         readOnly = entry.readOnly;
         used = entry.used;
         dirty = entry.dirty;
+        asid = entry.asid;
+        numPages = entry.numPages;
     }
 }
@@ -10,6 +10,8 @@ import nachos.machine.lib.Lib;
 import nachos.machine.security.Privilege;
 import nachos.vm.VMKernel;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteOrder;
 
 /**
@@ -28,6 +30,11 @@ import java.nio.ByteOrder;
  * An instance of a <tt>Processor</tt> also includes pages of physical memory
  * accessible to user programs, the size of which is fixed by the constructor.
  * </p>
+ * <p>
+ * If the <tt>nachos.conf</tt> key <tt>Processor.traceFile</tt> is set, every
+ * address translated for a user program is recorded by a
+ * <tt>ReferenceTraceRecorder</tt>.
+ * </p>
  */
 public final class Processor {
     /**
@@ -143,6 +150,31 @@ public final class Processor {
      * Number of pages in a 32-bit address space.
      */
     public static final int maxPages = (int) (0x100000000L / pageSize);
+    /**
+     * Number of pages mapped by a small (16KB) superpage.
+     */
+    public static final int smallSuperpagePages = 16;
+    /**
+     * Number of pages mapped by a large (64KB) superpage.
+     */
+    public static final int largeSuperpagePages = 64;
+    /**
+     * Number of virtual page number bits indexing a second-level page table.
+     * The remaining high bits index the page directory.
+     */
+    public static final int pageTableBits = 10;
+    /**
+     * Number of entries in a second-level page table.
+     */
+    public static final int pageTableSize = 1 << pageTableBits;
+    /**
+     * Number of entries in a page directory.
+     */
+    public static final int pageDirectorySize = maxPages / pageTableSize;
+    /**
+     * Number of distinct address space IDs a TLB entry can be tagged with.
+     */
+    public static final int numASIDs = 64;
     private static final char dbgProcessor = 'p';
     private static final char dbgDisassemble = 'm';
     private static final char dbgFullDisassemble = 'M';
@@ -173,12 +205,30 @@ public final class Processor {
     /**
      * Number of TLB entries.
      */
-    private int tlbSize = 4;
+    private int tlbSize;
+    /**
+     * Number of TLB entries in each set.
+     */
+    private int tlbWays;
+    /**
+     * Number of TLB sets.
+     */
+    private int tlbSets;
+    /**
+     * The address space ID register. Only TLB entries tagged with this ID
+     * are used for translation.
+     */
+    private int asid = 0;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
      */
     private TranslationEntry[] translations;
+    /**
+     * The page directory base register, or <tt>null</tt> if the single-level
+     * page table in <tt>translations</tt> is used.
+     */
+    private TranslationEntry[][] pageDirectory;
     /**
      * Number of physical pages in memory.
      */
@@ -191,6 +241,18 @@ public final class Processor {
      * The kernel exception handler, called on every user exception.
      */
     private Runnable exceptionHandler = null;
+    /**
+     * Physical address of the word linked by the last <tt>ll</tt>
+     * instruction, or <tt>-1</tt> if there is no such word. The link is
+     * broken by any exception, any interrupt and any store to the linked
+     * word.
+     */
+    private int linkedAddress = -1;
+    /**
+     * Recorder of the page references of user programs, or <tt>null</tt> if
+     * they are not traced.
+     */
+    private ReferenceTraceRecorder referenceTrace = null;
 
     /**
      * Allocate a new MIPS processor, with the specified amount of memory.
@@ -199,8 +261,10 @@ public final class Processor {
      *                     machine.
      * @param numPhysPages the number of pages of physical memory to
      *                     attach.
+     * @param directory    the Nachos home directory, where the reference
+     *                     trace is written.
      */
-    public Processor(Privilege privilege, int numPhysPages) {
+    public Processor(Privilege privilege, int numPhysPages, File directory) {
         System.out.print(" processor");
 
         this.privilege = privilege;
@@ -220,6 +284,12 @@ public final class Processor {
         mainMemory = new byte[pageSize * numPhysPages];
 
         if ( usingTLB ) {
+            tlbSize = Config.getInteger("Processor.tlbSize", 4);
+            tlbWays = Config.getInteger("Processor.tlbWays", tlbSize);
+            Lib.assertTrue(tlbSize > 0 && tlbWays > 0 && tlbSize % tlbWays == 0,
+                    "Processor.tlbSize must be a multiple of Processor.tlbWays");
+            tlbSets = tlbSize / tlbWays;
+
             translations = new TranslationEntry[tlbSize];
             for ( int i = 0; i < tlbSize; i++ ) {
                 translations[i] = new TranslationEntry();
@@ -228,6 +298,26 @@ public final class Processor {
         else {
             translations = null;
         }
+
+        String traceFile = Config.getString("Processor.traceFile", null);
+        if ( traceFile != null ) {
+            startReferenceTrace(new File(directory, traceFile),
+                    Config.getInteger("Processor.traceBufferRecords", 64 * 1024));
+        }
+    }
+
+    private void startReferenceTrace(final File file, final int capacity) {
+        privilege.doPrivileged(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    referenceTrace = new ReferenceTraceRecorder(file, capacity);
+                }
+                catch ( IOException e ) {
+                    Lib.assertNotReached("unable to create reference trace " + file + ": " + e.getMessage());
+                }
+            }
+        });
     }
 
     /**
@@ -371,7 +461,8 @@ public final class Processor {
     /**
      * Get the current page table, set by the last call to setPageTable().
      *
-     * @return the current page table.
+     * @return the current page table, or <tt>null</tt> if a two-level page
+     * table is in use.
      */
     public TranslationEntry[] getPageTable() {
         Lib.assertTrue(!usingTLB);
@@ -390,6 +481,44 @@ public final class Processor {
         Lib.assertTrue(!usingTLB);
 
         this.translations = pageTable;
+        this.pageDirectory = null;
+    }
+
+    /**
+     * Get the current page directory, set by the last call to
+     * <tt>setPageTable(TranslationEntry[][])</tt>.
+     *
+     * @return the current page directory, or <tt>null</tt> if a single-level
+     * page table is in use.
+     */
+    public TranslationEntry[][] getPageDirectory() {
+        Lib.assertTrue(!usingTLB);
+
+        return pageDirectory;
+    }
+
+    /**
+     * <p>
+     * Set the page directory base register. All further address translations
+     * will walk the specified two-level page table.
+     * </p>
+     * <p>
+     * The directory has <tt>pageDirectorySize</tt> entries, indexed by the
+     * high bits of the virtual page number. Each entry is either
+     * <tt>null</tt>, leaving its part of the address space unmapped, or a
+     * second-level table of <tt>pageTableSize</tt> entries, indexed by the
+     * low <tt>pageTableBits</tt> bits. Only the mapped regions of an address
+     * space therefore need second-level tables.
+     * </p>
+     *
+     * @param pageDirectory the page directory to use.
+     */
+    public void setPageTable(TranslationEntry[][] pageDirectory) {
+        Lib.assertTrue(!usingTLB);
+        Lib.assertTrue(pageDirectory.length == pageDirectorySize);
+
+        this.translations = null;
+        this.pageDirectory = pageDirectory;
     }
 
     /**
@@ -404,7 +533,101 @@ public final class Processor {
     }
 
     /**
-     * Returns the specified TLB entry.
+     * Return the associativity of this processor's TLB, i.e. the number of
+     * entries in each set. It equals <tt>getTLBSize()</tt> for a fully
+     * associative TLB.
+     *
+     * @return the number of ways of this processor's TLB.
+     */
+    public int getTLBWays() {
+        Lib.assertTrue(usingTLB);
+
+        return tlbWays;
+    }
+
+    /**
+     * Return the number of sets in this processor's TLB.
+     *
+     * @return the number of sets of this processor's TLB.
+     */
+    public int getTLBSets() {
+        Lib.assertTrue(usingTLB);
+
+        return tlbSets;
+    }
+
+    /**
+     * Return the TLB set that the translation of a virtual page must be
+     * placed in.
+     *
+     * @param vpn the virtual page number.
+     * @return the set index of the page.
+     */
+    public int getTLBSet(int vpn) {
+        Lib.assertTrue(usingTLB);
+
+        return tlbSetOf(vpn);
+    }
+
+    private int tlbSetOf(int vpn) {
+        // fold the high bits in, so that pages a multiple of the number of
+        // sets apart do not all collide
+        int hash = vpn ^ (vpn >>> 12);
+        return (hash & 0x7FFFFFFF) % tlbSets;
+    }
+
+    /**
+     * Return the current address space ID.
+     *
+     * @return the value of the address space ID register.
+     */
+    public int getASID() {
+        Lib.assertTrue(usingTLB);
+
+        return asid;
+    }
+
+    /**
+     * Set the address space ID register. Further address translations only
+     * use TLB entries tagged with the specified ID, so the TLB may hold the
+     * translations of several address spaces at once.
+     *
+     * @param asid the new address space ID, between 0 and
+     *             <tt>numASIDs - 1</tt>.
+     */
+    public void setASID(int asid) {
+        Lib.assertTrue(usingTLB);
+        Lib.assertTrue(asid >= 0 && asid < numASIDs);
+
+        this.asid = asid;
+    }
+
+    /**
+     * Set the process ID recorded with the page references of the user
+     * program about to run, if references are traced. See
+     * <tt>ReferenceTraceRecorder</tt>.
+     *
+     * @param pid the process ID.
+     */
+    public void setTracedProcess(int pid) {
+        if ( referenceTrace != null ) {
+            referenceTrace.setProcess(pid);
+        }
+    }
+
+    /**
+     * Test whether a translation entry may map the specified number of pages.
+     *
+     * @param numPages the number of pages.
+     * @return <tt>true</tt> if <i>numPages</i> is 1 or a superpage size.
+     */
+    public static boolean isPageSizeSupported(int numPages) {
+        return numPages == 1 || numPages == smallSuperpagePages || numPages == largeSuperpagePages;
+    }
+
+    /**
+     * Returns the specified TLB entry. Entry <tt>number</tt> is way
+     * <tt>number % getTLBWays()</tt> of set <tt>number / getTLBWays()</tt>.
      *
      * @param number the index into the TLB.
      * @return the contents of the specified TLB entry.
@@ -416,13 +639,33 @@ public final class Processor {
         return new TranslationEntry(translations[number]);
     }
 
+    /**
+     * Returns the specified TLB entry.
+     *
+     * @param set the TLB set.
+     * @param way the entry within the set.
+     * @return the contents of the specified TLB entry.
+     */
+    public TranslationEntry readTLBEntry(int set, int way) {
+        Lib.assertTrue(usingTLB);
+        Lib.assertTrue(set >= 0 && set < tlbSets && way >= 0 && way < tlbWays);
+
+        return readTLBEntry(set * tlbWays + way);
+    }
+
     /**
      * <p>
      * Fill the specified TLB entry.
      * </p>
      * <p>
-     * The TLB is fully associative, so the location of an entry within the TLB
-     * does not affect anything.
+     * A valid entry must be written into the set returned by
+     * <tt>getTLBSet()</tt> for its virtual page, as translation only searches
+     * that set. The way within the set does not affect anything.
+     * </p>
+     * <p>
+     * An entry may map a superpage, whose virtual and physical page numbers
+     * must then be aligned to its size. Its set is the one of its first
+     * virtual page.
      * </p>
      *
      * @param number the index into the TLB.
@@ -431,10 +674,30 @@ public final class Processor {
     public void writeTLBEntry(int number, TranslationEntry entry) {
         Lib.assertTrue(usingTLB);
         Lib.assertTrue(number >= 0 && number < tlbSize);
+        Lib.assertTrue(!entry.valid || tlbSetOf(entry.vpn) == number / tlbWays,
+                "TLB entry written into the wrong set");
+        Lib.assertTrue(!entry.valid || (isPageSizeSupported(entry.numPages) &&
+                        entry.vpn % entry.numPages == 0 && entry.ppn % entry.numPages == 0),
+                "misaligned or unsupported superpage in TLB entry");
 
         translations[number] = new TranslationEntry(entry);
     }
 
+    /**
+     * Fill the specified TLB entry.
+     *
+     * @param set   the TLB set, which must be <tt>getTLBSet(entry.vpn)</tt>
+     *              if the entry is valid.
+     * @param way   the entry within the set.
+     * @param entry the new contents of the TLB entry.
+     */
+    public void writeTLBEntry(int set, int way, TranslationEntry entry) {
+        Lib.assertTrue(usingTLB);
+        Lib.assertTrue(set >= 0 && set < tlbSets && way >= 0 && way < tlbWays);
+
+        writeTLBEntry(set * tlbWays + way, entry);
+    }
+
     /**
      * Return the number of pages of physical memory attached to this simulated
      * processor.
@@ -459,6 +722,14 @@ public final class Processor {
         delayedLoad(0, 0, 0);
     }
 
+    /**
+     * Break the link established by the last <tt>ll</tt> instruction, so that
+     * the following <tt>sc</tt> instruction fails.
+     */
+    private void breakLink() {
+        linkedAddress = -1;
+    }
+
     /**
      * Translate a virtual address into a physical address, using either a
      * page table or a TLB. Check for alignment, make sure the virtual page is
@@ -491,8 +762,21 @@ public final class Processor {
 
         TranslationEntry entry = null;
 
+        // walk the two-level page table if there is one
+        if ( !usingTLB && pageDirectory != null ) {
+            TranslationEntry[] pageTable = pageDirectory[vpn >>> pageTableBits];
+            if ( pageTable != null ) {
+                entry = pageTable[vpn & (pageTableSize - 1)];
+            }
+
+            if ( entry == null || !entry.valid ) {
+                privilege.stats.numPageFaults++;
+                Lib.debug(dbgProcessor, "\t\tpage fault");
+                throw new MipsException(exceptionPageFault, vaddr);
+            }
+        }
         // if not using a TLB, then the vpn is an index into the table
-        if ( !usingTLB ) {
+        else if ( !usingTLB ) {
             if ( translations == null || vpn >= translations.length ||
                     translations[vpn] == null ||
                     !translations[vpn].valid ) {
@@ -503,13 +787,15 @@ public final class Processor {
 
             entry = translations[vpn];
         }
-        // else, look through all TLB entries for matching vpn
+        // else, look for an ordinary page, then a small and a large superpage
+        // containing the vpn, in the set of the first page of each
         else {
-            for ( int i = 0; i < tlbSize; i++ ) {
-                if ( translations[i].valid && translations[i].vpn == vpn ) {
-                    entry = translations[i];
-                    break;
-                }
+            entry = lookupTLB(vpn, 1);
+            if ( entry == null ) {
+                entry = lookupTLB(vpn, smallSuperpagePages);
+            }
+            if ( entry == null ) {
+                entry = lookupTLB(vpn, largeSuperpagePages);
             }
             if ( entry == null ) {
                 privilege.stats.numTLBMisses++;
@@ -525,7 +811,7 @@ public final class Processor {
         }
 
         // check if physical page number is out of range
-        int ppn = entry.ppn;
+        int ppn = entry.ppn + (vpn & (entry.numPages - 1));
         if ( ppn < 0 || ppn >= numPhysPages ) {
             Lib.debug(dbgProcessor, "\t\tbad ppn");
             throw new MipsException(exceptionBusError, vaddr);
@@ -539,12 +825,37 @@ public final class Processor {
 
         int paddr = (ppn * pageSize) + offset;
 
+        if ( referenceTrace != null ) {
+            referenceTrace.record(vpn, writing, privilege.stats.totalTicks);
+        }
+
         if ( Lib.test(dbgProcessor) ) {
             System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
         }
         return paddr;
     }
 
+    /**
+     * Search the TLB for a valid entry of the current address space mapping
+     * the specified page with a page of the specified size.
+     *
+     * @param vpn      the virtual page number.
+     * @param numPages the page size, in pages.
+     * @return the matching entry, or <tt>null</tt> if there is none.
+     */
+    private TranslationEntry lookupTLB(int vpn, int numPages) {
+        int firstVPN = vpn & -numPages;
+        int first = tlbSetOf(firstVPN) * tlbWays;
+        for ( int i = first; i < first + tlbWays; i++ ) {
+            TranslationEntry entry = translations[i];
+            if ( entry.valid && entry.vpn == firstVPN && entry.numPages == numPages && entry.asid == asid ) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Read <i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -589,7 +900,50 @@ public final class Processor {
 
         Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-        Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value, ByteOrder.LITTLE_ENDIAN);
+        int paddr = translate(vaddr, size, true);
+        if ( (paddr & ~0x3) == linkedAddress ) {
+            breakLink();
+        }
+
+        Lib.bytesFromInt(mainMemory, paddr, size, value, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Read a word of virtual memory at <i>vaddr</i> and link its physical
+     * address, as the <tt>ll</tt> (load linked) instruction does.
+     *
+     * @param vaddr the virtual address to read from.
+     * @return the value read.
+     * @throws MipsException if a translation error occurred.
+     */
+    private int readMemLinked(int vaddr) throws MipsException {
+        int paddr = translate(vaddr, 4, false);
+        linkedAddress = paddr;
+
+        return Lib.bytesToInt(mainMemory, paddr, 4, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write <i>value</i> to the word of virtual memory at <i>vaddr</i>, but
+     * only if its physical address is still linked by the last <tt>ll</tt>
+     * instruction, as the <tt>sc</tt> (store conditional) instruction does.
+     * The link is broken in either case.
+     *
+     * @param vaddr the virtual address to write to.
+     * @param value the value to store.
+     * @return <tt>true</tt> if the value was stored.
+     * @throws MipsException if a translation error occurred.
+     */
+    private boolean writeMemConditional(int vaddr, int value) throws MipsException {
+        int paddr = translate(vaddr, 4, true);
+        boolean linked = (paddr == linkedAddress);
+        breakLink();
+
+        if ( linked ) {
+            Lib.bytesFromInt(mainMemory, paddr, 4, value, ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return linked;
     }
 
     /**
@@ -648,6 +1002,7 @@ public final class Processor {
     }
 
     private void handleMipsException(MipsException e) {
+        breakLink();
         writeRegister(regCause, e.cause);
 
         if ( e.hasBadVAddr ) {
@@ -706,7 +1061,9 @@ public final class Processor {
                 STORE = 38,
                 SWL = 39,
                 SWR = 40,
-                MAX = 40;
+                LL = 41,
+                SC = 42,
+                MAX = 42;
         static final int
                 IFMT = 1,
                 JFMT = 2,
@@ -782,7 +1139,7 @@ public final class Processor {
                 new Mips(),
                 new Mips(SWR, "swr ta", IFMT, 0),
                 new Mips(),
-                new Mips(UNIMPL, "ll "),
+                new Mips(LL, "ll ta", IFMT, DELAYEDLOAD | SIZEW),
                 new Mips(),
                 new Mips(),
                 new Mips(),
@@ -790,7 +1147,7 @@ public final class Processor {
                 new Mips(),
                 new Mips(),
                 new Mips(),
-                new Mips(UNIMPL, "sc "),
+                new Mips(SC, "sc ta", IFMT, DST | SIZEW),
                 new Mips(),
                 new Mips(),
                 new Mips(),
@@ -922,6 +1279,7 @@ public final class Processor {
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
         public void flushPipe() {
             finishLoad();
+            breakLink();
         }
     }
 
@@ -1329,6 +1687,14 @@ public final class Processor {
                     writeMem(addr, size, (int) src2);
                     break;
 
+                case Mips.LL:
+                    dst = readMemLinked(addr);
+                    break;
+
+                case Mips.SC:
+                    dst = writeMemConditional(addr, (int) src2) ? 1 : 0;
+                    break;
+
                 case Mips.SWL:
                     value = readMem(addr & ~0x3, 4);
 
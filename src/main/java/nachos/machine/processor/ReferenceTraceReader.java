@@ -0,0 +1,170 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine.processor;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Streams the references of a trace file written by
+ * <tt>ReferenceTraceRecorder</tt>, one at a time:
+ * </p>
+ * <pre>
+ * try ( ReferenceTraceReader reader = new ReferenceTraceReader(fileName) ) {
+ *     while ( reader.next() ) {
+ *         ... reader.getPid(), reader.getVPN(), reader.isWrite() ...
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Usage: <tt>java nachos.machine.processor.ReferenceTraceReader trace</tt>
+ * prints the references as text, one per line, in the form <tt>pid vpn r</tt>
+ * or <tt>pid vpn w</tt> read by <tt>nachos.vm.ReplacementSimulator</tt>,
+ * followed by the tick.
+ * </p>
+ */
+public final class ReferenceTraceReader implements Closeable {
+    private final DataInputStream input;
+    private final byte[] record = new byte[ReferenceTraceRecorder.recordSize];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private long tick;
+    private int pid;
+    private int vpn;
+    private boolean write;
+
+    /**
+     * Open a trace file.
+     *
+     * @param fileName the name of the trace file.
+     * @throws IOException if the file cannot be read or is not a trace.
+     */
+    public ReferenceTraceReader(String fileName) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        if ( !isTraceHeader(input) ) {
+            input.close();
+            throw new IOException(fileName + " is not a reference trace");
+        }
+    }
+
+    /**
+     * Test whether a file is a trace file, as opposed to a text trace.
+     *
+     * @param fileName the name of the file.
+     * @return <tt>true</tt> if the file starts with
+     * <tt>ReferenceTraceRecorder.magic</tt>.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isReferenceTrace(String fileName) throws IOException {
+        try ( DataInputStream input = new DataInputStream(new FileInputStream(fileName)) ) {
+            return isTraceHeader(input);
+        }
+    }
+
+    /**
+     * Print a trace file as text.
+     *
+     * @param args the trace file.
+     */
+    public static void main(String[] args) {
+        if ( args.length != 1 ) {
+            System.err.println("usage: java nachos.machine.processor.ReferenceTraceReader trace");
+            System.exit(1);
+        }
+
+        try ( ReferenceTraceReader reader = new ReferenceTraceReader(args[0]) ) {
+            while ( reader.next() ) {
+                System.out.println(reader.getPid() + " " + reader.getVPN() + " " + (reader.isWrite() ? "w" : "r")
+                        + " " + reader.getTick());
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println("unable to read trace " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static boolean isTraceHeader(DataInputStream input) throws IOException {
+        try {
+            return input.readInt() == ReferenceTraceRecorder.magic;
+        }
+        catch ( EOFException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the next reference.
+     *
+     * @return <tt>true</tt> if a reference was read, <tt>false</tt> at the end
+     * of the trace.
+     * @throws IOException if the file cannot be read or ends within a record.
+     */
+    public boolean next() throws IOException {
+        int first = input.read();
+        if ( first == -1 ) {
+            return false;
+        }
+
+        record[0] = (byte) first;
+        input.readFully(record, 1, record.length - 1);
+
+        tick = recordBuffer.getLong(0);
+        pid = recordBuffer.getInt(8);
+        int page = recordBuffer.getInt(12);
+        vpn = page & ~ReferenceTraceRecorder.writeBit;
+        write = (page & ReferenceTraceRecorder.writeBit) != 0;
+        return true;
+    }
+
+    /**
+     * Return the time of the current reference.
+     *
+     * @return the tick.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Return the ID of the process making the current reference.
+     *
+     * @return the process ID.
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Return the page of the current reference.
+     *
+     * @return the virtual page number.
+     */
+    public int getVPN() {
+        return vpn;
+    }
+
+    /**
+     * Test whether the current reference is a write.
+     *
+     * @return <tt>true</tt> for a write, <tt>false</tt> for a read.
+     */
+    public boolean isWrite() {
+        return write;
+    }
+
+    /**
+     * Close the trace file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,230 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine.processor;
+
+import nachos.machine.lib.Lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Records the page references of user programs to a binary trace file, for
+ * offline analysis of the memory system. Enabled by the <tt>nachos.conf</tt>
+ * key <tt>Processor.traceFile</tt>, naming a file in the Nachos home
+ * directory.
+ * </p>
+ * <p>
+ * Each address translated by the processor is stored as a record in a ring
+ * buffer of <tt>Processor.traceBufferRecords</tt> records, allocated up
+ * front, so recording allocates no memory. A host thread writes the records
+ * to the file when the buffer is half full, and at least every
+ * <tt>flushInterval</tt> milliseconds; the processor only waits for it when
+ * the buffer is full. The remaining records are written when the JVM exits.
+ * </p>
+ * <p>
+ * The file starts with the 4-byte number <tt>magic</tt>, followed by records
+ * of <tt>recordSize</tt> bytes, in big-endian byte order: the tick of the
+ * reference (8 bytes), the process ID (4 bytes), and the virtual page number
+ * with bit 31 set for a write (4 bytes). Use <tt>ReferenceTraceReader</tt> to
+ * read it back.
+ * </p>
+ */
+public final class ReferenceTraceRecorder {
+    /**
+     * The first word of a trace file, <tt>"NTRC"</tt>.
+     */
+    public static final int magic = 0x4E545243;
+    /**
+     * The size of a record, in bytes.
+     */
+    public static final int recordSize = 16;
+    /**
+     * The bit of the page word set for a write.
+     */
+    static final int writeBit = 0x80000000;
+    /**
+     * The longest time records stay in the buffer, in milliseconds.
+     */
+    private static final long flushInterval = 100;
+
+    private final FileChannel channel;
+    private final int capacity;
+    private final ByteBuffer buffer;
+    /**
+     * View of <tt>buffer</tt> used by the host thread.
+     */
+    private final ByteBuffer flushBuffer;
+    /**
+     * The number of records stored, and the number of records written to the
+     * file. The processor only advances <tt>head</tt>, the host thread only
+     * advances <tt>tail</tt>.
+     */
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile boolean closing = false;
+    private volatile boolean failed = false;
+    private final Thread flushThread;
+    private int pid = 0;
+
+    /**
+     * Create the trace file and start the host thread writing it. The caller
+     * must have privilege.
+     *
+     * @param file     the trace file.
+     * @param capacity the number of records the ring buffer holds.
+     * @throws IOException if the file cannot be created.
+     */
+    ReferenceTraceRecorder(File file, int capacity) throws IOException {
+        Lib.assertTrue(capacity >= 2);
+
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity * recordSize);
+        flushBuffer = buffer.duplicate();
+
+        channel = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(magic).flip();
+        channel.write(header);
+
+        flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "reference trace");
+        flushThread.setDaemon(true);
+        flushThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }));
+    }
+
+    /**
+     * Set the process ID recorded with the following references.
+     *
+     * @param pid the ID of the process now running.
+     */
+    void setProcess(int pid) {
+        this.pid = pid;
+    }
+
+    /**
+     * Record a reference to a page by the running process.
+     *
+     * @param vpn   the virtual page number.
+     * @param write <tt>true</tt> if the page is written.
+     * @param tick  the current time.
+     */
+    void record(int vpn, boolean write, long tick) {
+        if ( head - tail == capacity ) {
+            waitForRoom();
+        }
+        if ( failed ) {
+            return;
+        }
+
+        int offset = (int) (head % capacity) * recordSize;
+        buffer.putLong(offset, tick);
+        buffer.putInt(offset + 8, pid);
+        buffer.putInt(offset + 12, write ? (vpn | writeBit) : vpn);
+        head++;
+
+        if ( head - tail == capacity / 2 ) {
+            synchronized ( this ) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write the remaining records and close the file.
+     */
+    void close() {
+        synchronized ( this ) {
+            if ( closing ) {
+                return;
+            }
+            closing = true;
+            notifyAll();
+        }
+
+        try {
+            flushThread.join();
+        }
+        catch ( InterruptedException e ) {
+        }
+
+        try {
+            channel.close();
+        }
+        catch ( IOException e ) {
+        }
+    }
+
+    private synchronized void waitForRoom() {
+        notifyAll();
+        while ( head - tail == capacity && !failed ) {
+            try {
+                wait();
+            }
+            catch ( InterruptedException e ) {
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while ( true ) {
+            synchronized ( this ) {
+                if ( !closing && head - tail < capacity / 2 ) {
+                    try {
+                        wait(flushInterval);
+                    }
+                    catch ( InterruptedException e ) {
+                    }
+                }
+            }
+
+            boolean last = closing;
+            try {
+                writeRecords(head);
+            }
+            catch ( IOException e ) {
+                System.err.println("reference trace: " + e.getMessage());
+                synchronized ( this ) {
+                    failed = true;
+                    notifyAll();
+                }
+                return;
+            }
+
+            if ( last ) {
+                return;
+            }
+        }
+    }
+
+    private void writeRecords(long end) throws IOException {
+        while ( tail < end ) {
+            int first = (int) (tail % capacity);
+            int count = (int) Math.min(end - tail, capacity - first);
+
+            flushBuffer.limit((first + count) * recordSize).position(first * recordSize);
+            while ( flushBuffer.hasRemaining() ) {
+                channel.write(flushBuffer);
+            }
+
+            synchronized ( this ) {
+                tail += count;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package nachos.network;
 
 import nachos.machine.Machine;
+import nachos.machine.config.Config;
 import nachos.machine.lib.Lib;
 import nachos.machine.net.MalformedPacketException;
 import nachos.machine.net.Packet;
@@ -9,6 +10,8 @@ import nachos.threads.Lock;
 import nachos.threads.Semaphore;
 import nachos.threads.SynchList;
 
+import java.util.Collection;
+
 /**
  * <p>
  * A collection of message queues, one for each local port. A
@@ -22,9 +25,20 @@ import nachos.threads.SynchList;
  * be done in the receive interrupt handler because each queue (implemented
  * with a <tt>SynchList</tt>) is protected by a lock.
  * </p>
+ * <p>
+ * Every port queue is bounded by the <tt>PostOffice.queueCapacity</tt>
+ * configuration key. When a port queue is full, the postal worker drops the
+ * incoming message instead of blocking, so that a single slow receiver can
+ * not stall delivery to all other ports. This is consistent with the network
+ * hardware, which may lose messages anyway.
+ * </p>
  */
 public class PostOffice {
     private static final char dbgNet = 'n';
+    /**
+     * Capacity of each port queue, when not specified in the configuration.
+     */
+    private static final int defaultQueueCapacity = 64;
     private SynchList<MailMessage>[] queues;
     private Semaphore messageReceived;    // V'd when a message can be dequeued
     private Semaphore messageSent;    // V'd when a message can be queued
@@ -40,10 +54,12 @@ public class PostOffice {
         messageSent = new Semaphore(0);
         sendLock = new Lock();
 
+        int queueCapacity = Config.getInteger("PostOffice.queueCapacity", defaultQueueCapacity);
+
         //noinspection unchecked
         queues = new SynchList[MailMessage.portLimit];
         for ( int i = 0; i < queues.length; i++ ) {
-            queues[i] = new SynchList<>();
+            queues[i] = new SynchList<>(queueCapacity);
         }
 
         Runnable receiveHandler = new Runnable() {
@@ -91,6 +107,28 @@ public class PostOffice {
         return mail;
     }
 
+    /**
+     * Retrieve all messages waiting on the specified port, but at most
+     * <tt>maxMessages</tt> of them, waiting for at least one message if
+     * necessary. The messages are appended to the specified collection.
+     *
+     * @param port        the port on which to wait for messages.
+     * @param mail        the collection to store received messages in.
+     * @param maxMessages the maximum number of messages to receive.
+     * @return the number of messages received.
+     */
+    public int receive(int port, Collection<MailMessage> mail, int maxMessages) {
+        Lib.assertTrue(port >= 0 && port < queues.length);
+
+        Lib.debug(dbgNet, "waiting for mail batch on port " + port);
+
+        int count = queues[port].drainTo(mail, maxMessages);
+
+        Lib.debug(dbgNet, "got " + count + " mail messages on port " + port);
+
+        return count;
+    }
+
     /**
      * Wait for incoming messages, and then put them in the correct mailbox.
      */
@@ -114,8 +152,11 @@ public class PostOffice {
                         + ": " + mail);
             }
 
-            // atomically add message to the mailbox and wake a waiting thread
-            queues[mail.dstPort].add(mail);
+            // atomically add message to the mailbox and wake a waiting thread,
+            // dropping the message if the mailbox is full
+            if ( !queues[mail.dstPort].offer(mail) ) {
+                Lib.debug(dbgNet, "mailbox on port " + mail.dstPort + " is full, dropping mail");
+            }
         }
     }
 
@@ -5,9 +5,27 @@ public abstract class Condition {
      * Lock associated with this condition variable.
      */
     protected Lock conditionLock;
+    /**
+     * Contention statistics of this condition variable, or <tt>null</tt> if
+     * profiling is disabled.
+     *
+     * @see SynchronizationProfiler
+     */
+    final SynchronizationProfiler.Record profile;
 
     protected Condition(Lock conditionLock) {
+        this(conditionLock, null);
+    }
+
+    /**
+     * @param conditionLock the lock associated with this condition variable.
+     * @param name          the name used to identify this condition variable
+     *                      in the synchronization profile, or <tt>null</tt>
+     *                      to name it after the code creating it.
+     */
+    protected Condition(Lock conditionLock, String name) {
         this.conditionLock = conditionLock;
+        this.profile = SynchronizationProfiler.register(getClass().getSimpleName(), name);
     }
 
     /**
@@ -31,7 +31,21 @@ public class InterruptsCondition extends Condition {
      *                      <tt>wake()</tt>, or <tt>wakeAll()</tt>.
      */
     public InterruptsCondition(Lock conditionLock) {
-        super(conditionLock);
+        this(conditionLock, null);
+    }
+
+    /**
+     * Allocate a new condition variable with the specified name, which is
+     * used to identify the condition variable in the synchronization profile.
+     *
+     * @param conditionLock the lock associated with this condition
+     *                      variable.
+     * @param name          the name of the condition variable, or
+     *                      <tt>null</tt> to name it after the code creating
+     *                      it.
+     */
+    public InterruptsCondition(Lock conditionLock, String name) {
+        super(conditionLock, name);
         this.waitQueue = new LinkedList<>();
     }
 
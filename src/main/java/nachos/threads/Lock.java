@@ -20,15 +20,46 @@ import nachos.machine.lib.Lib;
  * semaphores, the API does not allow you to read the lock state (because the
  * value could change immediately after you read it).
  * </p>
+ *
+ * @see SynchronizationProfiler
  */
 public class Lock {
     private KThread lockHolder = null;
     private ThreadQueue waitQueue = ThreadedKernel.scheduler.newThreadQueue(true);
 
+    /**
+     * Contention statistics of this lock, or <tt>null</tt> if profiling is
+     * disabled.
+     */
+    private final SynchronizationProfiler.Record profile;
+    /**
+     * Number of threads waiting in <tt>acquire()</tt>, maintained only while
+     * profiling.
+     */
+    private int waiters = 0;
+    /**
+     * Time the current holder acquired this lock, maintained only while
+     * profiling.
+     */
+    private long acquiredAt = 0;
+
     /**
      * Allocate a new lock. The lock will initially be <i>free</i>.
      */
     public Lock() {
+        this(null);
+    }
+
+    /**
+     * Allocate a new lock with the specified name, which is used to identify
+     * the lock in the synchronization profile. The lock will initially be
+     * <i>free</i>.
+     *
+     * @param name the name of the lock, or <tt>null</tt> to name it after
+     *             the code creating it.
+     */
+    public Lock(String name) {
+        profile = SynchronizationProfiler.register("Lock", name);
     }
 
     /**
@@ -43,15 +74,33 @@ public class Lock {
 
         if ( lockHolder != null ) {
             waitQueue.waitForAccess(thread);
-            KThread.sleep();
+
+            if ( profile != null ) {
+                long waitStart = SynchronizationProfiler.now();
+                profile.waiting(++waiters);
+                KThread.sleep();
+                waiters--;
+                profile.woken(waitStart);
+            }
+            else {
+                KThread.sleep();
+            }
         }
         else {
             waitQueue.acquire(thread);
             lockHolder = thread;
+
+            if ( profile != null ) {
+                profile.acquired();
+            }
         }
 
         Lib.assertTrue(lockHolder == thread);
 
+        if ( profile != null ) {
+            acquiredAt = SynchronizationProfiler.now();
+        }
+
         Machine.interrupt().restore(intStatus);
     }
 
@@ -63,6 +112,10 @@ public class Lock {
 
         boolean intStatus = Machine.interrupt().disable();
 
+        if ( profile != null ) {
+            profile.released(acquiredAt);
+        }
+
         if ( (lockHolder = waitQueue.nextThread()) != null ) {
             lockHolder.ready();
         }
@@ -22,19 +22,45 @@ import nachos.machine.lib.Lib;
  * and some other thread might have called <tt>P()</tt> or <tt>V()</tt>, so the
  * true value might now be different.
  * </p>
+ *
+ * @see SynchronizationProfiler
  */
 public class Semaphore {
     private int value;
     private ThreadQueue waitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
 
+    /**
+     * Contention statistics of this semaphore, or <tt>null</tt> if profiling
+     * is disabled.
+     */
+    private final SynchronizationProfiler.Record profile;
+    /**
+     * Number of threads waiting in <tt>P()</tt>, maintained only while
+     * profiling.
+     */
+    private int waiters = 0;
+
     /**
      * Allocate a new semaphore.
      *
      * @param initialValue the initial value of this semaphore.
      */
     public Semaphore(int initialValue) {
+        this(initialValue, null);
+    }
+
+    /**
+     * Allocate a new semaphore with the specified name, which is used to
+     * identify the semaphore in the synchronization profile.
+     *
+     * @param initialValue the initial value of this semaphore.
+     * @param name         the name of the semaphore, or <tt>null</tt> to name
+     *                     it after the code creating it.
+     */
+    public Semaphore(int initialValue, String name) {
         Lib.assertTrue(initialValue >= 0);
         value = initialValue;
+        profile = SynchronizationProfiler.register("Semaphore", name);
     }
 
     /**
@@ -60,10 +86,24 @@ public class Semaphore {
 
         if ( value == 0 ) {
             waitQueue.waitForAccess(KThread.currentThread());
-            KThread.sleep();
+
+            if ( profile != null ) {
+                long waitStart = SynchronizationProfiler.now();
+                profile.waiting(++waiters);
+                KThread.sleep();
+                waiters--;
+                profile.woken(waitStart);
+            }
+            else {
+                KThread.sleep();
+            }
         }
         else {
             value--;
+
+            if ( profile != null ) {
+                profile.acquired();
+            }
         }
 
         Machine.interrupt().restore(intStatus);
@@ -71,7 +71,21 @@ public class SemaphoresCondition extends Condition {
      *                      <tt>wake()</tt>, or <tt>wakeAll()</tt>.
      */
     public SemaphoresCondition(Lock conditionLock) {
-        super(conditionLock);
+        this(conditionLock, null);
+    }
+
+    /**
+     * Allocate a new condition variable with the specified name, which is
+     * used to identify the condition variable in the synchronization profile.
+     *
+     * @param conditionLock the lock associated with this condition
+     *                      variable.
+     * @param name          the name of the condition variable, or
+     *                      <tt>null</tt> to name it after the code creating
+     *                      it.
+     */
+    public SemaphoresCondition(Lock conditionLock, String name) {
+        super(conditionLock, name);
         waitQueue = new LinkedList<>();
     }
 
@@ -100,9 +114,15 @@ public class SemaphoresCondition extends Condition {
 
         // Create new semaphore instance with initial value set to 0
         // for calling thread and add it to this condition waiting queue
-        Semaphore waiter = new Semaphore(0);
+        Semaphore waiter = new Semaphore(0, "SemaphoresCondition.waiter");
         waitQueue.add(waiter);
 
+        long waitStart = 0;
+        if ( profile != null ) {
+            waitStart = SynchronizationProfiler.now();
+            profile.waiting(waitQueue.size());
+        }
+
         // Release the lock
         conditionLock.release();
         // Call P() on newly created semaphore object which causes
@@ -116,6 +136,10 @@ public class SemaphoresCondition extends Condition {
         // thread can acquire lock before this thread if it gets planned
         // by scheduler before this one.
         conditionLock.acquire();
+
+        if ( profile != null ) {
+            profile.woken(waitStart);
+        }
     }
 
     /**
@@ -2,23 +2,58 @@ package nachos.threads;
 
 import nachos.machine.lib.Lib;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
+ * <p>
  * A synchronized queue.
+ * </p>
+ * <p>
+ * The queue may optionally be bounded. When a bounded queue is full,
+ * <tt>add()</tt> blocks until some other thread removes an element, while
+ * <tt>offer()</tt> returns immediately without adding anything. Consumers can
+ * either remove elements one by one with <tt>removeFirst()</tt>, or move
+ * whole batches of elements under a single lock acquisition with
+ * <tt>drainTo()</tt>.
+ * </p>
  */
 public class SynchList<T> {
+    /**
+     * Capacity used by queues allocated without explicit bound.
+     */
+    public static final int unbounded = Integer.MAX_VALUE;
+
     private LinkedList<T> list;
+    private int capacity;
     private Lock lock;
     private Condition listEmpty;
+    private Condition listFull;
 
     /**
-     * Allocate a new synchronized queue.
+     * Allocate a new unbounded synchronized queue.
      */
     public SynchList() {
+        this(unbounded);
+    }
+
+    /**
+     * Allocate a new synchronized queue, which can hold at most
+     * <tt>capacity</tt> elements.
+     *
+     * @param capacity maximum number of elements in the queue. Must be
+     *                 positive.
+     */
+    public SynchList(int capacity) {
+        Lib.assertTrue(capacity > 0);
+
+        this.capacity = capacity;
         list = new LinkedList<>();
         lock = new Lock();
         listEmpty = new SemaphoresCondition(lock);
+        listFull = new SemaphoresCondition(lock);
     }
 
     /**
@@ -35,11 +70,30 @@ public class SynchList<T> {
             ping.add(i);
             Lib.assertTrue(pong.removeFirst().equals(o));
         }
+
+        // producer is throttled by the bound, consumer takes batches
+        SynchList<Integer> bounded = new SynchList<>(3);
+        KThread producer = new KThread(new ProducerTest(bounded, 10)).setName("producer");
+        producer.fork();
+
+        List<Integer> drained = new ArrayList<>();
+        while ( drained.size() < 10 ) {
+            int count = bounded.drainTo(drained, 4);
+            Lib.assertTrue(count > 0 && count <= 3);
+        }
+        for ( int i = 0; i < 10; i++ ) {
+            Lib.assertTrue(drained.get(i).equals(i));
+        }
+
+        Lib.assertTrue(bounded.offer(0) && bounded.offer(1) && bounded.offer(2));
+        Lib.assertTrue(!bounded.offer(3));
+        Lib.assertTrue(bounded.size() == 3);
     }
 
     /**
-     * Add the specified object to the end of the queue. If another thread is
-     * waiting in <tt>removeFirst()</tt>, it is woken up.
+     * Add the specified object to the end of the queue, blocking until there
+     * is free space in the queue if necessary. If another thread is waiting in
+     * <tt>removeFirst()</tt> or <tt>drainTo()</tt>, it is woken up.
      *
      * @param o the object to add. Must not be <tt>null</tt>.
      */
@@ -47,11 +101,37 @@ public class SynchList<T> {
         Lib.assertTrue(o != null);
 
         lock.acquire();
+        while ( list.size() >= capacity ) {
+            listFull.sleep();
+        }
         list.add(o);
         listEmpty.wake();
         lock.release();
     }
 
+    /**
+     * Add the specified object to the end of the queue, if it can be done
+     * without blocking. If another thread is waiting in <tt>removeFirst()</tt>
+     * or <tt>drainTo()</tt>, it is woken up.
+     *
+     * @param o the object to add. Must not be <tt>null</tt>.
+     * @return <tt>true</tt> if the object was added, <tt>false</tt> if the
+     * queue is full.
+     */
+    public boolean offer(T o) {
+        Lib.assertTrue(o != null);
+
+        lock.acquire();
+        boolean added = list.size() < capacity;
+        if ( added ) {
+            list.add(o);
+            listEmpty.wake();
+        }
+        lock.release();
+
+        return added;
+    }
+
     /**
      * Remove an object from the front of the queue, blocking until the queue
      * is non-empty if necessary.
@@ -66,11 +146,72 @@ public class SynchList<T> {
             listEmpty.sleep();
         }
         o = list.removeFirst();
+        listFull.wake();
         lock.release();
 
         return o;
     }
 
+    /**
+     * Remove up to <tt>maxElements</tt> objects from the front of the queue
+     * and append them to the specified collection, blocking until the queue
+     * is non-empty if necessary. All elements are moved while holding the
+     * queue lock only once, and every thread that can make progress in
+     * <tt>add()</tt> afterwards is woken up.
+     *
+     * @param collection  the collection to transfer elements into.
+     * @param maxElements the maximum number of elements to transfer. Must be
+     *                    positive.
+     * @return the number of elements transferred, which is always at least
+     * one.
+     */
+    public int drainTo(Collection<? super T> collection, int maxElements) {
+        Lib.assertTrue(collection != null && maxElements > 0);
+
+        lock.acquire();
+        while ( list.isEmpty() ) {
+            listEmpty.sleep();
+        }
+
+        int count = Math.min(maxElements, list.size());
+        for ( int i = 0; i < count; i++ ) {
+            collection.add(list.removeFirst());
+        }
+
+        if ( count == 1 ) {
+            listFull.wake();
+        }
+        else {
+            listFull.wakeAll();
+        }
+        lock.release();
+
+        return count;
+    }
+
+    /**
+     * Return the number of elements currently in the queue. The value is only
+     * a snapshot and might change immediately after it is returned.
+     *
+     * @return the number of elements in the queue.
+     */
+    public int size() {
+        lock.acquire();
+        int size = list.size();
+        lock.release();
+
+        return size;
+    }
+
+    /**
+     * Return the maximum number of elements this queue can hold.
+     *
+     * @return the capacity of this queue.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
     private static class PingTest implements Runnable {
         private SynchList<Integer> ping;
         private SynchList<Integer> pong;
@@ -87,5 +228,21 @@ public class SynchList<T> {
             }
         }
     }
-}
 
+    private static class ProducerTest implements Runnable {
+        private SynchList<Integer> list;
+        private int count;
+
+        ProducerTest(SynchList<Integer> list, int count) {
+            this.list = list;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            for ( int i = 0; i < count; i++ ) {
+                list.add(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package nachos.threads;
+
+import nachos.machine.Machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Collects contention statistics of the kernel synchronization primitives
+ * (<tt>Lock</tt>, <tt>Semaphore</tt> and the <tt>Condition</tt>
+ * implementations). <tt>InterruptsCondition</tt> is left to be implemented
+ * and records no waits of its own.
+ * </p>
+ * <p>
+ * Profiling is disabled by default and can be enabled with the
+ * <tt>ThreadedKernel.profileSynchronization</tt> configuration key. While
+ * disabled, <tt>register()</tt> returns <tt>null</tt> and the primitives skip
+ * all bookkeeping, so the only overhead is a single <tt>null</tt> check.
+ * </p>
+ * <p>
+ * Statistics are aggregated by the name of the primitive, which defaults to
+ * the site (class, method and line) where the primitive was created. This way
+ * all short lived primitives created at the same place, such as the per
+ * waiter semaphores of <tt>SemaphoresCondition</tt>, end up in a single
+ * record. The report is printed by <tt>Machine.halt()</tt>, right after the
+ * machine statistics.
+ * </p>
+ */
+public final class SynchronizationProfiler {
+    /**
+     * <tt>true</tt> if newly created primitives should be profiled.
+     */
+    private static boolean enabled;
+
+    /**
+     * All records registered so far, in the order of their first
+     * registration.
+     */
+    private static Map<String, Record> records;
+
+    static {
+        initializeStaticFields();
+    }
+
+    /**
+     * Prevent instantiation.
+     */
+    private SynchronizationProfiler() {
+    }
+
+    private static void initializeStaticFields() {
+        enabled = false;
+        records = new LinkedHashMap<>();
+    }
+
+    /**
+     * Enable or disable profiling of primitives created from now on.
+     * Primitives created before this call are not affected.
+     *
+     * @param enabled <tt>true</tt> to enable profiling.
+     */
+    public static void setEnabled(boolean enabled) {
+        SynchronizationProfiler.enabled = enabled;
+    }
+
+    /**
+     * Test if profiling is enabled.
+     *
+     * @return <tt>true</tt> if profiling is enabled.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the profiling record for a newly created primitive.
+     *
+     * @param kind the kind of the primitive, e.g. <tt>"Lock"</tt>.
+     * @param name the name of the primitive, or <tt>null</tt> to name it
+     *             after its creation site.
+     * @return the record shared by all primitives of the same kind and name,
+     * or <tt>null</tt> if profiling is disabled.
+     */
+    static Record register(String kind, String name) {
+        if ( !enabled ) {
+            return null;
+        }
+
+        if ( name == null ) {
+            name = creationSite();
+        }
+
+        String key = kind + " " + name;
+        Record record = records.get(key);
+        if ( record == null ) {
+            record = new Record(kind, name);
+            records.put(key, record);
+        }
+
+        return record;
+    }
+
+    /**
+     * Find the first stack frame outside of the synchronization primitives.
+     *
+     * @return description of the code that created the primitive.
+     */
+    private static String creationSite() {
+        for ( StackTraceElement frame : new Throwable().getStackTrace() ) {
+            String className = frame.getClassName();
+            if ( !className.equals(SynchronizationProfiler.class.getName()) &&
+                    !className.equals(Lock.class.getName()) &&
+                    !className.equals(Semaphore.class.getName()) &&
+                    !className.equals(Condition.class.getName()) &&
+                    !className.equals(SemaphoresCondition.class.getName()) &&
+                    !className.equals(InterruptsCondition.class.getName()) ) {
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+                return simpleName + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+            }
+        }
+
+        return "(unknown)";
+    }
+
+    /**
+     * Current simulated time used to measure wait and hold times.
+     *
+     * @return the number of clock ticks since Nachos started.
+     */
+    static long now() {
+        return Machine.timer().getTime();
+    }
+
+    /**
+     * Print the collected statistics, sorted by total wait time. Does nothing
+     * if no primitive was profiled.
+     */
+    public static void print() {
+        if ( records.isEmpty() ) {
+            return;
+        }
+
+        List<Record> sorted = new ArrayList<>(records.values());
+        Collections.sort(sorted, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return Long.compare(b.waitTicks, a.waitTicks);
+            }
+        });
+
+        System.out.println("Synchronization profile (acquisitions, contended, "
+                + "wait ticks, hold ticks, max queue):");
+        for ( Record record : sorted ) {
+            System.out.println("\t" + record);
+        }
+    }
+
+    /**
+     * Contention statistics of all primitives with the same kind and name.
+     * Meaning of the counters depends on the kind of primitive. For locks and
+     * semaphores an acquisition is a call to <tt>acquire()</tt> or
+     * <tt>P()</tt>, which is contended if the calling thread had to wait. For
+     * condition variables an acquisition is a call to <tt>sleep()</tt>, which
+     * is always contended. Hold time is measured only for locks.
+     * <p>
+     * Counters are updated without giving up the processor in between, so
+     * they need no further synchronization.
+     * </p>
+     */
+    static final class Record {
+        final String kind;
+        final String name;
+        long acquisitions;
+        long contendedAcquisitions;
+        long waitTicks;
+        long holdTicks;
+        int maxQueueLength;
+
+        private Record(String kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /**
+         * Record an acquisition that did not need to wait.
+         */
+        void acquired() {
+            acquisitions++;
+        }
+
+        /**
+         * Record that a thread is about to wait.
+         *
+         * @param queueLength number of waiting threads including the calling
+         *                    one.
+         */
+        void waiting(int queueLength) {
+            acquisitions++;
+            contendedAcquisitions++;
+            maxQueueLength = Math.max(maxQueueLength, queueLength);
+        }
+
+        /**
+         * Record that a waiting thread was woken.
+         *
+         * @param waitStart time at which the thread started waiting.
+         */
+        void woken(long waitStart) {
+            waitTicks += now() - waitStart;
+        }
+
+        /**
+         * Record that a lock was released.
+         *
+         * @param holdStart time at which the lock was acquired.
+         */
+        void released(long holdStart) {
+            holdTicks += now() - holdStart;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name + ": " + acquisitions
+                    + ", " + contendedAcquisitions
+                    + ", " + waitTicks
+                    + ", " + holdTicks
+                    + ", " + maxQueueLength;
+        }
+    }
+}
@@ -36,6 +36,9 @@ public class ThreadedKernel extends Kernel {
      */
     @Override
     public void initialize(String[] args) {
+        // enable synchronization profiling before any primitive is created
+        SynchronizationProfiler.setEnabled(Config.getBoolean("ThreadedKernel.profileSynchronization", false));
+
         // set scheduler
         scheduler = Lib.constructObject(Config.getString("ThreadedKernel.scheduler"), Scheduler.class);
 
@@ -0,0 +1,118 @@
+package nachos.userprog;
+
+import nachos.machine.Machine;
+import nachos.machine.elf.Elf;
+import nachos.machine.elf.ElfLoadingException;
+import nachos.machine.io.ArrayFile;
+import nachos.machine.io.OpenFile;
+import nachos.machine.lib.Lib;
+import nachos.threads.ThreadedKernel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Least recently used cache of parsed and validated executables. Each cached
+ * executable is kept entirely in memory, so a repeated <tt>exec()</tt> of the
+ * same program neither parses its headers again nor waits for the file
+ * system: its sections are loaded from the cached bytes.
+ * </p>
+ * <p>
+ * The returned <tt>Elf</tt> objects are shared by all processes running the
+ * executable and must not be closed. An executable is dropped from the cache
+ * as soon as it is created, written or unlinked, see <tt>invalidate()</tt>.
+ * </p>
+ */
+public class ExecutableCache {
+    private static final char dbgProcess = 'a';
+
+    private final Map<String, Elf> executables;
+    /**
+     * Incremented by every invalidation, so a load that raced with an
+     * invalidation does not insert stale contents.
+     */
+    private int generation;
+
+    /**
+     * Allocate a new executable cache.
+     *
+     * @param capacity the maximum number of cached executables. Must be
+     *                 positive.
+     */
+    public ExecutableCache(final int capacity) {
+        Lib.assertTrue(capacity > 0);
+
+        executables = new LinkedHashMap<String, Elf>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Elf> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the parsed executable with the specified name, reading and
+     * parsing it if it is not cached.
+     *
+     * @param name the name of the file containing the executable.
+     * @return the executable, or <tt>null</tt> if the file does not exist or
+     * is not a valid executable.
+     */
+    public Elf open(String name) {
+        boolean intStatus = Machine.interrupt().disable();
+        Elf elf = executables.get(name);
+        int loadGeneration = generation;
+        Machine.interrupt().restore(intStatus);
+
+        if ( elf != null ) {
+            Lib.debug(dbgProcess, "\texecutable cache hit");
+            return elf;
+        }
+
+        OpenFile file = ThreadedKernel.fileSystem.open(name, false);
+        if ( file == null ) {
+            Lib.debug(dbgProcess, "\topen failed");
+            return null;
+        }
+
+        // read the whole file at once, then parse it from memory
+        byte[] contents = new byte[file.length()];
+        int length = file.read(0, contents, 0, contents.length);
+        file.close();
+        if ( length != contents.length ) {
+            Lib.debug(dbgProcess, "\tread failed");
+            return null;
+        }
+
+        try {
+            elf = new Elf(new ArrayFile(contents));
+        }
+        catch ( ElfLoadingException e ) {
+            e.printStackTrace();
+            Lib.debug(dbgProcess, "\telf load failed");
+            return null;
+        }
+
+        intStatus = Machine.interrupt().disable();
+        if ( generation == loadGeneration ) {
+            executables.put(name, elf);
+        }
+        Machine.interrupt().restore(intStatus);
+
+        return elf;
+    }
+
+    /**
+     * Drop the executable with the specified name from the cache, because
+     * the file was created, modified or deleted.
+     *
+     * @param name the name of the file.
+     */
+    public void invalidate(String name) {
+        boolean intStatus = Machine.interrupt().disable();
+        executables.remove(name);
+        generation++;
+        Machine.interrupt().restore(intStatus);
+    }
+}
@@ -0,0 +1,407 @@
+package nachos.userprog;
+
+import nachos.machine.Machine;
+import nachos.machine.lib.Lib;
+
+/**
+ * <p>
+ * Allocator of physical page frames, backed by a bitmap with one bit per
+ * frame. A set bit marks a free frame, so a free frame is found by scanning
+ * the bitmap a whole word (64 frames) at a time.
+ * </p>
+ * <p>
+ * Besides single frames, the allocator hands out several frames in one call
+ * (lowest numbered free frames first, so an unfragmented memory yields a
+ * contiguous run) and physically contiguous runs of frames. Frames can be
+ * released one by one or all at once, e.g. when a process exits.
+ * </p>
+ * <p>
+ * A frame may be shared, e.g. by processes sharing pages copy-on-write. Each
+ * allocated frame carries a reference count, which starts at one and is
+ * incremented by <tt>share()</tt>. Releasing a frame drops one reference and
+ * the frame becomes free when its last reference is dropped.
+ * </p>
+ * <p>
+ * All operations are atomic with respect to other kernel threads.
+ * </p>
+ */
+public class FrameAllocator {
+    private static final int bitsPerWord = 64;
+
+    /**
+     * Bitmap of frames, bit <tt>i % 64</tt> of word <tt>i / 64</tt> is set if
+     * frame <tt>i</tt> is free.
+     */
+    private final long[] freeMap;
+    /**
+     * Number of references to each allocated frame.
+     */
+    private final int[] references;
+    private final int numFrames;
+    private int numFreeFrames;
+
+    /**
+     * Allocate a new frame allocator managing frames <tt>0</tt> to
+     * <tt>numFrames - 1</tt>, all of which are initially free.
+     *
+     * @param numFrames the number of frames. Must not be negative.
+     */
+    public FrameAllocator(int numFrames) {
+        Lib.assertTrue(numFrames >= 0);
+
+        this.numFrames = numFrames;
+        freeMap = new long[(numFrames + bitsPerWord - 1) / bitsPerWord];
+        references = new int[numFrames];
+        for ( int frame = 0; frame < numFrames; frame++ ) {
+            freeMap[frame / bitsPerWord] |= bit(frame);
+        }
+        numFreeFrames = numFrames;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+        FrameAllocator allocator = new FrameAllocator(130);
+
+        int[] frames = allocator.allocate(100);
+        Lib.assertTrue(frames != null && frames[0] == 0 && frames[99] == 99);
+        Lib.assertTrue(allocator.allocate(31) == null);
+        Lib.assertTrue(allocator.getNumFreeFrames() == 30 && allocator.getFragmentation() == 0);
+
+        // free every other frame of the first 20, then a contiguous run
+        for ( int frame = 0; frame < 20; frame += 2 ) {
+            allocator.free(frame);
+        }
+        allocator.free(new int[]{60, 61, 62, 63, 64});
+        Lib.assertTrue(allocator.getNumFreeFrames() == 45);
+        Lib.assertTrue(allocator.getLargestFreeRun() == 30 && allocator.getNumFreeRuns() == 12);
+
+        Lib.assertTrue(allocator.allocate() == 0);
+        Lib.assertTrue(allocator.allocateContiguous(5) == 60);
+        Lib.assertTrue(allocator.allocateContiguous(31) == -1);
+        Lib.assertTrue(allocator.allocateContiguous(30) == 100);
+        Lib.assertTrue(allocator.getNumFreeFrames() == 9 && allocator.getLargestFreeRun() == 1);
+
+        allocator.free(60, 5);
+        allocator.free(100, 30);
+        Lib.assertTrue(allocator.getNumFreeFrames() == 44 && !allocator.isFree(0) && allocator.isFree(129));
+
+        // an aligned run skips the free frames before the boundary
+        Lib.assertTrue(allocator.allocateContiguous(16, 16) == 112);
+        Lib.assertTrue(allocator.allocateContiguous(32, 32) == -1);
+        allocator.free(112, 16);
+
+        // a shared frame is freed with its last reference
+        allocator.share(0);
+        allocator.free(0);
+        Lib.assertTrue(!allocator.isFree(0) && allocator.getReferenceCount(0) == 1);
+        allocator.free(0);
+        Lib.assertTrue(allocator.isFree(0) && allocator.getReferenceCount(0) == 0);
+    }
+
+    private static long bit(int frame) {
+        return 1L << (frame % bitsPerWord);
+    }
+
+    /**
+     * Allocate a single frame.
+     *
+     * @return the frame number, or -1 if there is no free frame.
+     */
+    public int allocate() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        int frame = findFree(0);
+        if ( frame != -1 ) {
+            take(frame);
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return frame;
+    }
+
+    /**
+     * Allocate <i>count</i> frames, which need not be contiguous. Either all
+     * frames are allocated, or none.
+     *
+     * @param count the number of frames. Must not be negative.
+     * @return the allocated frame numbers in increasing order, or
+     * <tt>null</tt> if fewer than <i>count</i> frames are free.
+     */
+    public int[] allocate(int count) {
+        Lib.assertTrue(count >= 0);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        if ( count > numFreeFrames ) {
+            Machine.interrupt().restore(intStatus);
+            return null;
+        }
+
+        int[] frames = new int[count];
+        int frame = 0;
+        for ( int i = 0; i < count; i++ ) {
+            frame = findFree(frame);
+            take(frame);
+            frames[i] = frame;
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return frames;
+    }
+
+    /**
+     * Allocate <i>count</i> physically contiguous frames, using the first run
+     * of free frames long enough.
+     *
+     * @param count the number of frames. Must be positive.
+     * @return the first frame of the allocated run, or -1 if there is no
+     * long enough run of free frames.
+     */
+    public int allocateContiguous(int count) {
+        return allocateContiguous(count, 1);
+    }
+
+    /**
+     * Allocate <i>count</i> physically contiguous frames starting at a
+     * multiple of <i>alignment</i>, using the first such run of free frames,
+     * e.g. to back a superpage.
+     *
+     * @param count     the number of frames. Must be positive.
+     * @param alignment the alignment of the first frame. Must be positive.
+     * @return the first frame of the allocated run, or -1 if there is no
+     * suitable run of free frames.
+     */
+    public int allocateContiguous(int count, int alignment) {
+        Lib.assertTrue(count > 0 && alignment > 0);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        int first = -1;
+        int frame = findFree(0);
+        while ( frame != -1 ) {
+            int start = (frame + alignment - 1) / alignment * alignment;
+            if ( start + count > numFrames ) {
+                break;
+            }
+
+            int end = findUsed(start);
+            if ( end - start >= count ) {
+                first = start;
+                break;
+            }
+            frame = findFree(end);
+        }
+
+        if ( first != -1 ) {
+            for ( int i = 0; i < count; i++ ) {
+                take(first + i);
+            }
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return first;
+    }
+
+    /**
+     * Add a reference to an allocated frame, so that it stays allocated until
+     * one more <tt>free()</tt>.
+     *
+     * @param frame the frame number. Must be allocated.
+     */
+    public void share(int frame) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        Lib.assertTrue(!isFree(frame));
+        references[frame]++;
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of references to a frame.
+     *
+     * @param frame the frame number.
+     * @return the number of references, which is 0 for a free frame.
+     */
+    public int getReferenceCount(int frame) {
+        Lib.assertTrue(frame >= 0 && frame < numFrames);
+
+        return references[frame];
+    }
+
+    /**
+     * Release a single frame.
+     *
+     * @param frame the frame number. Must be allocated.
+     */
+    public void free(int frame) {
+        boolean intStatus = Machine.interrupt().disable();
+        release(frame);
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release all specified frames at once.
+     *
+     * @param frames the frame numbers. All of them must be allocated.
+     */
+    public void free(int[] frames) {
+        boolean intStatus = Machine.interrupt().disable();
+        for ( int frame : frames ) {
+            release(frame);
+        }
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release a run of contiguous frames.
+     *
+     * @param first the first frame of the run.
+     * @param count the number of frames in the run. All of them must be
+     *              allocated.
+     */
+    public void free(int first, int count) {
+        boolean intStatus = Machine.interrupt().disable();
+        for ( int i = 0; i < count; i++ ) {
+            release(first + i);
+        }
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test whether the specified frame is free.
+     *
+     * @param frame the frame number.
+     * @return <tt>true</tt> if the frame is free.
+     */
+    public boolean isFree(int frame) {
+        Lib.assertTrue(frame >= 0 && frame < numFrames);
+
+        return (freeMap[frame / bitsPerWord] & bit(frame)) != 0;
+    }
+
+    /**
+     * Return the total number of frames managed by this allocator.
+     *
+     * @return the number of frames.
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Return the number of free frames.
+     *
+     * @return the number of free frames.
+     */
+    public int getNumFreeFrames() {
+        return numFreeFrames;
+    }
+
+    /**
+     * Return the length of the longest run of contiguous free frames, which
+     * is the largest request <tt>allocateContiguous()</tt> can satisfy.
+     *
+     * @return the length of the longest free run.
+     */
+    public int getLargestFreeRun() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        int largest = 0;
+        int frame = findFree(0);
+        while ( frame != -1 ) {
+            int end = findUsed(frame);
+            largest = Math.max(largest, end - frame);
+            frame = findFree(end);
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return largest;
+    }
+
+    /**
+     * Return the number of maximal runs of contiguous free frames.
+     *
+     * @return the number of free runs.
+     */
+    public int getNumFreeRuns() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        int runs = 0;
+        int frame = findFree(0);
+        while ( frame != -1 ) {
+            runs++;
+            frame = findFree(findUsed(frame));
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return runs;
+    }
+
+    /**
+     * Return the external fragmentation of free frames, that is the fraction
+     * of free frames lying outside of the longest free run. It is 0 if all
+     * free frames are contiguous (or there are none), and approaches 1 as the
+     * free frames get scattered.
+     *
+     * @return the fragmentation, between 0 inclusive and 1 exclusive.
+     */
+    public double getFragmentation() {
+        int free = numFreeFrames;
+        if ( free == 0 ) {
+            return 0;
+        }
+
+        return 1 - (double) getLargestFreeRun() / free;
+    }
+
+    /**
+     * Find the first free frame at or after <i>from</i>.
+     */
+    private int findFree(int from) {
+        for ( int word = from / bitsPerWord; from < numFrames; word++ ) {
+            long bits = freeMap[word] & (-1L << (from % bitsPerWord));
+            if ( bits != 0 ) {
+                return word * bitsPerWord + Long.numberOfTrailingZeros(bits);
+            }
+            from = (word + 1) * bitsPerWord;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find the first allocated frame at or after <i>from</i>, or
+     * <tt>numFrames</tt> if there is no such frame.
+     */
+    private int findUsed(int from) {
+        for ( int word = from / bitsPerWord; from < numFrames; word++ ) {
+            long bits = ~freeMap[word] & (-1L << (from % bitsPerWord));
+            if ( bits != 0 ) {
+                return Math.min(numFrames, word * bitsPerWord + Long.numberOfTrailingZeros(bits));
+            }
+            from = (word + 1) * bitsPerWord;
+        }
+
+        return numFrames;
+    }
+
+    private void take(int frame) {
+        Lib.assertTrue(isFree(frame));
+
+        freeMap[frame / bitsPerWord] &= ~bit(frame);
+        references[frame] = 1;
+        numFreeFrames--;
+    }
+
+    private void release(int frame) {
+        Lib.assertTrue(!isFree(frame));
+
+        if ( --references[frame] == 0 ) {
+            freeMap[frame / bitsPerWord] |= bit(frame);
+            numFreeFrames++;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package nachos.userprog;
+
+import nachos.machine.Machine;
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.Processor;
+import nachos.threads.KThread;
+import nachos.threads.ThreadQueue;
+import nachos.threads.ThreadedKernel;
+
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Kernel wait table backing the <tt>futex_wait</tt> and <tt>futex_wake</tt>
+ * syscalls. Waiting threads are parked on a queue selected by the
+ * <i>physical</i> address of the futex word, so processes sharing a physical
+ * page synchronize on the same queue regardless of where the page is mapped
+ * in their address spaces.
+ * </p>
+ * <p>
+ * The table is only used on the contended path. A user-space lock acquires
+ * and releases an uncontended futex word with atomic instructions alone and
+ * traps into the kernel only to sleep or to wake up sleepers.
+ * </p>
+ */
+public class FutexTable {
+    /**
+     * Wait queues indexed by physical address of the futex word. A queue is
+     * present only while it has waiters.
+     */
+    private final Map<Integer, Waiters> queues = new HashMap<>();
+
+    /**
+     * Allocate a new, empty futex wait table.
+     */
+    public FutexTable() {
+    }
+
+    /**
+     * Atomically check that the word at physical address <i>paddr</i> still
+     * contains <i>expected</i> and put the current thread to sleep until it
+     * is woken by <tt>wake()</tt> on the same address. The check and the
+     * enqueue happen with interrupts disabled, so a wake-up issued after the
+     * user changed the word cannot be lost.
+     *
+     * @param paddr    word aligned physical address of the futex word.
+     * @param expected the value the futex word is expected to contain.
+     * @return <tt>true</tt> if the thread slept and was woken, <tt>false</tt>
+     * if the futex word did not contain the expected value.
+     */
+    public boolean wait(int paddr, int expected) {
+        Lib.assertTrue(isValidAddress(paddr));
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        int value = Lib.bytesToInt(Machine.processor().getMemory(), paddr, 4, ByteOrder.LITTLE_ENDIAN);
+        if ( value != expected ) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        Waiters waiters = queues.get(paddr);
+        if ( waiters == null ) {
+            waiters = new Waiters();
+            queues.put(paddr, waiters);
+        }
+
+        waiters.count++;
+        waiters.queue.waitForAccess(KThread.currentThread());
+        KThread.sleep();
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    /**
+     * Wake up at most <i>count</i> threads sleeping on physical address
+     * <i>paddr</i>.
+     *
+     * @param paddr word aligned physical address of the futex word.
+     * @param count the maximum number of threads to wake up.
+     * @return the number of threads woken up.
+     */
+    public int wake(int paddr, int count) {
+        Lib.assertTrue(isValidAddress(paddr));
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        int woken = 0;
+        Waiters waiters = queues.get(paddr);
+        if ( waiters != null ) {
+            KThread thread;
+            while ( woken < count && (thread = waiters.queue.nextThread()) != null ) {
+                thread.ready();
+                waiters.count--;
+                woken++;
+            }
+
+            if ( waiters.count == 0 ) {
+                queues.remove(paddr);
+            }
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return woken;
+    }
+
+    /**
+     * Test whether any thread sleeps on a futex word in the specified physical
+     * page. Such page must stay resident at its current physical address.
+     *
+     * @param ppn the physical page number.
+     * @return <tt>true</tt> if some thread waits on a word in the page.
+     */
+    public boolean hasWaiters(int ppn) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        boolean found = false;
+        for ( int paddr : queues.keySet() ) {
+            if ( paddr / Processor.pageSize == ppn ) {
+                found = true;
+                break;
+            }
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return found;
+    }
+
+    private static boolean isValidAddress(int paddr) {
+        return paddr >= 0 && (paddr & 0x3) == 0 && paddr < Machine.processor().getMemory().length;
+    }
+
+    /**
+     * Threads sleeping on a single futex word.
+     */
+    private static class Waiters {
+        private final ThreadQueue queue = ThreadedKernel.scheduler.newThreadQueue(false);
+        private int count;
+    }
+}
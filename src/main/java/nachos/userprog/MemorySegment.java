@@ -0,0 +1,48 @@
+package nachos.userprog;
+
+import nachos.machine.processor.Processor;
+
+/**
+ * A run of physically contiguous bytes of main memory backing a part of a
+ * user buffer. The run starts at byte <tt>offset</tt> of physical page
+ * <tt>ppn</tt> and may span several consecutive physical pages.
+ *
+ * @see UserProcess#getPhysicalSegments
+ */
+public final class MemorySegment {
+    /**
+     * The physical page number the segment starts in.
+     */
+    public final int ppn;
+    /**
+     * The offset of the first byte of the segment within page <tt>ppn</tt>.
+     */
+    public final int offset;
+    /**
+     * The number of bytes in the segment.
+     */
+    public final int length;
+
+    /**
+     * Allocate a new memory segment.
+     *
+     * @param ppn    the physical page number the segment starts in.
+     * @param offset the offset of the first byte within the page.
+     * @param length the number of bytes in the segment.
+     */
+    public MemorySegment(int ppn, int offset, int length) {
+        this.ppn = ppn;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Return the physical address of the first byte of the segment, i.e. the
+     * index of that byte in <tt>Processor.getMemory()</tt>.
+     *
+     * @return the physical address of the segment.
+     */
+    public int getPhysicalAddress() {
+        return Processor.makeAddress(ppn, offset);
+    }
+}
@@ -0,0 +1,159 @@
+package nachos.userprog;
+
+import nachos.machine.Machine;
+import nachos.machine.TranslationEntry;
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.Processor;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The page table of a user process, kept in the format the processor walks.
+ * If <tt>UserKernel.twoLevelPageTables</tt> is set, this is a page directory
+ * whose second-level tables are created when the first page of their part of
+ * the address space is mapped and dropped when its last page is unmapped, so
+ * only the mapped regions take table memory. Otherwise it is a single-level
+ * table with one entry per page of the address space.
+ * </p>
+ * <p>
+ * The kernel updates single entries with <tt>set()</tt>. Once loaded, the
+ * processor walks the same tables, so it sees the updates without the table
+ * being loaded again. Only growing a single-level table replaces it, see
+ * <tt>setNumPages()</tt>.
+ * </p>
+ */
+public class PageTable {
+    /**
+     * The number of pages of the address space.
+     */
+    private int numPages;
+    /**
+     * The single-level table, or <tt>null</tt> in the two-level format.
+     */
+    private TranslationEntry[] entries;
+    /**
+     * The page directory, or <tt>null</tt> in the single-level format.
+     */
+    private TranslationEntry[][] directory;
+    /**
+     * The number of entries of each second-level table that are not
+     * <tt>null</tt>.
+     */
+    private int[] directoryCounts;
+
+    /**
+     * Allocate a new page table with all entries <tt>null</tt>.
+     *
+     * @param numPages the number of pages of the address space.
+     */
+    public PageTable(int numPages) {
+        Lib.assertTrue(numPages >= 0 && numPages <= Processor.maxPages);
+
+        this.numPages = numPages;
+        if ( UserKernel.twoLevelPageTables ) {
+            directory = new TranslationEntry[Processor.pageDirectorySize][];
+            directoryCounts = new int[Processor.pageDirectorySize];
+        }
+        else {
+            entries = new TranslationEntry[numPages];
+        }
+    }
+
+    /**
+     * Return the number of pages of the address space.
+     *
+     * @return the number of entries.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Return the entry of a page.
+     *
+     * @param vpn the virtual page number, smaller than
+     *            <tt>getNumPages()</tt>.
+     * @return the entry, or <tt>null</tt> if the page is unmapped.
+     */
+    public TranslationEntry get(int vpn) {
+        Lib.assertTrue(vpn >= 0 && vpn < numPages);
+
+        if ( entries != null ) {
+            return entries[vpn];
+        }
+
+        TranslationEntry[] table = directory[vpn >>> Processor.pageTableBits];
+        return (table == null) ? null : table[vpn & (Processor.pageTableSize - 1)];
+    }
+
+    /**
+     * Set the entry of a page.
+     *
+     * @param vpn   the virtual page number, smaller than
+     *              <tt>getNumPages()</tt>.
+     * @param entry the new entry, or <tt>null</tt> to unmap the page.
+     */
+    public void set(int vpn, TranslationEntry entry) {
+        Lib.assertTrue(vpn >= 0 && vpn < numPages);
+
+        if ( entries != null ) {
+            entries[vpn] = entry;
+            return;
+        }
+
+        int directoryIndex = vpn >>> Processor.pageTableBits;
+        int tableIndex = vpn & (Processor.pageTableSize - 1);
+        TranslationEntry[] table = directory[directoryIndex];
+        if ( table == null ) {
+            if ( entry == null ) {
+                return;
+            }
+
+            table = new TranslationEntry[Processor.pageTableSize];
+            directory[directoryIndex] = table;
+        }
+
+        if ( table[tableIndex] == null && entry != null ) {
+            directoryCounts[directoryIndex]++;
+        }
+        else if ( table[tableIndex] != null && entry == null ) {
+            directoryCounts[directoryIndex]--;
+        }
+        table[tableIndex] = entry;
+
+        if ( directoryCounts[directoryIndex] == 0 ) {
+            directory[directoryIndex] = null;
+        }
+    }
+
+    /**
+     * Extend the address space to the specified number of pages. The new
+     * entries are <tt>null</tt>. A single-level table is replaced by a longer
+     * copy, which the processor only sees once <tt>load()</tt> is called
+     * again.
+     *
+     * @param numPages the new number of pages, not smaller than the current
+     *                 one.
+     */
+    public void setNumPages(int numPages) {
+        Lib.assertTrue(numPages >= this.numPages && numPages <= Processor.maxPages);
+
+        this.numPages = numPages;
+        if ( entries != null ) {
+            entries = Arrays.copyOf(entries, numPages);
+        }
+    }
+
+    /**
+     * Make the processor translate addresses through this page table.
+     */
+    public void load() {
+        if ( entries != null ) {
+            Machine.processor().setPageTable(entries);
+        }
+        else {
+            Machine.processor().setPageTable(directory);
+        }
+    }
+}
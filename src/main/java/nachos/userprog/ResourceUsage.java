@@ -0,0 +1,101 @@
+package nachos.userprog;
+
+/**
+ * <p>
+ * Memory usage counters of a single user process, the per-process
+ * counterpart of the system-wide paging statistics. Events are counted
+ * by the process as it handles them.
+ * </p>
+ * <p>
+ * The resident set and working set are sampled when the process is switched
+ * out, at most once per timer interval of <tt>Stats.TimerTicks</tt> ticks.
+ * The working set is the number of resident pages referenced since the
+ * previous sample, as shown by their used bits.
+ * </p>
+ */
+public final class ResourceUsage {
+    /**
+     * The number of words stored by <tt>getrusage()</tt>, see
+     * <tt>toWords()</tt>.
+     */
+    public static final int numWords = 8;
+
+    /**
+     * The number of faults on pages that were not resident.
+     */
+    public int numPageFaults = 0;
+    /**
+     * The number of TLB misses.
+     */
+    public int numTLBMisses = 0;
+    /**
+     * The number of pages read back from swap.
+     */
+    public int numSwapIns = 0;
+    /**
+     * The number of pages copied on a write to a copy-on-write page.
+     */
+    public int numCopyOnWriteCopies = 0;
+
+    private int maxResidentPages = 0;
+    private int workingSetSize = 0;
+    private int maxWorkingSetSize = 0;
+    private long totalWorkingSetSize = 0;
+    private int numSamples = 0;
+
+    /**
+     * Record a sample of the resident set and working set sizes.
+     *
+     * @param residentPages  the number of resident pages.
+     * @param workingSetSize the number of pages referenced since the previous
+     *                       sample.
+     */
+    public void sample(int residentPages, int workingSetSize) {
+        maxResidentPages = Math.max(maxResidentPages, residentPages);
+        this.workingSetSize = workingSetSize;
+        maxWorkingSetSize = Math.max(maxWorkingSetSize, workingSetSize);
+        totalWorkingSetSize += workingSetSize;
+        numSamples++;
+    }
+
+    /**
+     * Return the mean of all working set samples.
+     *
+     * @return the average working set size, in pages.
+     */
+    public int getAverageWorkingSetSize() {
+        return (numSamples == 0) ? 0 : (int) (totalWorkingSetSize / numSamples);
+    }
+
+    /**
+     * Return the counters in the layout of <tt>struct rusage</tt> in
+     * <tt>syscall.h</tt>: resident pages, maximum resident pages, page
+     * faults, TLB misses, swap-ins, copy-on-write copies, last working set
+     * size and average working set size.
+     *
+     * @param residentPages the current number of resident pages.
+     * @return the words of the structure.
+     */
+    public int[] toWords(int residentPages) {
+        return new int[]{
+                residentPages, Math.max(maxResidentPages, residentPages), numPageFaults, numTLBMisses,
+                numSwapIns, numCopyOnWriteCopies, workingSetSize, getAverageWorkingSetSize()
+        };
+    }
+
+    /**
+     * Return a one-line report of the counters.
+     *
+     * @param residentPages the current number of resident pages.
+     * @return the report.
+     */
+    public String toString(int residentPages) {
+        return "resident " + residentPages + " (max " + Math.max(maxResidentPages, residentPages) + ")"
+                + ", page faults " + numPageFaults
+                + ", TLB misses " + numTLBMisses
+                + ", swap-ins " + numSwapIns
+                + ", copy-on-write copies " + numCopyOnWriteCopies
+                + ", working set " + workingSetSize
+                + " (avg " + getAverageWorkingSetSize() + ", max " + maxWorkingSetSize + ")";
+    }
+}
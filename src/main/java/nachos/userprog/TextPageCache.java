@@ -0,0 +1,180 @@
+package nachos.userprog;
+
+import nachos.machine.elf.Elf;
+import nachos.threads.Lock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Kernel-wide cache of the read-only pages of executables. All processes
+ * running the same executable map the same frame for each of its read-only
+ * section pages, so e.g. ten instances of <tt>cat</tt> hold a single copy of
+ * its text.
+ * </p>
+ * <p>
+ * The cache holds no reference of its own. Each process mapping a cached page
+ * holds one reference to its frame, and the page leaves the cache when the
+ * last of them is released through <tt>release()</tt>. An executable's pages
+ * are forgotten as soon as the executable is modified or deleted, so a newly
+ * started process never sees stale text; processes already running keep
+ * their old pages.
+ * </p>
+ */
+public class TextPageCache {
+    /**
+     * Cached images, indexed by executable name.
+     */
+    private final Map<String, Image> images = new HashMap<>();
+    /**
+     * Cached pages, indexed by the frame holding them.
+     */
+    private final Map<Integer, CachedPage> pagesByFrame = new HashMap<>();
+    private final Lock lock = new Lock("TextPageCache.lock");
+
+    /**
+     * Allocate a new, empty text page cache.
+     */
+    public TextPageCache() {
+    }
+
+    /**
+     * Return the frame holding a read-only page of an executable, loading
+     * the page into a new frame if it is not cached yet. The caller receives
+     * one reference to the frame, to be dropped by <tt>release()</tt> followed
+     * by <tt>FrameAllocator.free()</tt>.
+     *
+     * @param executable the name of the executable.
+     * @param elf        the executable, used to load the page if necessary.
+     * @param section    the index of a read-only section of the executable.
+     * @param spn        the page number within the section.
+     * @return the physical page number, or -1 if there is no free frame.
+     */
+    public int getPage(String executable, Elf elf, int section, int spn) {
+        lock.acquire();
+
+        Image image = images.get(executable);
+        if ( image == null ) {
+            image = new Image(elf);
+            images.put(executable, image);
+        }
+
+        int ppn = image.frames[section][spn];
+        if ( ppn != -1 ) {
+            UserKernel.frameAllocator.share(ppn);
+        }
+        else {
+            ppn = UserKernel.frameAllocator.allocate();
+            if ( ppn != -1 ) {
+                elf.getSection(section).loadPage(spn, ppn);
+                image.frames[section][spn] = ppn;
+                pagesByFrame.put(ppn, new CachedPage(image, section, spn));
+            }
+        }
+
+        lock.release();
+        return ppn;
+    }
+
+    /**
+     * Return the frame holding a read-only page of an executable if the page
+     * is cached, without loading it otherwise. On success the caller receives
+     * one reference to the frame, as with <tt>getPage()</tt>.
+     *
+     * @param executable the name of the executable.
+     * @param section    the index of a read-only section of the executable.
+     * @param spn        the page number within the section.
+     * @return the physical page number, or -1 if the page is not cached.
+     */
+    public int getCachedPage(String executable, int section, int spn) {
+        lock.acquire();
+
+        Image image = images.get(executable);
+        int ppn = (image != null) ? image.frames[section][spn] : -1;
+        if ( ppn != -1 ) {
+            UserKernel.frameAllocator.share(ppn);
+        }
+
+        lock.release();
+        return ppn;
+    }
+
+    /**
+     * Prepare frames of a process to be freed. Every cached page whose frame
+     * is referenced only by the calling process is removed from the cache.
+     * Frames not in the cache are ignored.
+     *
+     * @param frames frames about to be released by the calling process.
+     */
+    public void release(int[] frames) {
+        lock.acquire();
+
+        for ( int ppn : frames ) {
+            CachedPage page = pagesByFrame.get(ppn);
+            if ( page != null && UserKernel.frameAllocator.getReferenceCount(ppn) == 1 ) {
+                pagesByFrame.remove(ppn);
+                page.image.frames[page.section][page.spn] = -1;
+            }
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Forget all pages of the specified executable, because its contents
+     * changed or it was deleted.
+     *
+     * @param executable the name of the executable.
+     */
+    public void invalidate(String executable) {
+        lock.acquire();
+
+        Image image = images.remove(executable);
+        if ( image != null ) {
+            for ( int[] sectionFrames : image.frames ) {
+                for ( int ppn : sectionFrames ) {
+                    if ( ppn != -1 ) {
+                        pagesByFrame.remove(ppn);
+                    }
+                }
+            }
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Frames of the cached pages of one executable.
+     */
+    private static class Image {
+        /**
+         * Frame of each page of each section, or -1 if not cached.
+         */
+        private final int[][] frames;
+
+        private Image(Elf elf) {
+            frames = new int[elf.getNumSections()][];
+            for ( int s = 0; s < frames.length; s++ ) {
+                frames[s] = new int[elf.getSection(s).getNumPages()];
+                Arrays.fill(frames[s], -1);
+            }
+        }
+    }
+
+    /**
+     * Location of a cached page within its image.
+     */
+    private static class CachedPage {
+        private final Image image;
+        private final int section;
+        private final int spn;
+
+        private CachedPage(Image image, int section, int spn) {
+            this.image = image;
+            this.section = section;
+            this.spn = spn;
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class UThread extends KThread {
 
     private void runProgram() {
         process.initRegisters();
+        Machine.processor().setTracedProcess(process.getPid());
         process.restoreState();
 
         Machine.processor().run();
@@ -79,6 +80,7 @@ public class UThread extends KThread {
             Machine.processor().writeRegister(i, userRegisters[i]);
         }
 
+        Machine.processor().setTracedProcess(process.getPid());
         process.restoreState();
     }
 }
@@ -1,6 +1,7 @@
 package nachos.userprog;
 
 import nachos.machine.Machine;
+import nachos.machine.config.Config;
 import nachos.machine.lib.Lib;
 import nachos.machine.processor.Processor;
 import nachos.threads.KThread;
@@ -9,10 +10,8 @@ import nachos.threads.ThreadedKernel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 /**
@@ -24,9 +23,36 @@ public class UserKernel extends ThreadedKernel {
      */
     public static SynchConsole console;
     /**
-     * Global FIFO queue of all free physical pages indexes.
+     * Globally accessible reference to the futex wait table.
      */
-    private static Queue<Integer> freePhysicalPages;
+    public static FutexTable futexTable;
+    /**
+     * Globally accessible reference to the allocator of physical pages.
+     */
+    public static FrameAllocator frameAllocator;
+    /**
+     * Globally accessible reference to the cache of read-only executable
+     * pages.
+     */
+    public static TextPageCache textPageCache;
+    /**
+     * Globally accessible reference to the cache of parsed executables.
+     */
+    public static ExecutableCache executableCache;
+    /**
+     * <tt>true</tt> if processes hand the processor a two-level page table
+     * instead of a single-level one.
+     */
+    public static boolean twoLevelPageTables;
+    /**
+     * The maximum number of pages the stack of a process may grow to.
+     */
+    public static int maxStackPages;
+    /**
+     * The maximum number of pages the heap of a process may grow to with
+     * <tt>sbrk()</tt>.
+     */
+    public static int maxHeapPages;
     /**
      * All processes created within this kernel.
      */
@@ -45,6 +71,10 @@ public class UserKernel extends ThreadedKernel {
      * pid for a new process.
      */
     private static int processesCreated;
+    /**
+     * Memory usage reports of the processes that have exited, in order.
+     */
+    private static List<String> usageReports;
 
     static {
         initializeStaticFields();
@@ -58,11 +88,18 @@ public class UserKernel extends ThreadedKernel {
     }
 
     private static void initializeStaticFields() {
-        freePhysicalPages = new LinkedList<>();
+        frameAllocator = null;
+        textPageCache = null;
+        executableCache = null;
+        twoLevelPageTables = false;
+        maxStackPages = 0;
+        maxHeapPages = 0;
         processes = new HashMap<>();
+        usageReports = new ArrayList<>();
         filenameProcessesMap = new HashMap<>();
         filesToDelete = new HashSet<>();
         console = null;
+        futexTable = new FutexTable();
         processesCreated = UserProcess.rootPid;
     }
 
@@ -91,33 +128,6 @@ public class UserKernel extends ThreadedKernel {
         return pid;
     }
 
-    /**
-     * Retrieves and removes free page number from free physical pages queue.
-     *
-     * @return free physical page number.
-     */
-    public static int pollFreePage() {
-        Integer page;
-        boolean intStatus = Machine.interrupt().disable();
-        if ( (page = freePhysicalPages.poll()) == null ) {
-            page = -1;
-        }
-        Machine.interrupt().restore(intStatus);
-        return page;
-    }
-
-    /**
-     * Inserts specified physical page number back to free physical pages queue.
-     *
-     * @param page physical page number to be inserted.
-     */
-    public static void addFreePage(int page) {
-        Lib.assertTrue(page >= 0 && page < Machine.processor().getNumPhysPages());
-        boolean intStatus = Machine.interrupt().disable();
-        freePhysicalPages.add(page);
-        Machine.interrupt().restore(intStatus);
-    }
-
     /**
      * Registers newly created user process.
      *
@@ -141,6 +151,18 @@ public class UserKernel extends ThreadedKernel {
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Keep the memory usage report of an exiting process, to be printed when
+     * this kernel terminates.
+     *
+     * @param report the report, see <tt>UserProcess.getUsageReport()</tt>.
+     */
+    public static void recordUsageReport(String report) {
+        boolean intStatus = Machine.interrupt().disable();
+        usageReports.add(report);
+        Machine.interrupt().restore(intStatus);
+    }
+
     /**
      * Retrieves {@link UserProcess} instance with specified pid.
      *
@@ -255,6 +277,18 @@ public class UserKernel extends ThreadedKernel {
         return isRegistered;
     }
 
+    /**
+     * Drops every cached copy of the specified file, because it was created,
+     * written or deleted, so that executables started afterwards see its new
+     * contents.
+     *
+     * @param filename filename of the modified file.
+     */
+    public static void fileModified(String filename) {
+        executableCache.invalidate(filename);
+        textPageCache.invalidate(filename);
+    }
+
     /**
      * Initialize this kernel. Creates a synchronized console and sets the
      * processor's exception handler.
@@ -272,9 +306,12 @@ public class UserKernel extends ThreadedKernel {
             }
         });
 
-        for ( int i = 0; i < Machine.processor().getNumPhysPages(); i++ ) {
-            freePhysicalPages.add(i);
-        }
+        frameAllocator = new FrameAllocator(Machine.processor().getNumPhysPages());
+        textPageCache = new TextPageCache();
+        executableCache = new ExecutableCache(Config.getInteger("UserKernel.executableCacheSize", 8));
+        twoLevelPageTables = Config.getBoolean("UserKernel.twoLevelPageTables", false);
+        maxStackPages = Math.max(UserProcess.initialStackPages, Config.getInteger("UserKernel.maxStackPages", 64));
+        maxHeapPages = Math.max(0, Config.getInteger("UserKernel.maxHeapPages", 1024));
     }
 
     /**
@@ -283,6 +320,7 @@ public class UserKernel extends ThreadedKernel {
     @Override
     public void selfTest() {
         super.selfTest();
+        FrameAllocator.selfTest();
     }
 
     /**
@@ -331,6 +369,24 @@ public class UserKernel extends ThreadedKernel {
      */
     @Override
     public void terminate() {
+        printUsageReports();
         Machine.nachosRuntimeRecorder().reportFinishingLastUserThread();
     }
+
+    /**
+     * Print the memory usage of all processes, those that exited first.
+     */
+    private static void printUsageReports() {
+        if ( usageReports.isEmpty() && processes.isEmpty() ) {
+            return;
+        }
+
+        System.out.println("Process memory usage:");
+        for ( String report : usageReports ) {
+            System.out.println("\t" + report);
+        }
+        for ( UserProcess process : processes.values() ) {
+            System.out.println("\t" + process.getUsageReport());
+        }
+    }
 }
@@ -2,20 +2,25 @@ package nachos.userprog;
 
 import nachos.machine.Kernel;
 import nachos.machine.Machine;
+import nachos.machine.Stats;
 import nachos.machine.TranslationEntry;
 import nachos.machine.config.Config;
-import nachos.machine.elf.ElfLoadingException;
 import nachos.machine.elf.Elf;
 import nachos.machine.elf.ElfSectionHeader;
 import nachos.machine.io.OpenFile;
 import nachos.machine.lib.Lib;
 import nachos.machine.processor.Processor;
 import nachos.threads.KThread;
+import nachos.threads.Semaphore;
 import nachos.threads.ThreadedKernel;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * <p>
@@ -43,11 +48,17 @@ public class UserProcess {
             syscallRead = 6,
             syscallWrite = 7,
             syscallClose = 8,
-            syscallUnlink = 9;
+            syscallUnlink = 9,
+            syscallFutexWait = 13,
+            syscallFutexWake = 14,
+            syscallFork = 15,
+            syscallSbrk = 17,
+            syscallGetrusage = 18;
     /**
-     * The number of pages in the program's stack.
+     * The number of stack pages mapped when a program starts. The stack grows
+     * down on demand, up to <tt>UserKernel.maxStackPages</tt> pages.
      */
-    public static final int stackPages = 8;
+    public static final int initialStackPages = 1;
     public static final char dbgProcess = 'a';
     public static final int pageSize = Processor.pageSize;
     public static final int maxStrLength = 256;
@@ -65,27 +76,72 @@ public class UserProcess {
      * than in classic files.
      */
     private static final int synchConsoleFilePosition = Integer.MIN_VALUE;
+    /**
+     * The most pages <tt>getPhysicalSegments()</tt> merges into one segment,
+     * which bounds the frames a segment keeps from being evicted.
+     */
+    private static final int maxSegmentPages = 8;
 
     /**
      * The program being run by this process.
      */
     protected Elf elf;
+    /**
+     * The name of the executable, which identifies its pages in the text page
+     * cache.
+     */
+    protected String executableName;
 
     /**
      * This process's page table.
      */
-    protected TranslationEntry[] pageTable;
+    protected PageTable pageTable;
     /**
      * The number of continuous pages occupied by the program.
      */
     protected int numPages;
     private int pid;
     private int initialPC, initialSP;
+    /**
+     * The lowest page the stack may grow down to, right above the guard page,
+     * and the lowest page of the stack mapped so far.
+     */
+    private int stackLimitVPN, stackBottomVPN;
+    /**
+     * The first page of the heap, the page past the room the heap may grow
+     * into, and the current program break. Heap pages below the break get a
+     * zero-filled frame on first access.
+     */
+    private int heapBaseVPN, heapLimitVPN;
+    private int breakAddress;
     private int argc, argv;
     private FileDescriptor[] fileDescriptors;
+    /**
+     * Pages shared copy-on-write with other processes, indexed by virtual page
+     * number. Such pages are mapped read-only until the first write to them.
+     */
+    private boolean[] copyOnWrite;
+    /**
+     * User registers the thread of this process starts with, if the process
+     * was created by <tt>fork()</tt>.
+     */
+    private int[] forkedRegisters;
     private Map<Integer, UserProcess> children;
     private UThread thread;
     private int exitStatus;
+    private boolean exitedNormally;
+    /**
+     * Released once, when this process exits.
+     */
+    private Semaphore exited;
+    /**
+     * Memory usage counters of this process.
+     */
+    protected final ResourceUsage usage = new ResourceUsage();
+    /**
+     * Time of the last working set sample, or 0 before the first one.
+     */
+    private long lastSampleTime = 0;
 
     /**
      * Allocate a new process.
@@ -106,6 +162,7 @@ public class UserProcess {
         fileDescriptors[defaultStdOutFd].position = synchConsoleFilePosition;
 
         children = new HashMap<>();
+        exited = new Semaphore(0);
     }
 
     /**
@@ -165,11 +222,95 @@ public class UserProcess {
         return true;
     }
 
+    /**
+     * Return the process ID of this process.
+     *
+     * @return the process ID.
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Return the thread running this process.
+     *
+     * @return the thread, or <tt>null</tt> if it was not forked yet.
+     */
+    protected UThread getThread() {
+        return thread;
+    }
+
     /**
      * Save the state of this process in preparation for a context switch.
-     * Called by <tt>UThread.saveState()</tt>.
+     * Called by <tt>UThread.saveState()</tt>. Samples the working set if a
+     * timer interval passed since the last sample.
      */
     public void saveState() {
+        long now = Machine.timer().getTime();
+        if ( pageTable != null && now - lastSampleTime >= Stats.TimerTicks ) {
+            lastSampleTime = now;
+            sampleWorkingSet();
+        }
+    }
+
+    /**
+     * Count the resident pages and those referenced since the previous
+     * sample, clearing their used bits, and record the sizes in
+     * <tt>usage</tt>.
+     */
+    private void sampleWorkingSet() {
+        int residentPages = 0;
+        int workingSetSize = 0;
+        for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+            if ( pageTable.get(vpn) != null && pageTable.get(vpn).valid ) {
+                residentPages++;
+                if ( testAndClearUsed(vpn) ) {
+                    workingSetSize++;
+                }
+            }
+        }
+
+        usage.sample(residentPages, workingSetSize);
+    }
+
+    /**
+     * Clear the used bit of a resident page for working set sampling.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the used bit was set.
+     */
+    protected boolean testAndClearUsed(int vpn) {
+        boolean used = pageTable.get(vpn).used;
+        pageTable.get(vpn).used = false;
+        return used;
+    }
+
+    /**
+     * Return the number of resident pages of this process.
+     *
+     * @return the number of valid page table entries.
+     */
+    protected int getNumResidentPages() {
+        int residentPages = 0;
+        if ( pageTable != null ) {
+            for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+                TranslationEntry entry = pageTable.get(vpn);
+                if ( entry != null && entry.valid ) {
+                    residentPages++;
+                }
+            }
+        }
+
+        return residentPages;
+    }
+
+    /**
+     * Return a one-line report of the memory usage of this process.
+     *
+     * @return the report.
+     */
+    public String getUsageReport() {
+        return "process " + pid + " (" + executableName + "): " + usage.toString(getNumResidentPages());
     }
 
     /**
@@ -177,15 +318,103 @@ public class UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-        Machine.processor().setPageTable(pageTable);
+        if ( pageTable != null ) {
+            pageTable.load();
+        }
+        else {
+            Machine.processor().setPageTable((TranslationEntry[]) null);
+        }
+    }
+
+    /**
+     * Translate a virtual address of this process to a physical address, for
+     * an access performed by the kernel on behalf of this process. Unlike
+     * <tt>Processor.translate()</tt>, no exception is raised. The access
+     * counts as a reference, so the used bit (and the dirty bit when
+     * writing) of the page is set.
+     *
+     * @param vaddr   the virtual address to translate.
+     * @param writing <tt>true</tt> if the kernel is going to write to the
+     *                address.
+     * @return the physical address, or -1 if <i>vaddr</i> is not mapped, or is
+     * mapped read-only and <i>writing</i> is <tt>true</tt>.
+     */
+    protected int translateVirtualAddress(int vaddr, boolean writing) {
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( vaddr < 0 || pageTable == null || vpn >= pageTable.getNumPages() ) {
+            return -1;
+        }
+
+        TranslationEntry entry = pageTable.get(vpn);
+        if ( entry == null && mapOnDemand(vpn) ) {
+            entry = pageTable.get(vpn);
+        }
+        if ( entry == null || !entry.valid ) {
+            return -1;
+        }
+
+        // a write to a copy-on-write page needs a private copy first
+        if ( writing && entry.readOnly ) {
+            if ( copyOnWrite == null || !copyOnWrite[vpn] || !breakCopyOnWrite(vpn) ) {
+                return -1;
+            }
+        }
+
+        entry.used = true;
+        if ( writing ) {
+            entry.dirty = true;
+        }
+
+        return Processor.makeAddress(entry.ppn, Processor.offsetFromAddress(vaddr));
+    }
+
+    /**
+     * Translate a virtual address like <tt>translateVirtualAddress()</tt>,
+     * but only if its page is already resident and accessible as it is. Never
+     * maps, pages in or copies a page, so it may be used to look ahead at
+     * memory the kernel is not sure to access.
+     *
+     * @param vaddr   the virtual address to translate.
+     * @param writing <tt>true</tt> if the kernel is going to write to the
+     *                address.
+     * @return the physical address, or -1 if the page of <i>vaddr</i> is not
+     * resident, or is read-only and <i>writing</i> is <tt>true</tt>.
+     */
+    protected int translateResidentAddress(int vaddr, boolean writing) {
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( vaddr < 0 || pageTable == null || vpn >= pageTable.getNumPages() ) {
+            return -1;
+        }
+
+        TranslationEntry entry = pageTable.get(vpn);
+        if ( entry == null || !entry.valid || (writing && entry.readOnly) ) {
+            return -1;
+        }
+
+        entry.used = true;
+        if ( writing ) {
+            entry.dirty = true;
+        }
+
+        return Processor.makeAddress(entry.ppn, Processor.offsetFromAddress(vaddr));
+    }
+
+    /**
+     * Called when the kernel is done with the physical memory of the
+     * addresses translated so far by <tt>translateVirtualAddress()</tt>: by
+     * <tt>getPhysicalSegments()</tt> before translating the next segment, and
+     * when the range is exhausted. Does nothing, as physical memory stays
+     * with the process here.
+     */
+    protected void releaseTranslations() {
     }
 
     /**
-     * Read a null-terminated string from this process's virtual memory. Read
-     * at most <tt>maxLength + 1</tt> bytes from the specified address, search
-     * for the null terminator, and convert it to a <tt>java.lang.String</tt>,
-     * without including the null terminator. If no null terminator is found,
-     * returns <tt>null</tt>.
+     * Read a null-terminated string from this process's virtual memory. Scan
+     * at most <tt>maxLength + 1</tt> bytes from the specified address for the
+     * null terminator, and convert the bytes before it to a
+     * <tt>java.lang.String</tt>. If no null terminator is found, returns
+     * <tt>null</tt>.
      *
      * @param vaddr     the starting virtual address of the null-terminated
      *                  string.
@@ -197,19 +426,60 @@ public class UserProcess {
     protected String readVirtualMemoryString(int vaddr, int maxLength) {
         Lib.assertTrue(maxLength >= 0);
 
-        byte[] buffer = new byte[maxLength + 1];
+        byte[] memory = Machine.processor().getMemory();
 
-        int bytesRead = readVirtualMemory(vaddr, buffer);
+        // scan each segment in place, so nothing past the terminator is
+        // translated, and keep only the bytes before it
+        ByteArrayOutputStream string = new ByteArrayOutputStream();
+        Iterator<MemorySegment> segments = getPhysicalSegments(vaddr, maxLength + 1, false);
+        while ( segments.hasNext() ) {
+            MemorySegment segment = segments.next();
+            int paddr = segment.getPhysicalAddress();
+
+            int length = 0;
+            while ( length < segment.length && memory[paddr + length] != '\0' ) {
+                length++;
+            }
+            string.write(memory, paddr, length);
 
-        for ( int length = 0; length < bytesRead; length++ ) {
-            if ( buffer[length] == '\0' ) {
-                return new String(buffer, 0, length);
+            if ( length < segment.length ) {
+                return new String(string.toByteArray());
             }
         }
 
         return null;
     }
 
+    /**
+     * Resolve a range of this process's virtual memory into the physical
+     * memory backing it. The returned iterator yields (ppn, offset, length)
+     * segments in the order of virtual addresses, so callers can transfer
+     * data straight between <tt>Processor.getMemory()</tt> and a device or
+     * array with one copy per segment.
+     * <p>
+     * A segment starts at a page translated by
+     * <tt>translateVirtualAddress()</tt>, and extends over the following
+     * pages only while they are already resident in the following frames, up
+     * to a few pages. A page that is not resident starts a new segment, so it
+     * is faulted in only once the caller asks for it.
+     * <p>
+     * Pages are translated lazily, as the iterator advances, and a segment
+     * may only be used until the next call to <tt>hasNext()</tt>, which
+     * releases it. Iteration stops early at the first page that can not be
+     * accessed, so the segments may cover less than <i>length</i> bytes.
+     *
+     * @param vaddr   the first byte of virtual memory.
+     * @param length  the number of bytes of virtual memory.
+     * @param writing <tt>true</tt> if the caller is going to write to the
+     *                memory.
+     * @return an iterator over the physical segments backing the range.
+     */
+    protected Iterator<MemorySegment> getPhysicalSegments(int vaddr, int length, boolean writing) {
+        Lib.assertTrue(length >= 0);
+
+        return new SegmentIterator(vaddr, length, writing);
+    }
+
     /**
      * Transfer data from this process's virtual memory to all of the specified
      * array. Same as <tt>readVirtualMemory(vaddr, data, 0, data.length)</tt>.
@@ -241,15 +511,14 @@ public class UserProcess {
 
         byte[] memory = Machine.processor().getMemory();
 
-        //TODO(2.2) Modify this method, so that it works with multiple user processes
-        // for now, just assume that virtual addresses equal physical addresses
-        if ( vaddr < 0 || vaddr >= memory.length ) {
-            return 0;
+        int amount = 0;
+        Iterator<MemorySegment> segments = getPhysicalSegments(vaddr, length, false);
+        while ( segments.hasNext() ) {
+            MemorySegment segment = segments.next();
+            System.arraycopy(memory, segment.getPhysicalAddress(), dst, dstOffset + amount, segment.length);
+            amount += segment.length;
         }
 
-        int amount = Math.min(length, memory.length - vaddr);
-        System.arraycopy(memory, vaddr, dst, dstOffset, amount);
-
         return amount;
     }
 
@@ -285,15 +554,14 @@ public class UserProcess {
 
         byte[] memory = Machine.processor().getMemory();
 
-        //TODO(2.2) Modify this method, so that it works with multiple user processes
-        // for now, just assume that virtual addresses equal physical addresses
-        if ( vaddr < 0 || vaddr >= memory.length ) {
-            return 0;
+        int amount = 0;
+        Iterator<MemorySegment> segments = getPhysicalSegments(vaddr, length, true);
+        while ( segments.hasNext() ) {
+            MemorySegment segment = segments.next();
+            System.arraycopy(data, dataOffset + amount, memory, segment.getPhysicalAddress(), segment.length);
+            amount += segment.length;
         }
 
-        int amount = Math.min(length, memory.length - vaddr);
-        System.arraycopy(data, dataOffset, memory, vaddr, amount);
-
         return amount;
     }
 
@@ -310,28 +578,19 @@ public class UserProcess {
     private boolean load(String name, String[] args) {
         Lib.debug(dbgProcess, "UserProcess.load(\"" + name + "\")");
 
-        OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
-        if ( executable == null ) {
-            Lib.debug(dbgProcess, "\topen failed");
-            return false;
-        }
-
-        try {
-            elf = new Elf(executable);
-        }
-        catch ( ElfLoadingException e ) {
-            executable.close();
-            e.printStackTrace();
-            Lib.debug(dbgProcess, "\telf load failed");
+        // the parsed executable is shared with other processes and never closed
+        elf = UserKernel.executableCache.open(name);
+        if ( elf == null ) {
             return false;
         }
+        executableName = name;
 
         // make sure the sections are contiguous and start at page 0
         numPages = 0;
         for ( int i = 0; i < elf.getNumSections(); i++ ) {
             ElfSectionHeader section = elf.getSection(i);
             if ( section.isLoadable() && section.getFirstVPN() != numPages ) {
-                elf.close();
+                elf = null;
                 Lib.debug(dbgProcess, "\tfragmented executable");
                 return false;
             }
@@ -350,7 +609,7 @@ public class UserProcess {
         }
 
         if ( argsSize > pageSize ) {
-            elf.close();
+            elf = null;
             Lib.debug(dbgProcess, "\targuments too long");
             return false;
         }
@@ -358,20 +617,29 @@ public class UserProcess {
         // program counter initially points at the program entry point
         initialPC = elf.getEntryPoint();
 
-        // next comes the stack; stack pointer initially points to top of it
-        numPages += stackPages;
+        // next comes a guard page that is never mapped, then the room the
+        // stack may grow down into; stack pointer initially points to the top
+        stackLimitVPN = numPages + 1;
+        numPages = stackLimitVPN + UserKernel.maxStackPages;
+        stackBottomVPN = numPages - initialStackPages;
         initialSP = numPages * pageSize;
 
-        // and finally reserve 1 page for arguments
-        numPages++;
+        // then reserve 1 page for arguments
+        int argsVPN = numPages++;
+
+        // and finally the room the heap may grow into with sbrk()
+        heapBaseVPN = numPages;
+        heapLimitVPN = heapBaseVPN + UserKernel.maxHeapPages;
+        breakAddress = heapBaseVPN * pageSize;
+        numPages = heapLimitVPN;
 
         if ( !loadSections() ) {
-            elf.close();
+            elf = null;
             return false;
         }
 
-        // store arguments in last page
-        int entryOffset = (numPages - 1) * pageSize;
+        // store arguments in their page
+        int entryOffset = argsVPN * pageSize;
         int stringOffset = entryOffset + args.length * 4;
 
         this.argc = args.length;
@@ -398,34 +666,81 @@ public class UserProcess {
      * @return <tt>true</tt> if the sections were successfully loaded.
      */
     protected boolean loadSections() {
-        if ( numPages > Machine.processor().getNumPhysPages() ) {
+        // read-only pages are shared through the text page cache, and the
+        // room below the stack and the heap get no frames yet
+        boolean[] textPages = new boolean[numPages];
+        int numTextPages = 0;
+        int numUnmappedPages = 0;
+        for ( int vpn = 0; vpn < numPages; vpn++ ) {
+            if ( !isInitiallyMapped(vpn) ) {
+                numUnmappedPages++;
+            }
+        }
+        for ( int s = 0; s < elf.getNumSections(); s++ ) {
+            ElfSectionHeader section = elf.getSection(s);
+            if ( section.isReadOnly() ) {
+                Arrays.fill(textPages, section.getFirstVPN(), section.getFirstVPN() + section.getNumPages(), true);
+                numTextPages += section.getNumPages();
+            }
+        }
+
+        int[] frames = UserKernel.frameAllocator.allocate(numPages - numTextPages - numUnmappedPages);
+        if ( frames == null ) {
             Lib.debug(dbgProcess, "\tinsufficient physical memory");
             return false;
         }
 
-        //TODO(2.2) Set up pagetable structure
-
-
-
-
-
-
-
+        pageTable = new PageTable(numPages);
+        copyOnWrite = new boolean[numPages];
+        int nextFrame = 0;
+        for ( int vpn = 0; vpn < numPages; vpn++ ) {
+            if ( !isInitiallyMapped(vpn) ) {
+                continue;
+            }
 
+            if ( textPages[vpn] ) {
+                pageTable.set(vpn, new TranslationEntry(vpn, 0, false, true, false, false));
+            }
+            else {
+                pageTable.set(vpn, new TranslationEntry(vpn, frames[nextFrame++], true, false, false, false));
+            }
+        }
 
         // Load ELF sections.
+        int loadedPages = 0;
         for ( int s = 0; s < elf.getNumSections(); s++ ) {
             ElfSectionHeader section = elf.getSection(s);
             Lib.debug(dbgProcess, "\tinitializing " + section.getName()
                     + " section (" + section.getNumPages() + " pages)");
 
             for ( int i = 0; i < section.getNumPages(); i++ ) {
-                int vpn = section.getFirstVPN() + i;
+                TranslationEntry entry = pageTable.get(section.getFirstVPN() + i);
+                if ( section.isReadOnly() ) {
+                    int ppn = UserKernel.textPageCache.getPage(executableName, elf, s, i);
+                    if ( ppn == -1 ) {
+                        Lib.debug(dbgProcess, "\tinsufficient physical memory");
+                        unloadSections();
+                        return false;
+                    }
+                    entry.ppn = ppn;
+                    entry.valid = true;
+                }
+                else {
+                    section.loadPage(i, entry.ppn);
+                }
+            }
+            loadedPages += section.getNumPages();
+        }
 
-                //TODO(2.2) Modify this, so that it allocates the number of pages that it needs
-                // for now, just assume virtual addresses=physical addresses
-                section.loadPage(i, vpn);
+        // stack and arguments pages may still hold data of a previous owner
+        byte[] memory = Machine.processor().getMemory();
+        for ( int vpn = loadedPages; vpn < numPages; vpn++ ) {
+            if ( pageTable.get(vpn) == null ) {
+                continue;
             }
+
+            int paddr = Processor.makeAddress(pageTable.get(vpn).ppn, 0);
+            Arrays.fill(memory, paddr, paddr + pageSize, (byte) 0);
         }
 
         return true;
@@ -435,11 +750,259 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
-        //TODO(2.2) Release any resources allocated in loadSections()
+        if ( pageTable == null ) {
+            return;
+        }
+
+        int[] frames = new int[pageTable.getNumPages()];
+        int numFrames = 0;
+        for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+            TranslationEntry entry = pageTable.get(vpn);
+            if ( entry != null && entry.valid ) {
+                frames[numFrames++] = entry.ppn;
+            }
+        }
+
+        frames = Arrays.copyOf(frames, numFrames);
+        UserKernel.textPageCache.release(frames);
+        UserKernel.frameAllocator.free(frames);
+        pageTable = null;
+        copyOnWrite = null;
+    }
+
+    /**
+     * Extend the page table to the specified number of pages, e.g. to map a
+     * new region of the address space. The new entries are <tt>null</tt>,
+     * leaving the pages unmapped until the caller fills them in.
+     *
+     * @param length the new number of entries, not smaller than the current
+     *               one.
+     */
+    protected void growPageTable(int length) {
+        Lib.assertTrue(length >= pageTable.getNumPages());
+
+        pageTable.setNumPages(length);
+        if ( copyOnWrite != null ) {
+            copyOnWrite = Arrays.copyOf(copyOnWrite, length);
+        }
+
+        // a single-level page table was replaced by a longer copy
+        if ( !UserKernel.twoLevelPageTables && UserKernel.currentProcess() == this ) {
+            restoreState();
+        }
+    }
+
+    /**
+     * Give this process its own copy of a page shared copy-on-write. If no
+     * other process references the frame anymore, the frame is simply made
+     * writable.
+     *
+     * @param vpn the virtual page number of a copy-on-write page.
+     * @return <tt>true</tt> on success, <tt>false</tt> if there is no free
+     * frame for the copy.
+     */
+    protected boolean breakCopyOnWrite(int vpn) {
+        Lib.assertTrue(copyOnWrite[vpn]);
+
+        TranslationEntry entry = pageTable.get(vpn);
+        if ( UserKernel.frameAllocator.getReferenceCount(entry.ppn) > 1 ) {
+            int ppn = UserKernel.frameAllocator.allocate();
+            if ( ppn == -1 ) {
+                return false;
+            }
+
+            byte[] memory = Machine.processor().getMemory();
+            System.arraycopy(memory, Processor.makeAddress(entry.ppn, 0), memory, Processor.makeAddress(ppn, 0), pageSize);
+            UserKernel.frameAllocator.free(entry.ppn);
+            entry.ppn = ppn;
+            usage.numCopyOnWriteCopies++;
+        }
+
+        entry.readOnly = false;
+        copyOnWrite[vpn] = false;
+        return true;
+    }
+
+    /**
+     * Make a writable page copy-on-write, because its frame is now shared with
+     * another page. The page is mapped read-only until the next write to it.
+     *
+     * @param vpn the virtual page number of a resident page.
+     */
+    protected void makeCopyOnWrite(int vpn) {
+        if ( copyOnWrite == null ) {
+            copyOnWrite = new boolean[pageTable.getNumPages()];
+        }
+
+        if ( !pageTable.get(vpn).readOnly ) {
+            pageTable.get(vpn).readOnly = true;
+            copyOnWrite[vpn] = true;
+        }
+    }
+
+    /**
+     * Handle an access to an unmapped page. An access to the room below the
+     * stack grows the stack, an access to the heap below the break maps the
+     * page, and the faulting instruction is restarted; any other access
+     * terminates the process.
+     *
+     * @param vaddr the virtual address that caused the exception.
+     */
+    private void handlePageFault(int vaddr) {
+        usage.numPageFaults++;
+
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( vaddr < 0 || !mapOnDemand(vpn) ) {
+            Lib.debug(dbgProcess, "\tpage fault at 0x" + Lib.toHexString(vaddr));
+            exit(-1, false);
+        }
+    }
+
+    /**
+     * Map an unmapped page on its first access, if it belongs to the stack
+     * room or to the heap below the break.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page is now mapped.
+     */
+    protected boolean mapOnDemand(int vpn) {
+        return growStack(vpn) || mapHeapPage(vpn);
+    }
+
+    /**
+     * Grow the stack down to the specified page, if it lies between the stack
+     * limit and the current bottom of the stack. The guard page below the
+     * limit is never mapped, so running off the stack is always caught.
+     *
+     * @param vpn the virtual page number the stack must reach.
+     * @return <tt>true</tt> if the page is now part of the stack.
+     */
+    private boolean growStack(int vpn) {
+        if ( pageTable == null || vpn < stackLimitVPN || vpn >= stackBottomVPN ) {
+            if ( vpn == stackLimitVPN - 1 ) {
+                Lib.debug(dbgProcess, "\tstack overflow into guard page " + vpn);
+            }
+            return false;
+        }
+
+        if ( !mapZeroFilledPages(vpn, stackBottomVPN - vpn) ) {
+            Lib.debug(dbgProcess, "\tno memory to grow stack to page " + vpn);
+            return false;
+        }
+
+        Lib.debug(dbgProcess, "\tstack grown to page " + vpn);
+        stackBottomVPN = vpn;
+        return true;
+    }
 
+    /**
+     * Map a heap page below the break that was not accessed yet.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page is now mapped.
+     */
+    private boolean mapHeapPage(int vpn) {
+        if ( pageTable == null || vpn < heapBaseVPN || vpn >= getBreakVPN() || pageTable.get(vpn) != null ) {
+            return false;
+        }
+
+        if ( !mapZeroFilledPages(vpn, 1) ) {
+            Lib.debug(dbgProcess, "\tno memory for heap page " + vpn);
+            return false;
+        }
+
+        Lib.debug(dbgProcess, "\tmapped heap page " + vpn);
+        return true;
+    }
+
+    /**
+     * Return the page past the last heap page below the break.
+     *
+     * @return the virtual page number.
+     */
+    private int getBreakVPN() {
+        return (breakAddress + pageSize - 1) / pageSize;
+    }
 
+    /**
+     * Create the page table entries of new, zero-filled pages of the stack or
+     * the heap.
+     *
+     * @param firstVPN the first page.
+     * @param count    the number of pages.
+     * @return <tt>true</tt> on success, <tt>false</tt> if there is not enough
+     * memory.
+     */
+    protected boolean mapZeroFilledPages(int firstVPN, int count) {
+        int[] frames = UserKernel.frameAllocator.allocate(count);
+        if ( frames == null ) {
+            return false;
+        }
 
+        byte[] memory = Machine.processor().getMemory();
+        for ( int i = 0; i < count; i++ ) {
+            int paddr = Processor.makeAddress(frames[i], 0);
+            Arrays.fill(memory, paddr, paddr + pageSize, (byte) 0);
+            pageTable.set(firstVPN + i, new TranslationEntry(firstVPN + i, frames[i], true, false, false, false));
+        }
 
+        return true;
+    }
+
+    /**
+     * Remove the page table entries of heap pages above the break, releasing
+     * their frames.
+     *
+     * @param firstVPN the first page.
+     * @param count    the number of pages.
+     */
+    protected void unmapPages(int firstVPN, int count) {
+        for ( int vpn = firstVPN; vpn < firstVPN + count; vpn++ ) {
+            TranslationEntry entry = pageTable.get(vpn);
+            if ( entry == null ) {
+                continue;
+            }
+
+            if ( entry.valid ) {
+                UserKernel.frameAllocator.free(entry.ppn);
+            }
+            pageTable.set(vpn, null);
+            if ( copyOnWrite != null ) {
+                copyOnWrite[vpn] = false;
+            }
+        }
+    }
+
+    /**
+     * Test whether a page of the address space set up by <tt>load()</tt> is
+     * mapped when the program starts, i.e. it is neither the guard page below
+     * the stack, nor a page the stack may grow into later, nor a heap page.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page is initially mapped.
+     */
+    protected boolean isInitiallyMapped(int vpn) {
+        return vpn < stackLimitVPN - 1 || (vpn >= stackBottomVPN && vpn < heapBaseVPN);
+    }
+
+    /**
+     * Handle a write to a read-only page. Copy-on-write pages get copied and
+     * the faulting instruction is restarted; a write to a really read-only
+     * page, or a failed copy, terminates the process.
+     *
+     * @param vaddr the virtual address that caused the exception.
+     */
+    private void handleReadOnly(int vaddr) {
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( copyOnWrite == null || vpn < 0 || vpn >= copyOnWrite.length || !copyOnWrite[vpn] ) {
+            Lib.debug(dbgProcess, "\twrite to read-only page " + vpn);
+            exit(-1, false);
+        }
+
+        if ( !breakCopyOnWrite(vpn) ) {
+            Lib.debug(dbgProcess, "\tout of memory copying page " + vpn);
+            exit(-1, false);
+        }
     }
 
     /**
@@ -452,6 +1015,15 @@ public class UserProcess {
     public void initRegisters() {
         Processor processor = Machine.processor();
 
+        // a forked process continues where its parent was
+        if ( forkedRegisters != null ) {
+            for ( int i = 0; i < Processor.numUserRegisters; i++ ) {
+                processor.writeRegister(i, forkedRegisters[i]);
+            }
+            forkedRegisters = null;
+            return;
+        }
+
         // by default, everything's 0
         for ( int i = 0; i < Processor.numUserRegisters; i++ ) {
             processor.writeRegister(i, 0);
@@ -510,15 +1082,44 @@ public class UserProcess {
     private void handleExit(int status) {
         Lib.debug(dbgProcess, "called handleExit()");
 
-        //TODO(2.3) Implement exit syscall
+        exit(status, true);
 
-        //TODO(2.3) Important!! Call this report to NachosRuntimeRecorder with correct filename when required.
-        // If the file descriptor refers to a file marked for deletion by unlink
-        // and no processes have file open, delete it.
-        Machine.nachosRuntimeRecorder().reportFileDeletedByProcessOnExit(pid, "filename");
+        Lib.assertNotReached("handleExit() did not stop the process!");
+    }
 
+    /**
+     * Terminate this process. Closes its files, releases its memory, disowns
+     * its children and wakes up the parent joining it. The last process to
+     * exit terminates the kernel.
+     *
+     * @param status   the exit status.
+     * @param normally <tt>false</tt> if the process is terminated because of
+     *                 an unhandled exception.
+     */
+    protected void exit(int status, boolean normally) {
+        Lib.assertTrue(KThread.currentThread() == thread);
 
-        Lib.assertNotReached("handleExit() did not stop the process!");
+        for ( int i = 0; i < fileDescriptors.length; i++ ) {
+            if ( fileDescriptors[i].file != null ) {
+                closeFile(i, true);
+            }
+        }
+
+        UserKernel.recordUsageReport(getUsageReport());
+        unloadSections();
+        elf = null;
+
+        children.clear();
+        exitStatus = status;
+        exitedNormally = normally;
+
+        UserKernel.unregisterProcess(pid);
+        exited.V();
+
+        if ( UserKernel.getProcessesSize() == 0 ) {
+            Kernel.kernel.terminate();
+        }
+        KThread.finish();
     }
 
     /**
@@ -547,13 +1148,207 @@ public class UserProcess {
     private int handleExec(int file, int argc, int argv) {
         Lib.debug(dbgProcess, "called handleExec()");
 
-        //TODO(2.3) Implement exec syscall
+        if ( argc < 0 ) {
+            return -1;
+        }
+
+        String filename = readVirtualMemoryString(file, maxStrLength);
+        if ( filename == null ) {
+            return -1;
+        }
 
+        String[] args = new String[argc];
+        byte[] pointer = new byte[4];
+        for ( int i = 0; i < argc; i++ ) {
+            if ( readVirtualMemory(argv + i * 4, pointer) != pointer.length ) {
+                return -1;
+            }
 
+            args[i] = readVirtualMemoryString(Lib.bytesToInt(pointer, 0, ByteOrder.LITTLE_ENDIAN), maxStrLength);
+            if ( args[i] == null ) {
+                return -1;
+            }
+        }
 
+        UserProcess child = newUserProcess();
+        if ( !child.asyncExecute(filename, args) ) {
+            return -1;
+        }
 
+        children.put(child.pid, child);
+        return child.pid;
+    }
 
-        return -1;
+    /**
+     * <p>
+     * Create a new child process, which is a copy of the current process.
+     * Both processes continue after the fork() call; the child gets return
+     * value 0 and the parent the child's process ID.
+     * </p>
+     * <p>
+     * Memory is not copied. All frames are shared by both processes and their
+     * writable pages are marked read-only and copy-on-write, so a page is
+     * copied only when either process first writes to it. Open files are
+     * reopened in the child at the same file positions.
+     * </p>
+     * <p>
+     * Returns the child process ID to the parent, or -1 if an error occurred.
+     * </p>
+     *
+     * @return the child process's process ID, or -1 if an error occurred.
+     */
+    private int handleFork() {
+        Lib.debug(dbgProcess, "called handleFork()");
+
+        UserProcess child = newUserProcess();
+        if ( !child.forkFrom(this) ) {
+            return -1;
+        }
+
+        UserKernel.registerProcess(child.pid, child);
+        children.put(child.pid, child);
+
+        child.thread = new UThread(child);
+        child.thread.setName(thread.getName()).fork();
+
+        return child.pid;
+    }
+
+    /**
+     * Make this newly allocated process a copy of the specified process,
+     * sharing all its frames copy-on-write.
+     *
+     * @param parent the process calling <tt>fork()</tt>.
+     * @return <tt>true</tt> on success.
+     */
+    protected boolean forkFrom(UserProcess parent) {
+        // reopen files first, as that is the only step that can fail
+        for ( int i = 0; i < fileDescriptors.length; i++ ) {
+            FileDescriptor from = parent.fileDescriptors[i];
+            FileDescriptor to = fileDescriptors[i];
+            if ( i == defaultStdInFd || i == defaultStdOutFd || from.file == null ) {
+                continue;
+            }
+
+            to.file = ThreadedKernel.fileSystem.open(from.file.getName(), false);
+            if ( to.file == null ) {
+                for ( int j = 0; j < i; j++ ) {
+                    if ( j != defaultStdInFd && j != defaultStdOutFd && fileDescriptors[j].file != null ) {
+                        fileDescriptors[j].file.close();
+                        fileDescriptors[j].file = null;
+                    }
+                }
+                return false;
+            }
+            to.position = from.position;
+        }
+
+        // the files only count as open by this process once all are reopened,
+        // so a failed fork leaves no registration behind
+        for ( int i = 0; i < fileDescriptors.length; i++ ) {
+            if ( i != defaultStdInFd && i != defaultStdOutFd && fileDescriptors[i].file != null ) {
+                UserKernel.registerFileOpenedByProcess(fileDescriptors[i].file.getName(), this);
+            }
+        }
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        executableName = parent.executableName;
+        numPages = parent.numPages;
+        stackLimitVPN = parent.stackLimitVPN;
+        stackBottomVPN = parent.stackBottomVPN;
+        heapBaseVPN = parent.heapBaseVPN;
+        heapLimitVPN = parent.heapLimitVPN;
+        breakAddress = parent.breakAddress;
+        pageTable = new PageTable(parent.pageTable.getNumPages());
+        copyOnWrite = new boolean[parent.pageTable.getNumPages()];
+        if ( parent.copyOnWrite == null ) {
+            parent.copyOnWrite = new boolean[parent.pageTable.getNumPages()];
+        }
+        for ( int vpn = 0; vpn < parent.pageTable.getNumPages(); vpn++ ) {
+            TranslationEntry entry = parent.pageTable.get(vpn);
+            if ( entry == null ) {
+                continue;
+            }
+
+            if ( entry.valid ) {
+                if ( !entry.readOnly && !parent.isSharedPage(vpn) ) {
+                    entry.readOnly = true;
+                    parent.copyOnWrite[vpn] = true;
+                }
+                UserKernel.frameAllocator.share(entry.ppn);
+            }
+
+            pageTable.set(vpn, new TranslationEntry(entry));
+            copyOnWrite[vpn] = parent.copyOnWrite[vpn];
+        }
+
+        Machine.interrupt().restore(intStatus);
+
+        // the child returns 0 from the syscall, right after it
+        Processor processor = Machine.processor();
+        forkedRegisters = new int[Processor.numUserRegisters];
+        for ( int i = 0; i < Processor.numUserRegisters; i++ ) {
+            forkedRegisters[i] = processor.readRegister(i);
+        }
+        forkedRegisters[Processor.regV0] = 0;
+        forkedRegisters[Processor.regPC] = forkedRegisters[Processor.regNextPC];
+        forkedRegisters[Processor.regNextPC] += 4;
+
+        return true;
+    }
+
+    /**
+     * Store the memory usage counters of this process at <i>address</i>, in
+     * the layout of <tt>struct rusage</tt> in <tt>syscall.h</tt>.
+     *
+     * @param address the address of the structure.
+     * @return 0 on success, or -1 if the structure is not writable.
+     */
+    private int handleGetrusage(int address) {
+        Lib.debug(dbgProcess, "called handleGetrusage()");
+
+        int[] words = usage.toWords(getNumResidentPages());
+        byte[] data = new byte[words.length * 4];
+        for ( int i = 0; i < words.length; i++ ) {
+            Lib.bytesFromInt(data, i * 4, words[i], ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return (writeVirtualMemory(address, data) == data.length) ? 0 : -1;
+    }
+
+    /**
+     * <p>
+     * Move the program break, the end of the heap, by <i>increment</i> bytes.
+     * The heap starts right after the arguments page and may grow up to
+     * <tt>UserKernel.maxHeapPages</tt> pages. Growing the heap allocates no
+     * memory: a new page gets a zero-filled frame when it is first accessed.
+     * Shrinking the heap releases the pages entirely above the new break.
+     * </p>
+     * <p>
+     * Returns the previous break, or -1 if the break would leave the heap.
+     * </p>
+     *
+     * @param increment the number of bytes to add to the heap, which may be
+     *                  negative or 0 to query the current break.
+     * @return the previous break, or -1 if an error occurred.
+     */
+    private int handleSbrk(int increment) {
+        Lib.debug(dbgProcess, "called handleSbrk()");
+
+        long newBreak = (long) breakAddress + increment;
+        if ( newBreak < (long) heapBaseVPN * pageSize || newBreak > (long) heapLimitVPN * pageSize ) {
+            return -1;
+        }
+
+        int oldBreak = breakAddress;
+        int oldBreakVPN = getBreakVPN();
+        breakAddress = (int) newBreak;
+        if ( getBreakVPN() < oldBreakVPN ) {
+            unmapPages(getBreakVPN(), oldBreakVPN - getBreakVPN());
+        }
+
+        return oldBreak;
     }
 
     /**
@@ -581,13 +1376,20 @@ public class UserProcess {
     private int handleJoin(int pid, int status) {
         Lib.debug(dbgProcess, "called handleJoin()");
 
-        //TODO(2.3) Implement join syscall
-
-
+        // joining disowns the child, so it can be joined only once
+        UserProcess child = children.remove(pid);
+        if ( child == null ) {
+            return -1;
+        }
 
+        child.exited.P();
 
+        byte[] statusBytes = Lib.bytesFromInt(child.exitStatus, ByteOrder.LITTLE_ENDIAN);
+        if ( status != 0 && writeVirtualMemory(status, statusBytes) != statusBytes.length ) {
+            return -1;
+        }
 
-        return 0;
+        return child.exitedNormally ? 1 : 0;
     }
 
     /**
@@ -610,11 +1412,7 @@ public class UserProcess {
     private int handleCreat(int name) {
         Lib.debug(dbgProcess, "called handleCreat()");
 
-
-        //TODO(2.1) Implement creat syscall
-
-
-        return -1;
+        return openFile(name, true);
     }
 
     /**
@@ -636,12 +1434,42 @@ public class UserProcess {
     private int handleOpen(int name) {
         Lib.debug(dbgProcess, "called handleOpen()");
 
-        //TODO(2.1) Implement open syscall
+        return openFile(name, false);
+    }
 
+    /**
+     * Opens the file named by the string at virtual address <i>name</i> on a
+     * free file descriptor.
+     *
+     * @param name   virtual address of the filename (null-terminated string).
+     * @param create <tt>true</tt> to create the file if it does not exist.
+     * @return the new file descriptor, or -1 if an error occurred.
+     */
+    private int openFile(int name, boolean create) {
+        String filename = readVirtualMemoryString(name, maxStrLength);
+        if ( filename == null || UserKernel.isFileRegisteredForDeletion(filename) ) {
+            return -1;
+        }
 
+        int fileDescriptor = findFreeFileDescriptor();
+        if ( fileDescriptor == -1 ) {
+            return -1;
+        }
 
+        OpenFile file = ThreadedKernel.fileSystem.open(filename, create);
+        if ( file == null ) {
+            return -1;
+        }
 
-        return -1;
+        if ( create ) {
+            UserKernel.fileModified(filename);
+        }
+
+        fileDescriptors[fileDescriptor].file = file;
+        fileDescriptors[fileDescriptor].position = 0;
+        UserKernel.registerFileOpenedByProcess(filename, this);
+
+        return fileDescriptor;
     }
 
     /**
@@ -677,11 +1505,59 @@ public class UserProcess {
     private int handleRead(int fileDescriptor, int buffer, int count) {
         Lib.debug(dbgProcess, "called handleRead()");
 
-        //TODO(2.1) Implement read syscall
+        if ( fileDescriptor < 0 || fileDescriptor >= fileDescriptors.length ) {
+            return -1;
+        }
+
+        FileDescriptor descriptor = fileDescriptors[fileDescriptor];
+        if ( descriptor.file == null || descriptor.position == undefinedFilePosition || count < 0 ) {
+            descriptor.position = undefinedFilePosition;
+            return -1;
+        }
 
+        if ( descriptor.position != synchConsoleFilePosition ) {
+            fileReading(descriptor.file);
+        }
 
+        // read straight into the physical pages backing the buffer
+        byte[] memory = Machine.processor().getMemory();
+        int bytesRead = 0;
+        int bufferLength = 0;
+        Iterator<MemorySegment> segments = getPhysicalSegments(buffer, count, true);
+        while ( segments.hasNext() ) {
+            MemorySegment segment = segments.next();
+            bufferLength += segment.length;
+
+            int amount;
+            if ( descriptor.position == synchConsoleFilePosition ) {
+                amount = descriptor.file.read(memory, segment.getPhysicalAddress(), segment.length);
+            }
+            else {
+                amount = descriptor.file.read(descriptor.position, memory, segment.getPhysicalAddress(), segment.length);
+            }
 
-        return -1;
+            if ( amount < 0 ) {
+                descriptor.position = undefinedFilePosition;
+                return -1;
+            }
+
+            if ( descriptor.position != synchConsoleFilePosition ) {
+                descriptor.position += amount;
+            }
+            bytesRead += amount;
+
+            if ( amount < segment.length ) {
+                return bytesRead;
+            }
+        }
+
+        // part of the buffer is invalid or read-only
+        if ( bufferLength < count ) {
+            descriptor.position = undefinedFilePosition;
+            return -1;
+        }
+
+        return bytesRead;
     }
 
     /**
@@ -713,11 +1589,56 @@ public class UserProcess {
     private int handleWrite(int fileDescriptor, int buffer, int count) {
         Lib.debug(dbgProcess, "called handleWrite()");
 
-        //TODO(2.1) Implement write syscall
+        if ( fileDescriptor < 0 || fileDescriptor >= fileDescriptors.length ) {
+            return -1;
+        }
 
+        FileDescriptor descriptor = fileDescriptors[fileDescriptor];
+        if ( descriptor.file == null || descriptor.position == undefinedFilePosition || count < 0 ) {
+            descriptor.position = undefinedFilePosition;
+            return -1;
+        }
 
+        if ( descriptor.position != synchConsoleFilePosition ) {
+            UserKernel.fileModified(descriptor.file.getName());
+        }
 
-        return -1;
+        // write straight from the physical pages backing the buffer
+        byte[] memory = Machine.processor().getMemory();
+        int bytesWritten = 0;
+        Iterator<MemorySegment> segments = getPhysicalSegments(buffer, count, false);
+        while ( segments.hasNext() ) {
+            MemorySegment segment = segments.next();
+
+            int amount;
+            if ( descriptor.position == synchConsoleFilePosition ) {
+                amount = descriptor.file.write(memory, segment.getPhysicalAddress(), segment.length);
+            }
+            else {
+                amount = descriptor.file.write(descriptor.position, memory, segment.getPhysicalAddress(), segment.length);
+                if ( amount > 0 ) {
+                    fileWritten(descriptor.file, descriptor.position, amount);
+                }
+            }
+
+            if ( amount < segment.length ) {
+                descriptor.position = undefinedFilePosition;
+                return -1;
+            }
+
+            if ( descriptor.position != synchConsoleFilePosition ) {
+                descriptor.position += amount;
+            }
+            bytesWritten += amount;
+        }
+
+        // part of the buffer is invalid
+        if ( bytesWritten < count ) {
+            descriptor.position = undefinedFilePosition;
+            return -1;
+        }
+
+        return bytesWritten;
     }
 
     /**
@@ -748,15 +1669,53 @@ public class UserProcess {
     private int handleClose(int fileDescriptor) {
         Lib.debug(dbgProcess, "called handleClose()");
 
-        //TODO(2.1) Implement close syscall
+        if ( !isOpenFileDescriptor(fileDescriptor) ) {
+            return -1;
+        }
+
+        return closeFile(fileDescriptor, false);
+    }
 
-        //TODO(2.1) Important!! Call this report to NachosRuntimeRecorder with correct filename when required.
-        // If the file descriptor refers to a file marked for deletion by unlink
-        // and no processes have file open, delete it.
-        Machine.nachosRuntimeRecorder().reportFileDeletedByProcessWithClose(pid, "filename");
+    /**
+     * Closes the file open on specified file descriptor, deleting it if it
+     * was unlinked and this was its last open instance.
+     *
+     * @param fileDescriptor an open file descriptor.
+     * @param exiting        <tt>true</tt> if the file is closed because this
+     *                       process exits.
+     * @return 0 on success, or -1 if an error occurred.
+     */
+    private int closeFile(int fileDescriptor, boolean exiting) {
+        FileDescriptor descriptor = fileDescriptors[fileDescriptor];
+        OpenFile file = descriptor.file;
+        boolean isConsole = descriptor.position == synchConsoleFilePosition;
 
+        if ( !isConsole ) {
+            fileClosing(file);
+        }
+        file.close();
+        descriptor.file = null;
+        descriptor.position = 0;
+
+        if ( !isConsole ) {
+            String filename = file.getName();
+            UserKernel.registerFileClosedByProcess(filename, this);
+
+            if ( UserKernel.isFileRegisteredForDeletion(filename) && !UserKernel.isFileOpenedBySomeProcess(filename) ) {
+                UserKernel.unregisterFileForDeletion(filename);
+                if ( !ThreadedKernel.fileSystem.remove(filename) ) {
+                    return -1;
+                }
+                if ( exiting ) {
+                    Machine.nachosRuntimeRecorder().reportFileDeletedByProcessOnExit(pid, filename);
+                }
+                else {
+                    Machine.nachosRuntimeRecorder().reportFileDeletedByProcessWithClose(pid, filename);
+                }
+            }
+        }
 
-        return -1;
+        return 0;
     }
 
     /**
@@ -778,13 +1737,171 @@ public class UserProcess {
     private int handleUnlink(int name) {
         Lib.debug(dbgProcess, "called handleUnlink()");
 
-        //TODO(2.1) Implement unlink syscall
+        String filename = readVirtualMemoryString(name, maxStrLength);
+        if ( filename == null ) {
+            return -1;
+        }
 
-        //TODO(2.1) Important!! Call this report to NachosRuntimeRecorder with correct filename when required.
-        // If file is still opened by some process register it for deletion.
-        // Otherwise delete it immediately.
+        UserKernel.fileModified(filename);
+        fileUnlinked(filename);
 
-        return -1;
+        // the file is deleted when the last process having it open closes it
+        if ( UserKernel.isFileOpenedBySomeProcess(filename) ) {
+            UserKernel.registerFileForDeletion(filename);
+            return 0;
+        }
+
+        if ( !ThreadedKernel.fileSystem.remove(filename) ) {
+            return -1;
+        }
+        Machine.nachosRuntimeRecorder().reportFileDeletedByProcessWithUnlink(pid, filename);
+
+        return 0;
+    }
+
+    /**
+     * Checks whether specified file descriptor refers to an open file.
+     *
+     * @param fileDescriptor the file descriptor to check.
+     * @return <tt>true</tt> if the file descriptor is in range and refers to
+     * an open file or stream.
+     */
+    private boolean isOpenFileDescriptor(int fileDescriptor) {
+        return fileDescriptor >= 0 && fileDescriptor < fileDescriptors.length
+                && fileDescriptors[fileDescriptor].file != null;
+    }
+
+    /**
+     * Return the file open on a file descriptor, if it refers to a file of
+     * the file system rather than to the console.
+     *
+     * @param fileDescriptor the file descriptor.
+     * @return the open file, or <tt>null</tt> if the descriptor is not open or
+     * refers to the console.
+     */
+    protected OpenFile getOpenFile(int fileDescriptor) {
+        if ( !isOpenFileDescriptor(fileDescriptor) ||
+                fileDescriptors[fileDescriptor].position == synchConsoleFilePosition ) {
+            return null;
+        }
+
+        return fileDescriptors[fileDescriptor].file;
+    }
+
+    /**
+     * Called before a file of the file system is closed by this process, so
+     * that data kept in memory on its behalf can be written to it.
+     *
+     * @param file the file about to be closed.
+     */
+    protected void fileClosing(OpenFile file) {
+    }
+
+    /**
+     * Called before this process reads a file of the file system, so that
+     * data kept in memory on behalf of any process can be written to it
+     * first.
+     *
+     * @param file the file about to be read.
+     */
+    protected void fileReading(OpenFile file) {
+    }
+
+    /**
+     * Called after this process wrote to a file of the file system, so that
+     * copies of the file kept in memory can be updated.
+     *
+     * @param file     the file written.
+     * @param position the file position of the first byte written.
+     * @param length   the number of bytes written.
+     */
+    protected void fileWritten(OpenFile file, int position, int length) {
+    }
+
+    /**
+     * Called when this process deletes a file from the file system, so that
+     * copies of the file kept in memory are no longer handed out.
+     *
+     * @param filename the name of the file.
+     */
+    protected void fileUnlinked(String filename) {
+    }
+
+    /**
+     * Test whether a page stays shared between this process and a child
+     * created by <tt>fork()</tt>, rather than being copied on write.
+     *
+     * @param vpn the virtual page number of a resident page.
+     * @return <tt>true</tt> if writes to the page are seen by both processes.
+     */
+    protected boolean isSharedPage(int vpn) {
+        return false;
+    }
+
+    /**
+     * Wait on the futex word at virtual address <i>address</i>. If the word
+     * still contains <i>expected</i>, the calling thread is put to sleep until
+     * another thread calls <tt>futex_wake()</tt> on the same word. The word is
+     * identified by its physical address, so the wait table is shared by all
+     * processes mapping the same physical page.
+     * <p>
+     * Returns 0 after being woken up, or -1 if the word did not contain the
+     * expected value or the address is not a valid, word aligned address.
+     *
+     * @param address  syscall argument representing the virtual address of
+     *                 the futex word.
+     * @param expected syscall argument representing the value the futex word
+     *                 is expected to contain.
+     * @return 0 after being woken up, or -1 if the thread did not sleep.
+     */
+    private int handleFutexWait(int address, int expected) {
+        Lib.debug(dbgProcess, "called handleFutexWait()");
+
+        int paddr = translateFutexAddress(address);
+        if ( paddr == -1 ) {
+            return -1;
+        }
+
+        return UserKernel.futexTable.wait(paddr, expected) ? 0 : -1;
+    }
+
+    /**
+     * Wake up at most <i>count</i> threads waiting on the futex word at
+     * virtual address <i>address</i>.
+     * <p>
+     * Returns the number of threads woken up, or -1 if the address is not a
+     * valid, word aligned address or <i>count</i> is negative.
+     *
+     * @param address syscall argument representing the virtual address of the
+     *                futex word.
+     * @param count   syscall argument representing the maximum number of
+     *                threads to wake up.
+     * @return the number of threads woken up, or -1 if an error occurred.
+     */
+    private int handleFutexWake(int address, int count) {
+        Lib.debug(dbgProcess, "called handleFutexWake()");
+
+        int paddr = translateFutexAddress(address);
+        if ( paddr == -1 || count < 0 ) {
+            return -1;
+        }
+
+        return UserKernel.futexTable.wake(paddr, count);
+    }
+
+    /**
+     * Translates virtual address of a futex word to its physical address.
+     *
+     * @param address virtual address of the futex word.
+     * @return physical address of the futex word, or -1 if the address is not
+     * mapped or not word aligned.
+     */
+    private int translateFutexAddress(int address) {
+        if ( (address & 0x3) != 0 ) {
+            return -1;
+        }
+
+        return translateVirtualAddress(address, false);
     }
 
     /**
@@ -843,6 +1960,13 @@ public class UserProcess {
      * </tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  futex_wait(int *address, int expected);
+     * </tt></td></tr>
+     * <tr><td>14</td><td><tt>int  futex_wake(int *address, int count);
+     * </tt></td></tr>
+     * <tr><td>15</td><td><tt>int  fork();</tt></td></tr>
+     * <tr><td>17</td><td><tt>void *sbrk(int increment);</tt></td></tr>
+     * <tr><td>18</td><td><tt>int  getrusage(struct rusage *usage);</tt></td></tr>
      * </table>
      *
      * @param syscall the syscall number.
@@ -899,6 +2023,26 @@ public class UserProcess {
                 returnValue = handleUnlink(a0);
                 Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
                 return returnValue;
+            case syscallFutexWait:
+                returnValue = handleFutexWait(a0, a1);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
+                return returnValue;
+            case syscallFutexWake:
+                returnValue = handleFutexWake(a0, a1);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
+                return returnValue;
+            case syscallFork:
+                returnValue = handleFork();
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
+                return returnValue;
+            case syscallSbrk:
+                returnValue = handleSbrk(a0);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
+                return returnValue;
+            case syscallGetrusage:
+                returnValue = handleGetrusage(a0);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(pid, returnValue, syscall, a0, a1, a2, a3);
+                return returnValue;
             default:
                 Lib.debug(dbgProcess, "Unknown syscall " + syscall);
                 return -1;
@@ -927,9 +2071,80 @@ public class UserProcess {
                 processor.writeRegister(Processor.regV0, result);
                 processor.advancePC();
                 break;
+            case Processor.exceptionReadOnly:
+                handleReadOnly(processor.readRegister(Processor.regBadVAddr));
+                break;
+            case Processor.exceptionPageFault:
+                handlePageFault(processor.readRegister(Processor.regBadVAddr));
+                break;
             default:
                 Lib.debug(dbgProcess, "Unexpected exception: " + Processor.exceptionNames[cause]);
-                Lib.assertNotReached("Unexpected exception");
+                exit(-1, false);
+        }
+    }
+
+    /**
+     * Lazily translates a range of virtual memory into physical segments,
+     * merging resident, physically adjacent pages into a single segment.
+     */
+    private class SegmentIterator implements Iterator<MemorySegment> {
+        private final boolean writing;
+        private int vaddr;
+        private int remaining;
+        private MemorySegment next;
+        /**
+         * <tt>true</tt> once the translations of the whole range are released.
+         */
+        private boolean released = false;
+
+        private SegmentIterator(int vaddr, int length, boolean writing) {
+            this.vaddr = vaddr;
+            this.remaining = length;
+            this.writing = writing;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if ( next == null && !released ) {
+                releaseTranslations();
+                released = remaining == 0;
+            }
+            if ( next == null && remaining > 0 ) {
+                next = translateSegment();
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public MemorySegment next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+
+            MemorySegment segment = next;
+            next = null;
+            return segment;
+        }
+
+        private MemorySegment translateSegment() {
+            int paddr = translateVirtualAddress(vaddr, writing);
+            if ( paddr == -1 ) {
+                remaining = 0;
+                return null;
+            }
+
+            int length = Math.min(remaining, pageSize - Processor.offsetFromAddress(paddr));
+            for ( int pages = 1; pages < maxSegmentPages && length < remaining; pages++ ) {
+                if ( translateResidentAddress(vaddr + length, writing) != paddr + length ) {
+                    break;
+                }
+                length += Math.min(remaining - length, pageSize);
+            }
+
+            vaddr += length;
+            remaining -= length;
+            return new MemorySegment(Processor.pageFromAddress(paddr), Processor.offsetFromAddress(paddr), length);
         }
     }
 
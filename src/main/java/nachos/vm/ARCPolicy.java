@@ -0,0 +1,138 @@
+package nachos.vm;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * <p>
+ * Adaptive replacement (ARC), in its clock based form CAR, which needs only
+ * the used bits the hardware maintains rather than a hook on every reference.
+ * </p>
+ * <p>
+ * Resident pages are kept in two clocks: <i>T1</i> holds pages referenced
+ * once since they were loaded, <i>T2</i> pages referenced again. A page of
+ * <i>T1</i> found referenced moves to <i>T2</i>. Evicted pages are remembered
+ * in the ghost lists <i>B1</i> and <i>B2</i>; a fault on a page of <i>B1</i>
+ * means <i>T1</i> is too small and shifts the target size <i>p</i> of
+ * <i>T1</i> up, a fault on a page of <i>B2</i> shifts it down. Victims are
+ * taken from <i>T1</i> while it is larger than <i>p</i>, so the policy adapts
+ * between recency and frequency as the workload changes.
+ * </p>
+ */
+public class ARCPolicy implements ReplacementPolicy {
+    private FrameTable frames;
+    private int capacity;
+    /**
+     * Page held by each resident frame.
+     */
+    private long[] pages;
+    private final ArrayDeque<Integer> t1 = new ArrayDeque<>();
+    private final ArrayDeque<Integer> t2 = new ArrayDeque<>();
+    /**
+     * Ghost lists, least recently evicted page first.
+     */
+    private final LinkedHashSet<Long> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> b2 = new LinkedHashSet<>();
+    /**
+     * Target size of <i>T1</i>.
+     */
+    private int p;
+
+    /**
+     * Allocate a new adaptive replacement policy.
+     */
+    public ARCPolicy() {
+    }
+
+    @Override
+    public void initialize(FrameTable frames) {
+        this.frames = frames;
+        capacity = frames.getNumFrames();
+        pages = new long[capacity];
+        t1.clear();
+        t2.clear();
+        b1.clear();
+        b2.clear();
+        p = 0;
+    }
+
+    @Override
+    public void frameLoaded(int ppn, long page) {
+        pages[ppn] = page;
+
+        if ( b1.remove(page) ) {
+            p = Math.min(p + Math.max(1, b2.size() / Math.max(1, b1.size())), capacity);
+            t2.add(ppn);
+        }
+        else if ( b2.remove(page) ) {
+            p = Math.max(p - Math.max(1, b1.size() / Math.max(1, b2.size())), 0);
+            t2.add(ppn);
+        }
+        else {
+            t1.add(ppn);
+        }
+
+        // remember at most as many pages as fit in memory twice
+        while ( t1.size() + b1.size() > capacity && !b1.isEmpty() ) {
+            removeOldest(b1);
+        }
+        while ( t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity ) {
+            removeOldest(b2.isEmpty() ? b1 : b2);
+        }
+    }
+
+    @Override
+    public void frameFreed(int ppn) {
+        if ( !t1.remove(ppn) ) {
+            t2.remove(ppn);
+        }
+    }
+
+    @Override
+    public int selectVictim() {
+        // a clock is given up on after a full turn without an evictable page
+        int skippedT1 = 0;
+        int skippedT2 = 0;
+
+        while ( skippedT1 < t1.size() || skippedT2 < t2.size() ) {
+            boolean fromT1 = skippedT1 < t1.size() &&
+                    (t1.size() >= Math.max(1, p) || skippedT2 >= t2.size());
+
+            ArrayDeque<Integer> clock = fromT1 ? t1 : t2;
+            int ppn = clock.poll();
+
+            if ( !frames.isEvictable(ppn) ) {
+                clock.add(ppn);
+                if ( fromT1 ) {
+                    skippedT1++;
+                }
+                else {
+                    skippedT2++;
+                }
+            }
+            else if ( frames.isUsed(ppn) ) {
+                frames.clearUsed(ppn);
+                t2.add(ppn);
+                if ( fromT1 ) {
+                    skippedT1 = 0;
+                }
+                else {
+                    skippedT2 = 0;
+                }
+            }
+            else {
+                (fromT1 ? b1 : b2).add(pages[ppn]);
+                return ppn;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void removeOldest(LinkedHashSet<Long> ghosts) {
+        Iterator<Long> oldest = ghosts.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+}
@@ -0,0 +1,74 @@
+package nachos.vm;
+
+/**
+ * The aging approximation of least recently used. Each frame has an 8 bit
+ * history counter; whenever a victim is needed, every counter is shifted
+ * right with the page's used bit entering at the top, and the used bits are
+ * cleared. The page with the lowest counter, that is the one referenced
+ * least recently over the last 8 evictions, is evicted.
+ */
+public class AgingPolicy implements ReplacementPolicy {
+    private static final int historyBits = 8;
+
+    private FrameTable frames;
+    private int[] counters;
+    /**
+     * Frame the search for the lowest counter starts at, so that ties are
+     * broken in round-robin order.
+     */
+    private int start;
+
+    /**
+     * Allocate a new aging policy.
+     */
+    public AgingPolicy() {
+    }
+
+    @Override
+    public void initialize(FrameTable frames) {
+        this.frames = frames;
+        counters = new int[frames.getNumFrames()];
+        start = 0;
+    }
+
+    @Override
+    public void frameLoaded(int ppn, long page) {
+        // a new page counts as just referenced
+        counters[ppn] = 1 << (historyBits - 1);
+    }
+
+    @Override
+    public void frameFreed(int ppn) {
+        counters[ppn] = 0;
+    }
+
+    @Override
+    public int selectVictim() {
+        int numFrames = counters.length;
+
+        int victim = -1;
+        for ( int i = 0; i < numFrames; i++ ) {
+            int ppn = (start + i) % numFrames;
+            if ( !frames.isEvictable(ppn) ) {
+                continue;
+            }
+
+            counters[ppn] >>>= 1;
+            if ( frames.isUsed(ppn) ) {
+                counters[ppn] |= 1 << (historyBits - 1);
+                frames.clearUsed(ppn);
+            }
+
+            if ( victim == -1 || counters[ppn] < counters[victim] ) {
+                victim = ppn;
+            }
+        }
+
+        if ( victim != -1 ) {
+            counters[victim] = 0;
+            start = (victim + 1) % numFrames;
+        }
+
+        return victim;
+    }
+}
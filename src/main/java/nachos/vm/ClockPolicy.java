@@ -0,0 +1,55 @@
+package nachos.vm;
+
+/**
+ * The clock (second chance) algorithm. A hand sweeps the frames in physical
+ * order; a page whose used bit is set gets its bit cleared and is passed
+ * over, the first page found with a clear used bit is evicted.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private FrameTable frames;
+    private int hand;
+
+    /**
+     * Allocate a new clock policy.
+     */
+    public ClockPolicy() {
+    }
+
+    @Override
+    public void initialize(FrameTable frames) {
+        this.frames = frames;
+        hand = 0;
+    }
+
+    @Override
+    public void frameLoaded(int ppn, long page) {
+    }
+
+    @Override
+    public void frameFreed(int ppn) {
+    }
+
+    @Override
+    public int selectVictim() {
+        int numFrames = frames.getNumFrames();
+
+        // the first sweep may only clear used bits, the second finds a victim
+        for ( int i = 0; i < 2 * numFrames; i++ ) {
+            int ppn = hand;
+            hand = (hand + 1) % numFrames;
+
+            if ( !frames.isEvictable(ppn) ) {
+                continue;
+            }
+
+            if ( frames.isUsed(ppn) ) {
+                frames.clearUsed(ppn);
+            }
+            else {
+                return ppn;
+            }
+        }
+
+        return -1;
+    }
+}
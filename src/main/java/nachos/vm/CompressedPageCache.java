@@ -0,0 +1,180 @@
+package nachos.vm;
+
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.Processor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Compressed copies of swapped out pages, kept in host memory in front of the
+ * swap file and indexed by swap slot. Pages are compressed with
+ * <tt>Deflater.BEST_SPEED</tt>; a page that does not get smaller is not
+ * cached at all.
+ * </p>
+ * <p>
+ * The cache holds at most <tt>capacity</tt> bytes of compressed data. When it
+ * grows past that, <tt>SwapFile</tt> moves the least recently used pages to
+ * disk.
+ * </p>
+ */
+class CompressedPageCache {
+    private static final int pageSize = Processor.pageSize;
+
+    private final int capacity;
+    private int size = 0;
+    /**
+     * Compressed pages, in least recently used order.
+     */
+    private final LinkedHashMap<Integer, byte[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[pageSize];
+
+    /**
+     * Allocate a new, empty cache.
+     *
+     * @param capacity the maximum number of bytes of compressed data.
+     */
+    CompressedPageCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Test that pages are stored and evicted correctly.
+     */
+    static void selfTest() {
+        byte[] data = new byte[3 * pageSize];
+        for ( int i = pageSize; i < 2 * pageSize; i++ ) {
+            data[i] = (byte) (i % 7);
+        }
+        for ( int i = 2 * pageSize, seed = 1; i < 3 * pageSize; i++ ) {
+            seed = seed * 1103515245 + 12345;
+            data[i] = (byte) (seed >>> 16);
+        }
+
+        CompressedPageCache cache = new CompressedPageCache(pageSize / 4);
+        Lib.assertTrue(cache.put(0, data, 0) && cache.put(1, data, pageSize));
+        Lib.assertTrue(!cache.put(2, data, 2 * pageSize) && !cache.contains(2));
+
+        byte[] page = new byte[pageSize];
+        Lib.assertTrue(cache.get(1, page, 0));
+        Lib.assertTrue(Arrays.equals(page, Arrays.copyOfRange(data, pageSize, 2 * pageSize)));
+
+        // slot 0 is now the least recently used
+        Lib.assertTrue(cache.getEvictionCandidate() == 0);
+        cache.remove(0);
+        Lib.assertTrue(!cache.isOverCapacity() && cache.getEvictionCandidate() == 1);
+    }
+
+    /**
+     * Store the compressed contents of a page, replacing any page stored for
+     * the same slot.
+     *
+     * @param slot   the swap slot of the page.
+     * @param data   the array holding the page.
+     * @param offset the offset of the page in <i>data</i>.
+     * @return <tt>true</tt> if the page was stored, <tt>false</tt> if it does
+     * not compress and must be written to disk.
+     */
+    boolean put(int slot, byte[] data, int offset) {
+        remove(slot);
+
+        deflater.reset();
+        deflater.setInput(data, offset, pageSize);
+        deflater.finish();
+        int length = deflater.deflate(buffer);
+        if ( !deflater.finished() ) {
+            return false;
+        }
+
+        pages.put(slot, Arrays.copyOf(buffer, length));
+        size += length;
+        return true;
+    }
+
+    /**
+     * Decompress the page stored for a slot.
+     *
+     * @param slot   the swap slot.
+     * @param dst    the array to decompress the page into.
+     * @param offset the offset of the page in <i>dst</i>.
+     * @return <tt>true</tt> if the page was found.
+     */
+    boolean get(int slot, byte[] dst, int offset) {
+        byte[] compressed = pages.get(slot);
+        if ( compressed == null ) {
+            return false;
+        }
+
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            Lib.assertTrue(inflater.inflate(dst, offset, pageSize) == pageSize, "compressed page corrupted");
+        }
+        catch ( DataFormatException e ) {
+            Lib.assertNotReached("compressed page corrupted");
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a page is stored for a slot.
+     *
+     * @param slot the swap slot.
+     * @return <tt>true</tt> if the page is in this cache.
+     */
+    boolean contains(int slot) {
+        return pages.containsKey(slot);
+    }
+
+    /**
+     * Store the page of a slot for another slot too.
+     *
+     * @param slot the swap slot of a cached page.
+     * @param copy the slot of the copy.
+     */
+    void copy(int slot, int copy) {
+        byte[] compressed = pages.get(slot);
+        remove(copy);
+        pages.put(copy, compressed);
+        size += compressed.length;
+    }
+
+    /**
+     * Forget the page stored for a slot, if any.
+     *
+     * @param slot the swap slot.
+     */
+    void remove(int slot) {
+        byte[] compressed = pages.remove(slot);
+        if ( compressed != null ) {
+            size -= compressed.length;
+        }
+    }
+
+    /**
+     * Test whether the cache holds more than its capacity.
+     *
+     * @return <tt>true</tt> if pages must be moved to disk.
+     */
+    boolean isOverCapacity() {
+        return size > capacity;
+    }
+
+    /**
+     * Return the slot of the least recently used page.
+     *
+     * @return the swap slot, or -1 if the cache is empty.
+     */
+    int getEvictionCandidate() {
+        Iterator<Map.Entry<Integer, byte[]>> iterator = pages.entrySet().iterator();
+        return iterator.hasNext() ? iterator.next().getKey() : -1;
+    }
+}
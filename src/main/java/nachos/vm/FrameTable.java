@@ -0,0 +1,56 @@
+package nachos.vm;
+
+/**
+ * The view of physical memory a <tt>ReplacementPolicy</tt> works on: the
+ * reference (used) and dirty bits of resident pages, and whether a frame may
+ * be evicted at all. It is implemented by <tt>VMKernel</tt> on top of the page
+ * tables, and by <tt>ReplacementSimulator</tt> for trace-driven simulation.
+ */
+public interface FrameTable {
+    /**
+     * Return the number of frames.
+     *
+     * @return the number of frames.
+     */
+    int getNumFrames();
+
+    /**
+     * Test whether the page in a frame may be evicted now. Only the bits of
+     * evictable frames may be inspected.
+     *
+     * @param ppn the frame.
+     * @return <tt>true</tt> if the frame may be evicted.
+     */
+    boolean isEvictable(int ppn);
+
+    /**
+     * Test whether the page in a frame was referenced since its used bit was
+     * last cleared.
+     *
+     * @param ppn an evictable frame.
+     * @return <tt>true</tt> if the used bit is set.
+     */
+    boolean isUsed(int ppn);
+
+    /**
+     * Clear the used bit of the page in a frame.
+     *
+     * @param ppn an evictable frame.
+     */
+    void clearUsed(int ppn);
+
+    /**
+     * Test whether the page in a frame must be written back before eviction.
+     *
+     * @param ppn an evictable frame.
+     * @return <tt>true</tt> if the dirty bit is set.
+     */
+    boolean isDirty(int ppn);
+
+    /**
+     * Return the current time, used to measure the age of pages.
+     *
+     * @return the current time.
+     */
+    long getTime();
+}
@@ -0,0 +1,136 @@
+package nachos.vm;
+
+import nachos.machine.lib.Lib;
+
+/**
+ * <p>
+ * Global table with one entry per physical frame, recording the process and
+ * virtual page the frame is mapped at. It lets the page replacement algorithm
+ * walk physical memory and find the page table entry of each frame.
+ * </p>
+ * <p>
+ * A frame mapped by several processes, e.g. a shared text page, records only
+ * one of them, and is handed to another one when that one unmaps it; frames
+ * whose owner is not known are never evicted. A frame can
+ * also be pinned, so that it stays resident while the kernel accesses it
+ * directly, e.g. during a <tt>read()</tt> into user memory.
+ * </p>
+ * <p>
+ * The table is protected by <tt>VMKernel.pagingLock</tt>.
+ * </p>
+ */
+public class InvertedPageTable {
+    private final VMProcess[] owners;
+    private final int[] vpns;
+    private final int[] pinCounts;
+
+    /**
+     * Allocate a new inverted page table with all frames unowned.
+     *
+     * @param numFrames the number of physical frames.
+     */
+    public InvertedPageTable(int numFrames) {
+        owners = new VMProcess[numFrames];
+        vpns = new int[numFrames];
+        pinCounts = new int[numFrames];
+    }
+
+    /**
+     * Return the number of frames.
+     *
+     * @return the number of frames.
+     */
+    public int getNumFrames() {
+        return owners.length;
+    }
+
+    /**
+     * Record that a frame holds the specified page of the specified process.
+     *
+     * @param ppn   the frame.
+     * @param owner the process mapping the frame.
+     * @param vpn   the virtual page number the frame is mapped at.
+     */
+    public void setOwner(int ppn, VMProcess owner, int vpn) {
+        owners[ppn] = owner;
+        vpns[ppn] = vpn;
+    }
+
+    /**
+     * Forget the owner of a frame, if it is the specified process.
+     *
+     * @param ppn   the frame.
+     * @param owner the process unmapping the frame.
+     */
+    public void clearOwner(int ppn, VMProcess owner) {
+        if ( owners[ppn] == owner ) {
+            owners[ppn] = null;
+        }
+    }
+
+    /**
+     * Return the process owning a frame.
+     *
+     * @param ppn the frame.
+     * @return the owner, or <tt>null</tt> if the frame is unowned.
+     */
+    public VMProcess getOwner(int ppn) {
+        return owners[ppn];
+    }
+
+    /**
+     * Return the number of frames owned by a process.
+     *
+     * @param owner the process.
+     * @return the number of frames.
+     */
+    public int countFrames(VMProcess owner) {
+        int count = 0;
+        for ( VMProcess frameOwner : owners ) {
+            if ( frameOwner == owner ) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Return the virtual page number a frame is mapped at by its owner.
+     *
+     * @param ppn the frame.
+     * @return the virtual page number.
+     */
+    public int getVPN(int ppn) {
+        return vpns[ppn];
+    }
+
+    /**
+     * Prevent a frame from being evicted until a matching <tt>unpin()</tt>.
+     *
+     * @param ppn the frame.
+     */
+    public void pin(int ppn) {
+        pinCounts[ppn]++;
+    }
+
+    /**
+     * Drop one pin of a frame.
+     *
+     * @param ppn the frame. Must be pinned.
+     */
+    public void unpin(int ppn) {
+        Lib.assertTrue(pinCounts[ppn] > 0);
+        pinCounts[ppn]--;
+    }
+
+    /**
+     * Test whether a frame is pinned.
+     *
+     * @param ppn the frame.
+     * @return <tt>true</tt> if the frame is pinned.
+     */
+    public boolean isPinned(int ppn) {
+        return pinCounts[ppn] > 0;
+    }
+}
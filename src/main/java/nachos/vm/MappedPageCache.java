@@ -0,0 +1,170 @@
+package nachos.vm;
+
+import nachos.machine.Machine;
+import nachos.machine.io.OpenFile;
+import nachos.machine.processor.Processor;
+import nachos.userprog.UserKernel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Kernel-wide cache of the pages of mapped files. All maps of the same file,
+ * in any process, map the same frame for each of its pages, so a change made
+ * through one map is seen through all the others at once. <tt>write()</tt>
+ * updates the cached pages it covers, so the maps also see changes made to
+ * the file.
+ * </p>
+ * <p>
+ * Like <tt>TextPageCache</tt>, the cache holds no reference of its own. Each
+ * page mapping a cached frame holds one reference, and the page leaves the
+ * cache when the last of them is released through <tt>release()</tt>. A frame
+ * mapped by several pages is never evicted, as any shared frame.
+ * </p>
+ * <p>
+ * The cache is protected by <tt>VMKernel.pagingLock</tt>.
+ * </p>
+ */
+class MappedPageCache {
+    private static final int pageSize = Processor.pageSize;
+
+    /**
+     * Frames of the cached pages of each file, indexed by file name and then
+     * by the page number within the file.
+     */
+    private final Map<String, Map<Integer, Integer>> files = new HashMap<>();
+    /**
+     * Cached pages, indexed by the frame holding them.
+     */
+    private final Map<Integer, CachedPage> pagesByFrame = new HashMap<>();
+
+    /**
+     * Allocate a new, empty mapped page cache.
+     */
+    MappedPageCache() {
+    }
+
+    /**
+     * Return the frame holding a page of a file, reading the page into a new
+     * frame if it is not cached yet. Bytes past the end of the file read as
+     * zero. The caller receives one reference to the frame, to be dropped by
+     * <tt>release()</tt> followed by <tt>FrameAllocator.free()</tt>.
+     *
+     * @param file the file, used to read the page if necessary.
+     * @param fpn  the page number within the file.
+     * @return the physical page number, or -1 if there is no free frame.
+     */
+    int getPage(OpenFile file, int fpn) {
+        Map<Integer, Integer> frames = files.get(file.getName());
+        Integer cached = (frames != null) ? frames.get(fpn) : null;
+        if ( cached != null ) {
+            UserKernel.frameAllocator.share(cached);
+            return cached;
+        }
+
+        int ppn = UserKernel.frameAllocator.allocate();
+        if ( ppn == -1 ) {
+            return -1;
+        }
+
+        byte[] memory = Machine.processor().getMemory();
+        int paddr = Processor.makeAddress(ppn, 0);
+        int amount = file.read(fpn * pageSize, memory, paddr, pageSize);
+        Arrays.fill(memory, paddr + Math.max(0, amount), paddr + pageSize, (byte) 0);
+
+        if ( frames == null ) {
+            frames = new HashMap<>();
+            files.put(file.getName(), frames);
+        }
+        frames.put(fpn, ppn);
+        pagesByFrame.put(ppn, new CachedPage(file.getName(), fpn));
+        return ppn;
+    }
+
+    /**
+     * Prepare a frame to be freed. If the frame holds a cached page and is
+     * referenced only by the caller, the page is removed from the cache.
+     * Frames not in the cache are ignored.
+     *
+     * @param ppn a frame about to be released by the caller.
+     */
+    void release(int ppn) {
+        CachedPage page = pagesByFrame.get(ppn);
+        if ( page == null || UserKernel.frameAllocator.getReferenceCount(ppn) != 1 ) {
+            return;
+        }
+
+        pagesByFrame.remove(ppn);
+        Map<Integer, Integer> frames = files.get(page.file);
+        frames.remove(page.fpn);
+        if ( frames.isEmpty() ) {
+            files.remove(page.file);
+        }
+    }
+
+    /**
+     * Test whether any page of a file is cached.
+     *
+     * @param filename the name of the file.
+     * @return <tt>true</tt> if the file has cached pages.
+     */
+    boolean isCached(String filename) {
+        return files.containsKey(filename);
+    }
+
+    /**
+     * Copy bytes just written to a file into its cached pages.
+     *
+     * @param file     the file.
+     * @param position the file position of the first byte written.
+     * @param length   the number of bytes written.
+     */
+    void update(OpenFile file, int position, int length) {
+        Map<Integer, Integer> frames = files.get(file.getName());
+        if ( frames == null || length <= 0 ) {
+            return;
+        }
+
+        byte[] memory = Machine.processor().getMemory();
+        for ( int fpn = position / pageSize; fpn <= (position + length - 1) / pageSize; fpn++ ) {
+            Integer ppn = frames.get(fpn);
+            if ( ppn == null ) {
+                continue;
+            }
+
+            int start = Math.max(position, fpn * pageSize);
+            int end = Math.min(position + length, (fpn + 1) * pageSize);
+            file.read(start, memory, Processor.makeAddress(ppn, start - fpn * pageSize), end - start);
+        }
+    }
+
+    /**
+     * Forget all pages of the specified file, because it was deleted. Pages
+     * already mapped keep their frames.
+     *
+     * @param filename the name of the file.
+     */
+    void invalidate(String filename) {
+        Map<Integer, Integer> frames = files.remove(filename);
+        if ( frames != null ) {
+            for ( int ppn : frames.values() ) {
+                pagesByFrame.remove(ppn);
+            }
+        }
+    }
+
+    /**
+     * Location of a cached page within its file.
+     */
+    private static class CachedPage {
+        private final String file;
+        private final int fpn;
+
+        private CachedPage(String file, int fpn) {
+            this.file = file;
+            this.fpn = fpn;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package nachos.vm;
+
+import nachos.machine.Machine;
+import nachos.machine.io.OpenFile;
+import nachos.machine.processor.Processor;
+import nachos.threads.ThreadedKernel;
+import nachos.userprog.UserKernel;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A file mapped into the address space of a process by <tt>mmap()</tt>. The
+ * first <tt>length</tt> bytes of the file are mapped at consecutive virtual
+ * pages. Pages are found in the <tt>MappedPageCache</tt>, shared with all
+ * other maps of the file, or read from the file when first accessed. Dirty
+ * pages are written back to it when evicted, when the file is closed or read
+ * by a process, and when the map is removed.
+ * </p>
+ * <p>
+ * A map holds its own open instance of the file, so it stays valid after the
+ * file descriptor it was created from is closed. Bytes past the end of the
+ * file read as zero. Bytes of the last page past <tt>length</tt> are never
+ * written back by this map.
+ * </p>
+ */
+class MemoryMap {
+    private static final int pageSize = Processor.pageSize;
+
+    private final OpenFile file;
+    private final int firstVPN;
+    private final int length;
+    private final boolean writable;
+
+    /**
+     * Allocate a new map of the specified file.
+     *
+     * @param file     the file, owned by this map from now on.
+     * @param firstVPN the first virtual page of the map.
+     * @param length   the number of bytes mapped.
+     * @param writable <tt>true</tt> if the process may write to the map.
+     */
+    MemoryMap(OpenFile file, int firstVPN, int length, boolean writable) {
+        this.file = file;
+        this.firstVPN = firstVPN;
+        this.length = length;
+        this.writable = writable;
+    }
+
+    /**
+     * Return a copy of this map for a child process, with its own open
+     * instance of the file.
+     *
+     * @return the new map, or <tt>null</tt> if the file cannot be reopened.
+     */
+    MemoryMap duplicate() {
+        OpenFile copy = ThreadedKernel.fileSystem.open(file.getName(), false);
+        if ( copy == null ) {
+            return null;
+        }
+
+        return new MemoryMap(copy, firstVPN, length, writable);
+    }
+
+    /**
+     * Return the name of the mapped file.
+     *
+     * @return the file name.
+     */
+    String getFileName() {
+        return file.getName();
+    }
+
+    /**
+     * Return the first virtual page of this map.
+     *
+     * @return the virtual page number.
+     */
+    int getFirstVPN() {
+        return firstVPN;
+    }
+
+    /**
+     * Return the number of virtual pages of this map.
+     *
+     * @return the number of pages.
+     */
+    int getNumPages() {
+        return (length + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * Test whether the process may write to this map.
+     *
+     * @return <tt>true</tt> if the map is writable.
+     */
+    boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Test whether a virtual page belongs to this map.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page is mapped by this map.
+     */
+    boolean contains(int vpn) {
+        return vpn >= firstVPN && vpn < firstVPN + getNumPages();
+    }
+
+    /**
+     * Return the frame holding a page of this map, reading the page from the
+     * file if no map of the file has it in memory. The caller receives one
+     * reference to the frame. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vpn a virtual page of this map.
+     * @return the frame, or -1 if there is no free frame.
+     */
+    int getPage(int vpn) {
+        return VMKernel.mappedPageCache.getPage(file, vpn - firstVPN);
+    }
+
+    /**
+     * Write a page of this map back to the file. The page is copied before
+     * the write blocks, so the frame may be reused as soon as this returns.
+     *
+     * @param vpn a virtual page of this map.
+     * @param ppn the frame holding the page.
+     * @return <tt>true</tt> on success.
+     */
+    boolean writePage(int vpn, int ppn) {
+        int pageLength = getPageLength(vpn);
+        byte[] data = Arrays.copyOfRange(Machine.processor().getMemory(),
+                Processor.makeAddress(ppn, 0), Processor.makeAddress(ppn, 0) + pageLength);
+
+        UserKernel.fileModified(file.getName());
+        return file.write(getOffset(vpn), data, 0, pageLength) == pageLength;
+    }
+
+    /**
+     * Close the mapped file.
+     */
+    void close() {
+        file.close();
+    }
+
+    private int getOffset(int vpn) {
+        return (vpn - firstVPN) * pageSize;
+    }
+
+    private int getPageLength(int vpn) {
+        return Math.min(pageSize, length - getOffset(vpn));
+    }
+}
@@ -0,0 +1,321 @@
+package nachos.vm;
+
+import nachos.machine.Machine;
+import nachos.machine.lib.Lib;
+import nachos.threads.Condition;
+import nachos.threads.KThread;
+import nachos.threads.Semaphore;
+import nachos.threads.SemaphoresCondition;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Frame allocation by page fault frequency. Each process gets a quota of
+ * frames, adjusted on each of its page faults from the time since its
+ * previous fault: a fault within <tt>lowerInterval</tt> ticks means the
+ * process needs more memory, and its quota grows by a frame; a fault after
+ * more than <tt>upperInterval</tt> ticks means its working set is smaller
+ * than its quota, which shrinks to the resident pages referenced since then,
+ * plus the faulting page. When memory is full, a process at its quota
+ * replaces one of its own pages rather than a page of another process.
+ * </p>
+ * <p>
+ * When the quotas of the running processes add up to more than physical
+ * memory, the process with the lowest priority, the youngest one among
+ * equals, is suspended: all its pages are evicted, and it sleeps on its next
+ * page fault until it is resumed. Suspended processes are resumed, highest
+ * priority first, when their quota fits in memory again, or when no running
+ * process faulted for <tt>upperInterval</tt> ticks. The latter is checked by
+ * a kernel thread the timer interrupt wakes through
+ * <tt>timerInterrupt()</tt>, only while processes are suspended.
+ * </p>
+ * <p>
+ * The caller must hold <tt>VMKernel.pagingLock</tt>.
+ * </p>
+ */
+class PageFaultFrequencyAllocator {
+    private static final char dbgVM = 'v';
+    /**
+     * Quota of a new process, and the smallest quota of any process.
+     */
+    private static final int minQuota = 4;
+
+    private final int numFrames;
+    private final long lowerInterval;
+    private final long upperInterval;
+    /**
+     * Resident set of each process, in the order the processes started.
+     */
+    private final Map<VMProcess, ResidentSet> residentSets = new LinkedHashMap<>();
+    /**
+     * Time of the last page fault of a running process.
+     */
+    private long lastFaultTime = 0;
+    /**
+     * The number of suspended processes.
+     */
+    private int numSuspended = 0;
+    /**
+     * Condition suspended processes sleep on until they are resumed.
+     */
+    private final Condition resumed;
+    /**
+     * Semaphore the timer interrupt signals when suspended processes may be
+     * resumed because no running process faulted for a while.
+     */
+    private final Semaphore idleCheck = new Semaphore(0, "PageFaultFrequencyAllocator.idleCheck");
+    /**
+     * <tt>true</tt> from the time <tt>idleCheck</tt> is signaled until the
+     * check is done.
+     */
+    private boolean idleCheckPending = false;
+
+    /**
+     * Allocate a new allocator with no processes.
+     *
+     * @param numFrames     the number of physical frames.
+     * @param lowerInterval the fault interval under which a quota grows, in
+     *                      ticks.
+     * @param upperInterval the fault interval over which a quota shrinks, in
+     *                      ticks.
+     */
+    PageFaultFrequencyAllocator(int numFrames, long lowerInterval, long upperInterval) {
+        this.numFrames = numFrames;
+        this.lowerInterval = lowerInterval;
+        this.upperInterval = upperInterval;
+        resumed = new SemaphoresCondition(VMKernel.pagingLock, "PageFaultFrequencyAllocator.resumed");
+    }
+
+    /**
+     * Fork the kernel thread resuming suspended processes once no running
+     * process faulted for <tt>upperInterval</tt> ticks.
+     */
+    void start() {
+        new KThread(new Runnable() {
+            @Override
+            public void run() {
+                while ( true ) {
+                    idleCheck.P();
+
+                    VMKernel.pagingLock.acquire();
+                    resumeProcesses();
+                    idleCheckPending = false;
+                    VMKernel.pagingLock.release();
+                }
+            }
+        }).setName("frame quotas").fork();
+    }
+
+    /**
+     * Called on each timer interrupt, with interrupts disabled. Wakes the
+     * thread started by <tt>start()</tt> if processes are suspended and no
+     * running process faulted for <tt>upperInterval</tt> ticks. Does not
+     * require <tt>VMKernel.pagingLock</tt>.
+     */
+    void timerInterrupt() {
+        if ( numSuspended > 0 && !idleCheckPending && Machine.timer().getTime() - lastFaultTime > upperInterval ) {
+            idleCheckPending = true;
+            idleCheck.V();
+        }
+    }
+
+    /**
+     * Give a new process the initial quota.
+     *
+     * @param process the process.
+     */
+    void addProcess(VMProcess process) {
+        residentSets.put(process, new ResidentSet(Machine.timer().getTime()));
+    }
+
+    /**
+     * Forget a process that is exiting, and resume suspended processes that
+     * fit in the memory it leaves.
+     *
+     * @param process the process.
+     */
+    void removeProcess(VMProcess process) {
+        ResidentSet residentSet = residentSets.remove(process);
+        if ( residentSet == null ) {
+            return;
+        }
+
+        if ( residentSet.suspended ) {
+            residentSet.suspended = false;
+            numSuspended--;
+            resumed.wakeAll();
+        }
+        resumeProcesses();
+    }
+
+    /**
+     * Test whether a process holds at least as many frames as its quota.
+     *
+     * @param process the process.
+     * @return <tt>true</tt> if the process should replace its own pages.
+     */
+    boolean isOverQuota(VMProcess process) {
+        ResidentSet residentSet = residentSets.get(process);
+        return residentSet != null && VMKernel.invertedPageTable.countFrames(process) >= residentSet.quota;
+    }
+
+    /**
+     * Adjust the quota of a process that faults on a non-resident page, then
+     * suspend or resume processes if the quotas no longer match memory.
+     *
+     * @param process the faulting process.
+     */
+    void pageFaulted(VMProcess process) {
+        ResidentSet residentSet = residentSets.get(process);
+        if ( residentSet == null ) {
+            return;
+        }
+
+        long time = Machine.timer().getTime();
+        long interval = time - residentSet.lastFaultTime;
+        residentSet.lastFaultTime = time;
+        lastFaultTime = time;
+
+        if ( interval < lowerInterval ) {
+            residentSet.quota = Math.min(numFrames, residentSet.quota + 1);
+        }
+        else if ( interval > upperInterval ) {
+            residentSet.quota = Math.max(minQuota, process.countUsedPages() + 1);
+        }
+
+        while ( getDemand() > numFrames ) {
+            VMProcess victim = selectVictim();
+            if ( victim == null ) {
+                break;
+            }
+            suspend(victim);
+        }
+
+        resumeProcesses();
+    }
+
+    /**
+     * Sleep while a process is suspended, until <tt>resumeProcesses()</tt> or
+     * <tt>removeProcess()</tt> wakes it. Called by the process itself before
+     * paging in a page; releases <tt>VMKernel.pagingLock</tt> while sleeping.
+     *
+     * @param process the current process.
+     */
+    void waitWhileSuspended(VMProcess process) {
+        ResidentSet residentSet = residentSets.get(process);
+        while ( residentSet != null && residentSet.suspended ) {
+            resumed.sleep();
+        }
+    }
+
+    /**
+     * Return the sum of the quotas of the running processes.
+     */
+    private int getDemand() {
+        int demand = 0;
+        for ( ResidentSet residentSet : residentSets.values() ) {
+            if ( !residentSet.suspended ) {
+                demand += residentSet.quota;
+            }
+        }
+
+        return demand;
+    }
+
+    /**
+     * Return the running process to suspend: the one with the lowest
+     * priority, and the youngest among equals. The last running process is
+     * never suspended.
+     *
+     * @return the process, or <tt>null</tt> if at most one process runs.
+     */
+    private VMProcess selectVictim() {
+        VMProcess victim = null;
+        long victimPriority = 0;
+        int numRunning = 0;
+        for ( Map.Entry<VMProcess, ResidentSet> entry : residentSets.entrySet() ) {
+            if ( entry.getValue().suspended ) {
+                continue;
+            }
+
+            numRunning++;
+            long priority = entry.getKey().getPriority();
+            if ( victim == null || priority <= victimPriority ) {
+                victim = entry.getKey();
+                victimPriority = priority;
+            }
+        }
+
+        return (numRunning > 1) ? victim : null;
+    }
+
+    /**
+     * Return the suspended process to resume first: the one with the highest
+     * priority, and the oldest among equals.
+     *
+     * @return the process, or <tt>null</tt> if no process is suspended.
+     */
+    private VMProcess selectSuspended() {
+        VMProcess next = null;
+        long nextPriority = 0;
+        for ( Map.Entry<VMProcess, ResidentSet> entry : residentSets.entrySet() ) {
+            if ( !entry.getValue().suspended ) {
+                continue;
+            }
+
+            long priority = entry.getKey().getPriority();
+            if ( next == null || priority > nextPriority ) {
+                next = entry.getKey();
+                nextPriority = priority;
+            }
+        }
+
+        return next;
+    }
+
+    private void suspend(VMProcess process) {
+        residentSets.get(process).suspended = true;
+        numSuspended++;
+        int numEvicted = VMKernel.evictPages(process);
+
+        Lib.debug(dbgVM, "\tsuspend process " + process.getPid() + ", " + numEvicted + " pages evicted");
+        VMKernel.pagingStats.numSuspendedProcesses++;
+    }
+
+    /**
+     * Resume the suspended processes whose quota fits in memory, or a single
+     * one if no running process faulted for <tt>upperInterval</tt> ticks, and
+     * wake them.
+     */
+    private void resumeProcesses() {
+        boolean idle = Machine.timer().getTime() - lastFaultTime > upperInterval;
+
+        VMProcess process;
+        while ( (process = selectSuspended()) != null ) {
+            ResidentSet residentSet = residentSets.get(process);
+            if ( !idle && getDemand() + residentSet.quota > numFrames ) {
+                break;
+            }
+
+            Lib.debug(dbgVM, "\tresume process " + process.getPid());
+            residentSet.suspended = false;
+            numSuspended--;
+            residentSet.lastFaultTime = Machine.timer().getTime();
+            lastFaultTime = residentSet.lastFaultTime;
+            idle = false;
+            resumed.wakeAll();
+        }
+    }
+
+    private static class ResidentSet {
+        int quota = minQuota;
+        long lastFaultTime;
+        boolean suspended = false;
+
+        ResidentSet(long lastFaultTime) {
+            this.lastFaultTime = lastFaultTime;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package nachos.vm;
+
+/**
+ * Paging statistics kept by the VM kernel, the kernel counterpart of the
+ * hardware counters in <tt>Stats</tt>. Printed when the kernel terminates.
+ */
+final class PagingStats {
+    /**
+     * The total number of pages evicted from physical memory.
+     */
+    int numEvictions = 0;
+    /**
+     * The total number of pages read from swap.
+     */
+    int numSwapIns = 0;
+    /**
+     * The total number of pages written to swap.
+     */
+    int numSwapOuts = 0;
+    /**
+     * The total number of write requests the swapped out pages took.
+     */
+    int numSwapWrites = 0;
+    /**
+     * The total number of swapped out pages kept compressed in memory.
+     */
+    int numCompressedSwapOuts = 0;
+    /**
+     * The total number of pages swapped in from compressed memory.
+     */
+    int numCompressedSwapIns = 0;
+    /**
+     * The total number of compressed pages moved to the swap file.
+     */
+    int numCompressedSpills = 0;
+    /**
+     * The total number of faults on non-resident pages.
+     */
+    int numDemandFaults = 0;
+    /**
+     * The total number of cached pages mapped around a faulting page.
+     */
+    int numFaultAroundPages = 0;
+    /**
+     * The total number of pages read ahead of a sequential access pattern.
+     */
+    int numPrefetchedPages = 0;
+    /**
+     * The total number of pages merged into a frame holding an identical page.
+     */
+    int numMergedPages = 0;
+    /**
+     * The total number of merged pages given a private copy again on a write.
+     */
+    int numUnmergedPages = 0;
+    /**
+     * The total number of pages a process evicted from its own resident set.
+     */
+    int numLocalEvictions = 0;
+    /**
+     * The total number of times a process was suspended for lack of memory.
+     */
+    int numSuspendedProcesses = 0;
+
+    /**
+     * Print the paging statistics.
+     */
+    void print() {
+        System.out.println("Swap: evictions " + numEvictions
+                + ", swap-ins " + numSwapIns
+                + ", swap-outs " + numSwapOuts
+                + " in " + numSwapWrites + " writes");
+        System.out.println("Compressed swap: stores " + numCompressedSwapOuts
+                + ", loads " + numCompressedSwapIns
+                + ", spills " + numCompressedSpills);
+        System.out.println("Demand paging: faults " + numDemandFaults
+                + ", fault-around pages " + numFaultAroundPages
+                + ", prefetched pages " + numPrefetchedPages);
+        System.out.println("Page merging: merged pages " + numMergedPages
+                + ", unmerged pages " + numUnmergedPages);
+        System.out.println("Frame allocation: local evictions " + numLocalEvictions
+                + ", suspended processes " + numSuspendedProcesses);
+    }
+}
@@ -0,0 +1,50 @@
+package nachos.vm;
+
+/**
+ * <p>
+ * A page replacement algorithm, choosing the page to evict when no frame is
+ * free. The policy used by <tt>VMKernel</tt> is selected by the
+ * <tt>nachos.conf</tt> key <tt>VMKernel.replacementPolicy</tt>.
+ * </p>
+ * <p>
+ * A policy is told about each page entering or leaving a frame and may keep
+ * any per-frame or per-page history. Pages are identified by a key unique
+ * among all processes, so a policy may also remember pages no longer
+ * resident.
+ * </p>
+ */
+public interface ReplacementPolicy {
+    /**
+     * Prepare this policy to manage the specified frames, all of which are
+     * initially empty.
+     *
+     * @param frames the frames to manage.
+     */
+    void initialize(FrameTable frames);
+
+    /**
+     * Called when a page is loaded into a frame.
+     *
+     * @param ppn  the frame.
+     * @param page the key of the page.
+     */
+    void frameLoaded(int ppn, long page);
+
+    /**
+     * Called when a frame is released without being chosen as a victim, e.g.
+     * when its process exits. Releasing a frame this policy does not track
+     * has no effect.
+     *
+     * @param ppn the frame.
+     */
+    void frameFreed(int ppn);
+
+    /**
+     * Choose a page to evict. The chosen frame is no longer tracked by this
+     * policy.
+     *
+     * @return the frame holding the victim page, or -1 if no frame is
+     * evictable.
+     */
+    int selectVictim();
+}
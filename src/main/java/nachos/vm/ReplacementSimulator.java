@@ -0,0 +1,321 @@
+package nachos.vm;
+
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.ReferenceTraceReader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Offline harness comparing page replacement policies. A recorded page
+ * reference trace is replayed against each policy and memory size, and the
+ * number of page faults and of dirty pages written back is reported.
+ * </p>
+ * <p>
+ * A trace is either a binary trace recorded by Nachos with
+ * <tt>Processor.traceFile</tt> set, or a text file with one reference per
+ * line, in the form <tt>pid vpn r</tt> or <tt>pid vpn w</tt>, optionally
+ * followed by the tick of the reference; empty lines and lines starting with
+ * <tt>#</tt> are ignored. Time, as seen by the policies, advances by one with
+ * each reference.
+ * </p>
+ * <p>
+ * Usage: <tt>java nachos.vm.ReplacementSimulator trace [frames...]</tt>
+ * </p>
+ */
+public class ReplacementSimulator implements FrameTable {
+    /**
+     * Memory sizes simulated if none are given on the command line.
+     */
+    private static final int[] defaultMemorySizes = {8, 16, 32, 64, 128};
+    /**
+     * Working set window of the simulated WSClock policy, in references.
+     */
+    private static final long workingSetWindow = 1000;
+
+    private final ReplacementPolicy policy;
+    private final long[] framePages;
+    private final boolean[] used;
+    private final boolean[] dirty;
+    private final Map<Long, Integer> residentPages = new HashMap<>();
+    private int numFreeFrames;
+    private long time;
+    private int numFaults;
+    private int numWriteBacks;
+
+    /**
+     * Allocate a new simulated memory with all frames free.
+     *
+     * @param policy    the replacement policy to simulate.
+     * @param numFrames the number of frames.
+     */
+    public ReplacementSimulator(ReplacementPolicy policy, int numFrames) {
+        this.policy = policy;
+        framePages = new long[numFrames];
+        used = new boolean[numFrames];
+        dirty = new boolean[numFrames];
+        numFreeFrames = numFrames;
+        policy.initialize(this);
+    }
+
+    /**
+     * Test that the replacement policies work.
+     */
+    public static void selfTest() {
+        // a loop over 12 pages, writing pages 0, 3, 6 and 9, with page 0 of
+        // a second process referenced between all of them
+        int length = 2400;
+        long[] pages = new long[length];
+        boolean[] writes = new boolean[length];
+        long hotPage = pageKey(2, 0);
+        for ( int i = 0; i < length; i += 2 ) {
+            pages[i] = pageKey(1, (i / 2) % 12);
+            writes[i] = (i % 6) == 0;
+            pages[i + 1] = hotPage;
+        }
+
+        for ( ReplacementPolicy policy : newPolicies() ) {
+            // only the compulsory faults when everything fits
+            ReplacementSimulator large = new ReplacementSimulator(policy, 16);
+            large.replay(pages, writes, length);
+            Lib.assertTrue(large.getNumFaults() == 13 && large.getNumWriteBacks() == 0);
+
+            // a hot page must survive a loop too large for memory, which
+            // faults on every reference to the 7 frames left to it and writes
+            // back every written page, except the 2 still resident at the end
+            ReplacementSimulator small = new ReplacementSimulator(policy, 8);
+            for ( int i = 0; i < length; i++ ) {
+                small.reference(pages[i], writes[i]);
+                Lib.assertTrue(i == 0 || small.residentPages.containsKey(hotPage));
+            }
+            Lib.assertTrue(small.getNumFaults() == length / 2 + 1 && small.getNumWriteBacks() == length / 6 - 2);
+        }
+    }
+
+    /**
+     * Replay a trace and print the fault rates of all policies for each
+     * memory size.
+     *
+     * @param args the trace file, optionally followed by memory sizes in
+     *             frames.
+     */
+    public static void main(String[] args) {
+        if ( args.length < 1 ) {
+            System.err.println("usage: java nachos.vm.ReplacementSimulator trace [frames...]");
+            System.exit(1);
+        }
+
+        Trace trace = new Trace();
+        try {
+            if ( ReferenceTraceReader.isReferenceTrace(args[0]) ) {
+                readBinaryTrace(args[0], trace);
+            }
+            else {
+                readTextTrace(args[0], trace);
+            }
+        }
+        catch ( IOException | NumberFormatException e ) {
+            System.err.println("unable to read trace " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        long[] pages = trace.pages;
+        boolean[] writes = trace.writes;
+        int length = trace.length;
+
+        int[] memorySizes = defaultMemorySizes;
+        if ( args.length > 1 ) {
+            memorySizes = new int[args.length - 1];
+            for ( int i = 1; i < args.length; i++ ) {
+                memorySizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(length + " references");
+        System.out.println(String.format("%-16s %8s %10s %10s %12s",
+                "policy", "frames", "faults", "fault rate", "write-backs"));
+
+        for ( int numFrames : memorySizes ) {
+            for ( ReplacementPolicy policy : newPolicies() ) {
+                ReplacementSimulator simulator = new ReplacementSimulator(policy, numFrames);
+                simulator.replay(pages, writes, length);
+                System.out.println(String.format("%-16s %8d %10d %9.2f%% %12d",
+                        policy.getClass().getSimpleName(), numFrames, simulator.getNumFaults(),
+                        (length == 0) ? 0.0 : 100.0 * simulator.getNumFaults() / length,
+                        simulator.getNumWriteBacks()));
+            }
+        }
+    }
+
+    /**
+     * Return the key identifying a page among all processes, as passed to
+     * <tt>ReplacementPolicy.frameLoaded()</tt>.
+     *
+     * @param pid the process ID.
+     * @param vpn the virtual page number.
+     * @return the page key.
+     */
+    public static long pageKey(int pid, int vpn) {
+        return ((long) pid << 32) | (vpn & 0xFFFFFFFFL);
+    }
+
+    private static void readTextTrace(String fileName, Trace trace) throws IOException {
+        try ( BufferedReader reader = new BufferedReader(new FileReader(fileName)) ) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                line = line.trim();
+                if ( line.isEmpty() || line.startsWith("#") ) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if ( fields.length != 3 && fields.length != 4 ) {
+                    throw new IOException("malformed reference: " + line);
+                }
+
+                trace.add(pageKey(Integer.parseInt(fields[0]), Integer.parseInt(fields[1])), fields[2].equals("w"));
+            }
+        }
+    }
+
+    private static void readBinaryTrace(String fileName, Trace trace) throws IOException {
+        try ( ReferenceTraceReader reader = new ReferenceTraceReader(fileName) ) {
+            while ( reader.next() ) {
+                trace.add(pageKey(reader.getPid(), reader.getVPN()), reader.isWrite());
+            }
+        }
+    }
+
+    private static ReplacementPolicy[] newPolicies() {
+        return new ReplacementPolicy[]{
+                new ClockPolicy(), new AgingPolicy(), new WSClockPolicy(workingSetWindow), new ARCPolicy()
+        };
+    }
+
+    /**
+     * Replay a trace from the current state.
+     *
+     * @param pages  the key of each referenced page.
+     * @param writes whether each reference is a write.
+     * @param length the number of references.
+     */
+    public void replay(long[] pages, boolean[] writes, int length) {
+        for ( int i = 0; i < length; i++ ) {
+            reference(pages[i], writes[i]);
+        }
+    }
+
+    /**
+     * Simulate a reference to a page, faulting it in if it is not resident.
+     *
+     * @param page  the key of the page.
+     * @param write <tt>true</tt> if the page is written.
+     */
+    public void reference(long page, boolean write) {
+        time++;
+
+        Integer ppn = residentPages.get(page);
+        if ( ppn == null ) {
+            numFaults++;
+            ppn = loadPage(page);
+        }
+
+        used[ppn] = true;
+        dirty[ppn] |= write;
+    }
+
+    private int loadPage(long page) {
+        int ppn;
+        if ( numFreeFrames > 0 ) {
+            ppn = framePages.length - numFreeFrames--;
+        }
+        else {
+            ppn = policy.selectVictim();
+            Lib.assertTrue(ppn != -1);
+
+            if ( dirty[ppn] ) {
+                numWriteBacks++;
+            }
+            residentPages.remove(framePages[ppn]);
+        }
+
+        framePages[ppn] = page;
+        used[ppn] = false;
+        dirty[ppn] = false;
+        residentPages.put(page, ppn);
+        policy.frameLoaded(ppn, page);
+        return ppn;
+    }
+
+    /**
+     * Return the number of page faults so far.
+     *
+     * @return the number of page faults.
+     */
+    public int getNumFaults() {
+        return numFaults;
+    }
+
+    /**
+     * Return the number of dirty pages evicted so far.
+     *
+     * @return the number of write-backs.
+     */
+    public int getNumWriteBacks() {
+        return numWriteBacks;
+    }
+
+    @Override
+    public int getNumFrames() {
+        return framePages.length;
+    }
+
+    @Override
+    public boolean isEvictable(int ppn) {
+        return ppn < framePages.length - numFreeFrames;
+    }
+
+    @Override
+    public boolean isUsed(int ppn) {
+        return used[ppn];
+    }
+
+    @Override
+    public void clearUsed(int ppn) {
+        used[ppn] = false;
+    }
+
+    @Override
+    public boolean isDirty(int ppn) {
+        return dirty[ppn];
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * A trace read into memory.
+     */
+    private static class Trace {
+        long[] pages = new long[1024];
+        boolean[] writes = new boolean[1024];
+        int length = 0;
+
+        void add(long page, boolean write) {
+            if ( length == pages.length ) {
+                pages = Arrays.copyOf(pages, 2 * length);
+                writes = Arrays.copyOf(writes, 2 * length);
+            }
+            pages[length] = page;
+            writes[length] = write;
+            length++;
+        }
+    }
+}
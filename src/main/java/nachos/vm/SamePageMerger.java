@@ -0,0 +1,190 @@
+package nachos.vm;
+
+import nachos.machine.Machine;
+import nachos.machine.TranslationEntry;
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.Processor;
+import nachos.threads.KThread;
+import nachos.threads.Semaphore;
+import nachos.userprog.UserKernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Kernel thread merging identical pages of user processes, such as the zero
+ * pages and unmodified data pages of several instances of a program. Every
+ * <tt>VMKernel.pageMergeInterval</tt> ticks, as woken by the timer interrupt
+ * through <tt>timerInterrupt()</tt>, it hashes the frames of all
+ * mergeable pages. A frame whose hash did not change since the previous scan
+ * is a candidate; candidates with identical contents are mapped to a single
+ * frame copy-on-write, and the other frames are freed. A write to a merged
+ * page faults, and the page gets a private copy through the usual
+ * copy-on-write path.
+ * </p>
+ * <p>
+ * Pages written between two scans are never merged, so merging is not
+ * undone right away by a write. Like all shared frames, merged frames are not
+ * evicted while shared.
+ * </p>
+ */
+public class SamePageMerger {
+    private static final char dbgVM = 'v';
+    private static final int pageSize = Processor.pageSize;
+
+    private final long interval;
+    /**
+     * Hash of each frame at the previous scan.
+     */
+    private final long[] lastHashes;
+    /**
+     * Semaphore the timer interrupt signals when the next scan is due.
+     */
+    private final Semaphore scanDue = new Semaphore(0, "SamePageMerger.scanDue");
+    /**
+     * Time the next scan is due at.
+     */
+    private long nextScanTime;
+    /**
+     * <tt>true</tt> from the time <tt>scanDue</tt> is signaled until the scan
+     * is done.
+     */
+    private boolean scanPending = false;
+
+    /**
+     * Allocate a new page merger.
+     *
+     * @param interval the time between two scans, in ticks.
+     */
+    public SamePageMerger(long interval) {
+        this.interval = interval;
+        lastHashes = new long[Machine.processor().getNumPhysPages()];
+        nextScanTime = interval;
+    }
+
+    /**
+     * Fork the kernel thread scanning memory. The thread sleeps between two
+     * scans, until <tt>timerInterrupt()</tt> wakes it.
+     */
+    public void start() {
+        new KThread(new Runnable() {
+            @Override
+            public void run() {
+                while ( true ) {
+                    scanDue.P();
+                    scan();
+
+                    nextScanTime = Machine.timer().getTime() + interval;
+                    scanPending = false;
+                }
+            }
+        }).setName("page merger").fork();
+    }
+
+    /**
+     * Called on each timer interrupt, with interrupts disabled. Wakes the
+     * thread started by <tt>start()</tt> once the next scan is due.
+     */
+    public void timerInterrupt() {
+        if ( !scanPending && Machine.timer().getTime() >= nextScanTime ) {
+            scanPending = true;
+            scanDue.V();
+        }
+    }
+
+    /**
+     * Hash all mergeable frames and merge the candidates with identical
+     * contents.
+     */
+    public void scan() {
+        VMKernel.pagingLock.acquire();
+
+        byte[] memory = Machine.processor().getMemory();
+        Map<Long, Integer> framesByHash = new HashMap<>();
+        for ( int ppn = 0; ppn < lastHashes.length; ppn++ ) {
+            if ( !isMergeable(ppn) ) {
+                continue;
+            }
+
+            long hash = hash(memory, ppn);
+            boolean stable = hash == lastHashes[ppn];
+            lastHashes[ppn] = hash;
+            if ( !stable ) {
+                continue;
+            }
+
+            Integer other = framesByHash.get(hash);
+            if ( other == null || !isSamePage(memory, other, ppn) ) {
+                framesByHash.put(hash, ppn);
+            }
+            else if ( UserKernel.frameAllocator.getReferenceCount(ppn) == 1 ) {
+                merge(other, ppn);
+            }
+            else if ( UserKernel.frameAllocator.getReferenceCount(other) == 1 ) {
+                merge(ppn, other);
+                framesByHash.put(hash, ppn);
+            }
+        }
+
+        VMKernel.pagingLock.release();
+    }
+
+    /**
+     * Test whether a frame holds a page that may be merged: a resident,
+     * anonymous page of a known process, neither pinned nor holding a futex
+     * word threads sleep on.
+     */
+    private boolean isMergeable(int ppn) {
+        VMProcess owner = VMKernel.invertedPageTable.getOwner(ppn);
+        if ( owner == null || VMKernel.invertedPageTable.isPinned(ppn) || UserKernel.futexTable.hasWaiters(ppn) ) {
+            return false;
+        }
+
+        int vpn = VMKernel.invertedPageTable.getVPN(ppn);
+        TranslationEntry entry = owner.getPageTableEntry(vpn);
+        return entry != null && entry.ppn == ppn && owner.isMergeable(vpn);
+    }
+
+    /**
+     * Map the page in frame <i>dup</i> to frame <i>keep</i>, which holds the
+     * same contents, and free frame <i>dup</i>.
+     */
+    private void merge(int keep, int dup) {
+        VMProcess keepOwner = VMKernel.invertedPageTable.getOwner(keep);
+        int keepVPN = VMKernel.invertedPageTable.getVPN(keep);
+        VMProcess dupOwner = VMKernel.invertedPageTable.getOwner(dup);
+        int dupVPN = VMKernel.invertedPageTable.getVPN(dup);
+
+        Lib.debug(dbgVM, "\tmerge page " + dupVPN + " of process " + dupOwner.getPid() + " into frame " + keep +
+                " of page " + keepVPN + " of process " + keepOwner.getPid());
+
+        keepOwner.shareMergedPage(keepVPN);
+        dupOwner.mergePage(dupVPN, keep);
+        lastHashes[dup] = 0;
+        VMKernel.pagingStats.numMergedPages++;
+    }
+
+    private static long hash(byte[] memory, int ppn) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        int paddr = Processor.makeAddress(ppn, 0);
+        for ( int i = paddr; i < paddr + pageSize; i++ ) {
+            hash = (hash ^ (memory[i] & 0xFF)) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static boolean isSamePage(byte[] memory, int ppn1, int ppn2) {
+        int paddr1 = Processor.makeAddress(ppn1, 0);
+        int paddr2 = Processor.makeAddress(ppn2, 0);
+        for ( int i = 0; i < pageSize; i++ ) {
+            if ( memory[paddr1 + i] != memory[paddr2 + i] ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
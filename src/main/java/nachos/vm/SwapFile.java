@@ -0,0 +1,285 @@
+package nachos.vm;
+
+import nachos.machine.Machine;
+import nachos.machine.io.OpenFile;
+import nachos.machine.lib.Lib;
+import nachos.machine.processor.Processor;
+import nachos.threads.ThreadedKernel;
+import nachos.userprog.FrameAllocator;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Backing store for pages evicted from physical memory. The swap file is
+ * divided into page sized slots; a page written out keeps its slot until its
+ * process exits, so a clean page that was swapped before can be evicted again
+ * without any I/O.
+ * </p>
+ * <p>
+ * Slots are managed by a <tt>FrameAllocator</tt>, which lets a batch of pages
+ * be given contiguous slots and written by a single file system request.
+ * </p>
+ * <p>
+ * Pages written out go to a <tt>CompressedPageCache</tt> in host memory
+ * first, if one is configured, and cost no I/O to write or to read back. Only
+ * pages that do not compress, and the least recently used pages once the
+ * cache is full, are written to the file. Every page keeps its slot in the
+ * file either way, so there is always room to move it there.
+ * </p>
+ */
+public class SwapFile {
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgVM = 'v';
+
+    private final String name;
+    private final OpenFile file;
+    private final FrameAllocator slots;
+    /**
+     * Compressed pages in front of the file, or <tt>null</tt> if disabled.
+     */
+    private final CompressedPageCache cache;
+
+    /**
+     * Create a new, empty swap file, truncating any existing file with the
+     * same name.
+     *
+     * @param name          the name of the swap file.
+     * @param numSlots      the maximum number of pages the swap file can
+     *                      hold.
+     * @param cacheCapacity the maximum number of bytes of compressed pages
+     *                      kept in memory, or 0 to write all pages to the
+     *                      file.
+     */
+    public SwapFile(String name, int numSlots, int cacheCapacity) {
+        this.name = name;
+        file = ThreadedKernel.fileSystem.open(name, true);
+        Lib.assertTrue(file != null, "unable to create swap file " + name);
+        slots = new FrameAllocator(numSlots);
+        cache = (cacheCapacity > 0) ? new CompressedPageCache(cacheCapacity) : null;
+    }
+
+    /**
+     * Test the compressed page cache.
+     */
+    public static void selfTest() {
+        CompressedPageCache.selfTest();
+    }
+
+    /**
+     * Allocate a single slot.
+     *
+     * @return the slot number, or -1 if the swap file is full.
+     */
+    public int allocate() {
+        return slots.allocate();
+    }
+
+    /**
+     * Allocate <i>count</i> slots, contiguous if possible so that pages
+     * written to them together need a single write.
+     *
+     * @param count the number of slots. Must be positive.
+     * @return the slot numbers, or <tt>null</tt> if fewer than <i>count</i>
+     * slots are free.
+     */
+    public int[] allocate(int count) {
+        int first = slots.allocateContiguous(count);
+        if ( first == -1 ) {
+            return slots.allocate(count);
+        }
+
+        int[] allocated = new int[count];
+        for ( int i = 0; i < count; i++ ) {
+            allocated[i] = first + i;
+        }
+        return allocated;
+    }
+
+    /**
+     * Release a slot.
+     *
+     * @param slot the slot number. Must be allocated.
+     */
+    public void free(int slot) {
+        if ( cache != null ) {
+            cache.remove(slot);
+        }
+        slots.free(slot);
+    }
+
+    /**
+     * Return the number of free slots.
+     *
+     * @return the number of free slots.
+     */
+    public int getNumFreeSlots() {
+        return slots.getNumFreeFrames();
+    }
+
+    /**
+     * Read a page from the swap file, or from the compressed page cache, into
+     * a frame.
+     *
+     * @param slot the slot holding the page.
+     * @param ppn  the frame to read into.
+     */
+    public void read(int slot, int ppn) {
+        if ( cache != null && cache.get(slot, Machine.processor().getMemory(), Processor.makeAddress(ppn, 0)) ) {
+            Lib.debug(dbgVM, "\tdecompress page of slot " + slot);
+            VMKernel.pagingStats.numCompressedSwapIns++;
+            return;
+        }
+
+        int length = file.read(slot * pageSize, Machine.processor().getMemory(),
+                Processor.makeAddress(ppn, 0), pageSize);
+        Lib.assertTrue(length == pageSize, "swap file read failed");
+    }
+
+    /**
+     * Write pages to the swap file. The contents of all frames are copied
+     * first, atomically, so the pages may be modified or their frames reused
+     * while the writes are in progress. Pages are stored compressed in memory
+     * if possible; the others, and the pages this pushes out of the
+     * compressed page cache, are written to the file.
+     *
+     * @param slots the slot to write each page to.
+     * @param ppns  the frame holding each page.
+     * @param count the number of pages.
+     */
+    public void write(int[] slots, int[] ppns, int count) {
+        byte[] memory = Machine.processor().getMemory();
+        byte[] buffer = new byte[count * pageSize];
+
+        boolean intStatus = Machine.interrupt().disable();
+        for ( int i = 0; i < count; i++ ) {
+            System.arraycopy(memory, Processor.makeAddress(ppns[i], 0), buffer, i * pageSize, pageSize);
+        }
+        Machine.interrupt().restore(intStatus);
+
+        VMKernel.pagingStats.numSwapOuts += count;
+
+        if ( cache == null ) {
+            writeToFile(slots, buffer, count);
+            return;
+        }
+
+        int[] fileSlots = new int[count];
+        byte[] fileBuffer = new byte[count * pageSize];
+        int numFilePages = 0;
+        for ( int i = 0; i < count; i++ ) {
+            if ( cache.put(slots[i], buffer, i * pageSize) ) {
+                VMKernel.pagingStats.numCompressedSwapOuts++;
+            }
+            else {
+                fileSlots[numFilePages] = slots[i];
+                System.arraycopy(buffer, i * pageSize, fileBuffer, numFilePages * pageSize, pageSize);
+                numFilePages++;
+            }
+        }
+
+        writeToFile(fileSlots, fileBuffer, numFilePages);
+        spill();
+    }
+
+    /**
+     * Move the least recently used pages of the compressed page cache to the
+     * file until the cache is within its capacity.
+     */
+    private void spill() {
+        int[] spillSlots = new int[0];
+        byte[] spillBuffer = new byte[0];
+        int count = 0;
+        while ( cache.isOverCapacity() ) {
+            if ( count == spillSlots.length ) {
+                spillSlots = Arrays.copyOf(spillSlots, 2 * count + 1);
+                spillBuffer = Arrays.copyOf(spillBuffer, spillSlots.length * pageSize);
+            }
+
+            int slot = cache.getEvictionCandidate();
+            cache.get(slot, spillBuffer, count * pageSize);
+            cache.remove(slot);
+            spillSlots[count++] = slot;
+        }
+
+        if ( count > 0 ) {
+            Lib.debug(dbgVM, "\tcompressed swap full, spill " + count + " pages to the swap file");
+            VMKernel.pagingStats.numCompressedSpills += count;
+            writeToFile(spillSlots, spillBuffer, count);
+        }
+    }
+
+    /**
+     * Write pages to the file, each run of consecutive slots by a single
+     * request.
+     *
+     * @param slots  the slot of each page.
+     * @param buffer the pages, in the order of <i>slots</i>.
+     * @param count  the number of pages.
+     */
+    private void writeToFile(int[] slots, byte[] buffer, int count) {
+        // sort the pages by slot, so consecutive slots form runs
+        int[] order = new int[count];
+        for ( int i = 0; i < count; i++ ) {
+            int j = i;
+            while ( j > 0 && slots[order[j - 1]] > slots[i] ) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+
+        byte[] sorted = new byte[count * pageSize];
+        for ( int i = 0; i < count; i++ ) {
+            System.arraycopy(buffer, order[i] * pageSize, sorted, i * pageSize, pageSize);
+        }
+
+        int first = 0;
+        while ( first < count ) {
+            int end = first + 1;
+            while ( end < count && slots[order[end]] == slots[order[end - 1]] + 1 ) {
+                end++;
+            }
+
+            Lib.debug(dbgVM, "\tswap out " + (end - first) + " pages to slot " + slots[order[first]]);
+
+            int length = file.write(slots[order[first]] * pageSize, sorted, first * pageSize, (end - first) * pageSize);
+            Lib.assertTrue(length == (end - first) * pageSize, "swap file write failed");
+            VMKernel.pagingStats.numSwapWrites++;
+
+            first = end;
+        }
+    }
+
+    /**
+     * Copy the contents of a slot into a newly allocated slot.
+     *
+     * @param slot the slot to copy.
+     * @return the new slot, or -1 if the swap file is full.
+     */
+    public int duplicate(int slot) {
+        int copy = slots.allocate();
+        if ( copy == -1 ) {
+            return -1;
+        }
+
+        if ( cache != null && cache.contains(slot) ) {
+            cache.copy(slot, copy);
+            spill();
+            return copy;
+        }
+
+        byte[] buffer = new byte[pageSize];
+        Lib.assertTrue(file.read(slot * pageSize, buffer, 0, pageSize) == pageSize, "swap file read failed");
+        Lib.assertTrue(file.write(copy * pageSize, buffer, 0, pageSize) == pageSize, "swap file write failed");
+        return copy;
+    }
+
+    /**
+     * Close and delete the swap file.
+     */
+    public void close() {
+        file.close();
+        ThreadedKernel.fileSystem.remove(name);
+    }
+}
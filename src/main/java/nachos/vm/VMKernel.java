@@ -1,13 +1,128 @@
 package nachos.vm;
 
+import nachos.machine.Machine;
+import nachos.machine.TranslationEntry;
+import nachos.machine.config.Config;
+import nachos.machine.lib.Lib;
+import nachos.threads.Lock;
+import nachos.threads.ThreadedKernel;
 import nachos.userprog.UserKernel;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
+ * <p>
  * A kernel that can support multiple demand-paging user processes.
+ * </p>
+ * <p>
+ * Physical memory may be over-committed. When no frame is free, a page is
+ * evicted, chosen by the <tt>ReplacementPolicy</tt> named by the
+ * <tt>nachos.conf</tt> key <tt>VMKernel.replacementPolicy</tt> (the clock
+ * algorithm by default), which sees the frames listed in the global inverted
+ * page table. Dirty pages are written to a swap file before eviction; a dirty
+ * victim is written together with up to
+ * <tt>VMKernel.writebackBatchSize - 1</tt> other dirty, unused pages
+ * following it, which are cleaned but stay resident, so their later eviction
+ * needs no I/O. Dirty pages of mapped files are written to their files
+ * instead; all maps of a file share its pages through the
+ * <tt>MappedPageCache</tt>. Swapped out pages are kept compressed in host memory, up to
+ * <tt>VMKernel.compressedSwapBytes</tt> bytes, before going to the swap
+ * file.
+ * </p>
+ * <p>
+ * If <tt>VMKernel.superpages</tt> is set, writable pages are faulted in an
+ * aligned group at a time when enough aligned contiguous frames are free,
+ * and such a group is mapped by a single superpage TLB entry.
+ * </p>
+ * <p>
+ * A page fault also maps the cached text pages in an aligned window of
+ * <tt>VMKernel.faultAroundPages</tt> pages around the faulting page, and a
+ * process faulting on ascending pages has up to
+ * <tt>VMKernel.maxPrefetchPages</tt> following pages read ahead from the
+ * executable or swap, into free frames only.
+ * </p>
+ * <p>
+ * If <tt>VMKernel.pageMergeInterval</tt> is positive, a
+ * <tt>SamePageMerger</tt> thread merges identical anonymous pages of all
+ * processes copy-on-write, scanning memory every that many ticks.
+ * </p>
+ * <p>
+ * If <tt>VMKernel.pageFaultFrequency</tt> is set, frames are allocated by
+ * page fault frequency: each process gets a quota of frames, grown when it
+ * faults more often than every <tt>VMKernel.lowerFaultInterval</tt> ticks
+ * and shrunk when it faults less often than every
+ * <tt>VMKernel.upperFaultInterval</tt> ticks. A process at its quota replaces
+ * its own pages, and processes are suspended, lowest priority first, while
+ * the quotas add up to more than physical memory.
+ * </p>
  */
 public class VMKernel extends UserKernel {
     private static final char dbgVM = 'v';
 
+    /**
+     * Globally accessible reference to the table of frame owners.
+     */
+    public static InvertedPageTable invertedPageTable;
+    /**
+     * Globally accessible reference to the swap file.
+     */
+    public static SwapFile swapFile;
+    /**
+     * Globally accessible reference to the cache of mapped file pages.
+     */
+    static MappedPageCache mappedPageCache;
+    /**
+     * Lock serializing page faults and evictions.
+     */
+    public static Lock pagingLock;
+    /**
+     * The page replacement algorithm.
+     */
+    private static ReplacementPolicy replacementPolicy;
+    /**
+     * Maximum number of dirty pages written by a single eviction.
+     */
+    private static int writebackBatchSize;
+    /**
+     * <tt>true</tt> if processes map aligned groups of pages with superpages.
+     */
+    static boolean superpages;
+    /**
+     * Size of the window of pages mapped around a faulting page if cached.
+     */
+    static int faultAroundPages;
+    /**
+     * Maximum number of pages read ahead of a sequential fault.
+     */
+    static int maxPrefetchPages;
+    /**
+     * The thread merging identical pages, or <tt>null</tt> if disabled.
+     */
+    private static SamePageMerger pageMerger;
+    /**
+     * The quotas of frame allocation by page fault frequency, or
+     * <tt>null</tt> if disabled.
+     */
+    static PageFaultFrequencyAllocator frameQuotas;
+    /**
+     * Processes with a page table, searched for the other users of a shared
+     * frame when its owner unmaps it.
+     */
+    private static Set<VMProcess> processes;
+    /**
+     * Paging statistics, printed on termination.
+     */
+    static PagingStats pagingStats;
+    /**
+     * If not <tt>null</tt>, only frames of this process may be evicted.
+     */
+    private static VMProcess evictionOwner;
+
+    static {
+        initializeStaticFields();
+    }
+
     /**
      * Allocate a new VM kernel.
      */
@@ -15,12 +130,446 @@ public class VMKernel extends UserKernel {
         super();
     }
 
+    private static void initializeStaticFields() {
+        invertedPageTable = null;
+        swapFile = null;
+        mappedPageCache = null;
+        pagingLock = null;
+        replacementPolicy = null;
+        writebackBatchSize = 0;
+        superpages = false;
+        faultAroundPages = 0;
+        maxPrefetchPages = 0;
+        pageMerger = null;
+        frameQuotas = null;
+        pagingStats = null;
+        processes = null;
+        evictionOwner = null;
+    }
+
+    /**
+     * Allocate a frame, evicting a page if no frame is free. The caller must
+     * hold <tt>pagingLock</tt>.
+     *
+     * @param requester the process the frame is for.
+     * @return the frame, or -1 if no page can be evicted.
+     */
+    public static int allocateFrame(VMProcess requester) {
+        Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+        int ppn;
+        while ( (ppn = frameAllocator.allocate()) == -1 ) {
+            if ( !evictPageFor(requester) ) {
+                return -1;
+            }
+        }
+
+        return ppn;
+    }
+
+    /**
+     * Make sure at least one frame is free, evicting a page if necessary, for
+     * an allocation made outside of this class. The caller must hold
+     * <tt>pagingLock</tt>.
+     *
+     * @param requester the process the frame is for.
+     * @return <tt>true</tt> if a frame is free.
+     */
+    public static boolean reserveFrame(VMProcess requester) {
+        Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+        while ( frameAllocator.getNumFreeFrames() == 0 ) {
+            if ( !evictPageFor(requester) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Allocate the aligned, physically contiguous frames backing a superpage.
+     * No page is evicted for them, a superpage is only used if memory has
+     * room for it. The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param numPages the superpage size, in pages.
+     * @return the first frame, or -1 if no suitable run of frames is free.
+     */
+    public static int allocateSuperpage(int numPages) {
+        Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+        return frameAllocator.allocateContiguous(numPages, numPages);
+    }
+
+    /**
+     * Record that a frame holds the specified page of the specified process,
+     * and let the replacement policy track it. The caller must hold
+     * <tt>pagingLock</tt>.
+     *
+     * @param ppn   the frame.
+     * @param owner the process mapping the frame.
+     * @param vpn   the virtual page number the frame is mapped at.
+     */
+    public static void mapFrame(int ppn, VMProcess owner, int vpn) {
+        if ( invertedPageTable.getOwner(ppn) == owner && invertedPageTable.getVPN(ppn) == vpn ) {
+            return;
+        }
+
+        if ( invertedPageTable.getOwner(ppn) != null ) {
+            replacementPolicy.frameFreed(ppn);
+        }
+        invertedPageTable.setOwner(ppn, owner, vpn);
+        replacementPolicy.frameLoaded(ppn, ReplacementSimulator.pageKey(owner.getPid(), vpn));
+    }
+
+    /**
+     * Forget the owner of a frame if it is the specified page, because the
+     * page no longer maps the frame. A frame still shared with other pages is
+     * handed to one of them, so it becomes evictable and mergeable again once
+     * that page is its only user. The caller must hold <tt>pagingLock</tt>,
+     * and its reference to the frame.
+     *
+     * @param ppn   the frame.
+     * @param owner the process unmapping the frame.
+     * @param vpn   the virtual page number the frame was mapped at.
+     */
+    public static void unmapFrame(int ppn, VMProcess owner, int vpn) {
+        if ( invertedPageTable.getOwner(ppn) != owner || invertedPageTable.getVPN(ppn) != vpn ) {
+            return;
+        }
+
+        invertedPageTable.clearOwner(ppn, owner);
+        replacementPolicy.frameFreed(ppn);
+
+        if ( frameAllocator.getReferenceCount(ppn) > 1 ) {
+            for ( VMProcess process : processes ) {
+                int sharedVPN = process.findPage(ppn, (process == owner) ? vpn : -1);
+                if ( sharedVPN != -1 ) {
+                    mapFrame(ppn, process, sharedVPN);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the dirty pages of all maps of a file back to it, in every
+     * process, e.g. so that a <tt>read()</tt> of the file sees them. The
+     * caller must hold <tt>pagingLock</tt>.
+     *
+     * @param filename the name of the file.
+     * @return <tt>true</tt> if all pages were written.
+     */
+    static boolean writeBackMappedPages(String filename) {
+        Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+        if ( !mappedPageCache.isCached(filename) ) {
+            return true;
+        }
+
+        boolean written = true;
+        for ( VMProcess process : processes ) {
+            written &= process.writeBackMaps(filename);
+        }
+
+        return written;
+    }
+
+    /**
+     * Add a process whose pages may share frames with other processes. The
+     * caller must hold <tt>pagingLock</tt>.
+     *
+     * @param process the process, after its page table is created.
+     */
+    static void addProcess(VMProcess process) {
+        processes.add(process);
+    }
+
+    /**
+     * Remove a process added by <tt>addProcess()</tt>. The caller must hold
+     * <tt>pagingLock</tt>.
+     *
+     * @param process the process, before it unmaps its pages.
+     */
+    static void removeProcess(VMProcess process) {
+        processes.remove(process);
+    }
+
+    /**
+     * Evict all evictable pages of a process, e.g. to suspend it. The caller
+     * must hold <tt>pagingLock</tt>.
+     *
+     * @param owner the process.
+     * @return the number of pages evicted.
+     */
+    static int evictPages(VMProcess owner) {
+        Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+        int count = 0;
+        while ( evictPage(owner) ) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Evict a page to make room for a page of the specified process: one of
+     * its own pages if it is at its quota, any page otherwise.
+     *
+     * @param requester the process the frame is for.
+     * @return <tt>true</tt> if a page was evicted.
+     */
+    private static boolean evictPageFor(VMProcess requester) {
+        if ( frameQuotas != null && frameQuotas.isOverQuota(requester) && evictPage(requester) ) {
+            pagingStats.numLocalEvictions++;
+            return true;
+        }
+
+        return evictPage(null);
+    }
+
+    /**
+     * Evict the page chosen by the replacement policy and free its frame.
+     *
+     * @param onlyOwner if not <tt>null</tt>, the process whose page to evict.
+     * @return <tt>true</tt> if a page was evicted.
+     */
+    private static boolean evictPage(VMProcess onlyOwner) {
+        // used and dirty bits may only be in the TLB
+        if ( Machine.processor().hasTLB() ) {
+            VMProcess.syncTLB();
+        }
+
+        evictionOwner = onlyOwner;
+        int victim = replacementPolicy.selectVictim();
+        evictionOwner = null;
+        if ( victim == -1 ) {
+            Lib.debug(dbgVM, "\tno page can be evicted");
+            return false;
+        }
+
+        VMProcess owner = invertedPageTable.getOwner(victim);
+        int vpn = invertedPageTable.getVPN(victim);
+        TranslationEntry entry = owner.getPageTableEntry(vpn);
+
+        Lib.debug(dbgVM, "\tevict page " + vpn + " of process " + owner.getPid() + " from frame " + victim);
+
+        if ( Machine.processor().hasTLB() ) {
+            owner.invalidateTLBEntry(vpn);
+        }
+
+        if ( entry.dirty ) {
+            boolean written = owner.isFileBacked(vpn) ? owner.evictMappedPage(vpn) : writeBack(victim);
+            if ( !written ) {
+                replacementPolicy.frameLoaded(victim, ReplacementSimulator.pageKey(owner.getPid(), vpn));
+                return false;
+            }
+        }
+        else {
+            entry.valid = false;
+        }
+
+        invertedPageTable.clearOwner(victim, owner);
+        textPageCache.release(new int[]{victim});
+        mappedPageCache.release(victim);
+        frameAllocator.free(victim);
+        pagingStats.numEvictions++;
+        return true;
+    }
+
+    /**
+     * Write a dirty victim page to swap, along with other dirty, unused pages
+     * following it in physical memory. The victim is unmapped, the other
+     * pages stay resident and become clean.
+     *
+     * @param victim the frame holding the victim page.
+     * @return <tt>true</tt> on success, <tt>false</tt> if the swap file is
+     * full.
+     */
+    private static boolean writeBack(int victim) {
+        int numFrames = invertedPageTable.getNumFrames();
+        int[] ppns = new int[writebackBatchSize];
+        int count = 0;
+
+        ppns[count++] = victim;
+        for ( int i = 1; i < numFrames && count < writebackBatchSize; i++ ) {
+            int ppn = (victim + i) % numFrames;
+            TranslationEntry entry = getEvictableEntry(ppn);
+            if ( entry != null && entry.dirty && !invertedPageTable.getOwner(ppn).isUsed(invertedPageTable.getVPN(ppn)) &&
+                    !invertedPageTable.getOwner(ppn).isFileBacked(invertedPageTable.getVPN(ppn)) ) {
+                ppns[count++] = ppn;
+            }
+        }
+
+        // pages swapped out before are written back to their slots
+        int[] slots = new int[count];
+        int missing = 0;
+        for ( int i = 0; i < count; i++ ) {
+            slots[i] = getSwapSlot(ppns[i]);
+            if ( slots[i] == -1 ) {
+                missing++;
+            }
+        }
+
+        if ( missing > 0 ) {
+            int[] newSlots = swapFile.allocate(missing);
+            if ( newSlots == null ) {
+                // not enough room for the whole batch, write the victim only
+                count = 1;
+                if ( slots[0] == -1 && (slots[0] = swapFile.allocate()) == -1 ) {
+                    Lib.debug(dbgVM, "\tswap file full");
+                    return false;
+                }
+            }
+            else {
+                for ( int i = 0, j = 0; i < count; i++ ) {
+                    if ( slots[i] == -1 ) {
+                        slots[i] = newSlots[j++];
+                    }
+                }
+            }
+        }
+
+        // the pages are copied before the first write blocks, so any later
+        // modification marks a page dirty again
+        for ( int i = 0; i < count; i++ ) {
+            VMProcess owner = invertedPageTable.getOwner(ppns[i]);
+            int vpn = invertedPageTable.getVPN(ppns[i]);
+            owner.setSwapSlot(vpn, slots[i]);
+            owner.getPageTableEntry(vpn).dirty = false;
+        }
+        invertedPageTable.getOwner(victim).getPageTableEntry(invertedPageTable.getVPN(victim)).valid = false;
+
+        swapFile.write(slots, ppns, count);
+        return true;
+    }
+
+    /**
+     * Return the page table entry mapping a frame, if the frame can be
+     * evicted. Free frames, frames shared by several processes or with an
+     * unknown owner, pinned frames and frames holding futex words threads
+     * sleep on cannot be evicted.
+     *
+     * @param ppn the frame.
+     * @return the page table entry, or <tt>null</tt> if the frame cannot be
+     * evicted.
+     */
+    private static TranslationEntry getEvictableEntry(int ppn) {
+        if ( frameAllocator.getReferenceCount(ppn) != 1 || invertedPageTable.isPinned(ppn) ) {
+            return null;
+        }
+
+        VMProcess owner = invertedPageTable.getOwner(ppn);
+        if ( owner == null ) {
+            return null;
+        }
+
+        TranslationEntry entry = owner.getPageTableEntry(invertedPageTable.getVPN(ppn));
+        if ( entry == null || !entry.valid || entry.ppn != ppn || futexTable.hasWaiters(ppn) ) {
+            return null;
+        }
+
+        return entry;
+    }
+
+    private static int getSwapSlot(int ppn) {
+        return invertedPageTable.getOwner(ppn).getSwapSlot(invertedPageTable.getVPN(ppn));
+    }
+
+    /**
+     * The timer interrupt handler, replacing the one of the alarm. Wakes the
+     * page merger when a scan is due and lets the frame quotas check for
+     * idleness, then passes the interrupt on to the alarm.
+     */
+    private static void timerInterrupt() {
+        if ( pageMerger != null ) {
+            pageMerger.timerInterrupt();
+        }
+        if ( frameQuotas != null ) {
+            frameQuotas.timerInterrupt();
+        }
+
+        ThreadedKernel.alarm.timerInterrupt();
+    }
+
     /**
-     * Initialize this kernel.
+     * The frames of physical memory, as seen by the replacement policy. The
+     * bits of a frame are those of the page table entry of its owner, with
+     * the used bits cleared by working set sampling still counting as set.
+     * While <tt>evictionOwner</tt> is set, frames of other processes are not
+     * evictable.
+     */
+    private static class KernelFrameTable implements FrameTable {
+        @Override
+        public int getNumFrames() {
+            return invertedPageTable.getNumFrames();
+        }
+
+        @Override
+        public boolean isEvictable(int ppn) {
+            return getEvictableEntry(ppn) != null &&
+                    (evictionOwner == null || invertedPageTable.getOwner(ppn) == evictionOwner);
+        }
+
+        @Override
+        public boolean isUsed(int ppn) {
+            return invertedPageTable.getOwner(ppn).isUsed(invertedPageTable.getVPN(ppn));
+        }
+
+        @Override
+        public void clearUsed(int ppn) {
+            invertedPageTable.getOwner(ppn).clearUsed(invertedPageTable.getVPN(ppn));
+        }
+
+        @Override
+        public boolean isDirty(int ppn) {
+            return getEntry(ppn).dirty;
+        }
+
+        @Override
+        public long getTime() {
+            return Machine.timer().getTime();
+        }
+
+        private TranslationEntry getEntry(int ppn) {
+            return invertedPageTable.getOwner(ppn).getPageTableEntry(invertedPageTable.getVPN(ppn));
+        }
+    }
+
+    /**
+     * Initialize this kernel. Creates the swap file.
      */
     @Override
     public void initialize(String[] args) {
         super.initialize(args);
+
+        pagingStats = new PagingStats();
+        processes = new LinkedHashSet<>();
+        invertedPageTable = new InvertedPageTable(Machine.processor().getNumPhysPages());
+        mappedPageCache = new MappedPageCache();
+        replacementPolicy = Lib.constructObject(Config.getString("VMKernel.replacementPolicy", "nachos.vm.ClockPolicy"),
+                ReplacementPolicy.class);
+        replacementPolicy.initialize(new KernelFrameTable());
+        pagingLock = new Lock("VMKernel.pagingLock");
+        swapFile = new SwapFile(Config.getString("VMKernel.swapFile", "swap"),
+                Config.getInteger("VMKernel.swapPages", 1024),
+                Config.getInteger("VMKernel.compressedSwapBytes", 64 * 1024));
+        writebackBatchSize = Math.max(1, Config.getInteger("VMKernel.writebackBatchSize", 8));
+        superpages = Config.getBoolean("VMKernel.superpages", false);
+        faultAroundPages = Math.max(1, Config.getInteger("VMKernel.faultAroundPages", 8));
+        maxPrefetchPages = Math.max(0, Config.getInteger("VMKernel.maxPrefetchPages", 8));
+
+        int pageMergeInterval = Config.getInteger("VMKernel.pageMergeInterval", 0);
+        if ( pageMergeInterval > 0 ) {
+            pageMerger = new SamePageMerger(pageMergeInterval);
+        }
+
+        if ( Config.getBoolean("VMKernel.pageFaultFrequency", false) ) {
+            frameQuotas = new PageFaultFrequencyAllocator(Machine.processor().getNumPhysPages(),
+                    Config.getInteger("VMKernel.lowerFaultInterval", 2000),
+                    Config.getInteger("VMKernel.upperFaultInterval", 20000));
+        }
     }
 
     /**
@@ -29,21 +578,45 @@ public class VMKernel extends UserKernel {
     @Override
     public void selfTest() {
         super.selfTest();
+        ReplacementSimulator.selfTest();
+        SwapFile.selfTest();
     }
 
     /**
-     * Start running user programs.
+     * Start the page merger and the frame quotas thread, if enabled, and run
+     * user programs.
      */
     @Override
     public void run() {
+        if ( pageMerger != null ) {
+            pageMerger.start();
+        }
+        if ( frameQuotas != null ) {
+            frameQuotas.start();
+        }
+        if ( pageMerger != null || frameQuotas != null ) {
+            Machine.timer().setInterruptHandler(new Runnable() {
+                @Override
+                public void run() {
+                    timerInterrupt();
+                }
+            });
+        }
+
         super.run();
     }
 
     /**
-     * Terminate this kernel. Never returns.
+     * Terminate this kernel. Deletes the swap file and prints the paging
+     * statistics. Never returns.
      */
     @Override
     public void terminate() {
+        if ( swapFile != null ) {
+            swapFile.close();
+        }
+
+        pagingStats.print();
         super.terminate();
     }
 }
@@ -1,16 +1,130 @@
 package nachos.vm;
 
 import nachos.machine.Machine;
+import nachos.machine.TranslationEntry;
+import nachos.machine.elf.ElfSectionHeader;
+import nachos.machine.io.OpenFile;
+import nachos.machine.lib.Lib;
 import nachos.machine.processor.Processor;
+import nachos.threads.ThreadedKernel;
+import nachos.userprog.PageTable;
+import nachos.userprog.UserKernel;
 import nachos.userprog.UserProcess;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
+ * <p>
  * A <tt>UserProcess</tt> that supports demand-paging.
+ * </p>
+ * <p>
+ * A process starts with all page table entries invalid and no frames at all.
+ * A page gets a frame on its first access, when the fault handler fills it
+ * either from its ELF section, or with zeros for <tt>.bss</tt>, stack and
+ * arguments pages. Startup cost thus depends on the pages the program
+ * touches, not on the size of its image.
+ * </p>
+ * <p>
+ * Pages may later be evicted by <tt>VMKernel</tt>. A page written to swap
+ * keeps its swap slot and is read back from it on the next fault; a clean
+ * page that never was in swap is filled from the executable again. Frames
+ * the kernel accesses on behalf of a syscall are pinned while it copies to or
+ * from them, and unpinned by <tt>releaseTranslations()</tt> after each copy.
+ * </p>
+ * <p>
+ * Each process gets an address space ID tagging its TLB entries, so the TLB
+ * is not flushed on context switches. IDs are handed out in generations:
+ * when all <tt>Processor.numASIDs</tt> IDs are taken, the TLB is flushed
+ * once and every process gets a new ID when it next runs.
+ * </p>
+ * <p>
+ * Files can be mapped into the address space with <tt>mmap()</tt>. A map
+ * occupies a range of pages past the ones set up by <tt>load()</tt>; pages of
+ * the address space outside of any region have <tt>null</tt> page table
+ * entries, and accessing them is an error.
+ * </p>
  */
 public class VMProcess extends UserProcess {
+    private static final int
+            syscallMmap = 10,
+            syscallMunmap = 16;
+    /**
+     * Protection bits accepted by <tt>mmap()</tt>.
+     */
+    private static final int
+            protRead = 1,
+            protWrite = 2;
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';
+    /**
+     * Superpage sizes, largest first.
+     */
+    private static final int[] superpageSizes = {Processor.largeSuperpagePages, Processor.smallSuperpagePages};
+    /**
+     * Sizes of the pages a TLB entry may map.
+     */
+    private static final int[] tlbPageSizes = {1, Processor.smallSuperpagePages, Processor.largeSuperpagePages};
+
+    /**
+     * Counter choosing the way to replace on the next TLB miss, if all ways of
+     * the set are valid.
+     */
+    private static int nextTLBVictim = 0;
+    /**
+     * Next address space ID to hand out in the current generation.
+     */
+    private static int nextASID = 0;
+    private static int asidGeneration = 0;
+    /**
+     * Process holding each address space ID of the current generation.
+     */
+    private static final VMProcess[] asidOwners = new VMProcess[Processor.numASIDs];
+
+    /**
+     * Swap slot of each page, or -1 if the page was never swapped out.
+     */
+    private int[] swapSlots;
+    /**
+     * Frames pinned for the kernel access in progress.
+     */
+    private final List<Integer> pinnedFrames = new ArrayList<>();
+    /**
+     * Files mapped into the address space.
+     */
+    private final List<MemoryMap> memoryMaps = new ArrayList<>();
+    /**
+     * Pages sharing their frame with identical pages after being merged by
+     * <tt>SamePageMerger</tt>, until they are written to.
+     */
+    private final Set<Integer> mergedPages = new HashSet<>();
+    /**
+     * Pages whose used bit was cleared by working set sampling since it was
+     * last cleared by the replacement policy, which still sees it set.
+     */
+    private final BitSet sampledUsedPages = new BitSet();
+    /**
+     * Address space ID of this process, valid in generation
+     * <tt>asidGenerationOfProcess</tt> only.
+     */
+    private int asid;
+    private int asidGenerationOfProcess = -1;
+    /**
+     * The page whose fault would continue the current ascending run of
+     * faults, and the number of pages read ahead on the last fault of the
+     * run.
+     */
+    private int nextSequentialVPN = -1;
+    private int prefetchWindow = 0;
+
+    static {
+        initializeStaticFields();
+    }
 
     /**
      * Allocate a new process.
@@ -19,41 +133,671 @@ public class VMProcess extends UserProcess {
         super();
     }
 
+    private static void initializeStaticFields() {
+        nextTLBVictim = 0;
+        nextASID = 0;
+        asidGeneration = 0;
+        Arrays.fill(asidOwners, null);
+    }
+
     /**
      * Save the state of this process in preparation for a context switch.
-     * Called by <tt>UThread.saveState()</tt>.
+     * Called by <tt>UThread.saveState()</tt>. The TLB entries of this process
+     * are kept, tagged with its address space ID, but their used bits are
+     * moved to the page table for working set sampling.
      */
     @Override
     public void saveState() {
+        if ( Machine.processor().hasTLB() ) {
+            syncTLB();
+        }
+
         super.saveState();
     }
 
+    /**
+     * Clear the used bit of a page for working set sampling, remembering it
+     * for the replacement policy.
+     */
+    @Override
+    protected boolean testAndClearUsed(int vpn) {
+        boolean used = super.testAndClearUsed(vpn);
+        if ( used ) {
+            sampledUsedPages.set(vpn);
+        }
+
+        return used;
+    }
+
+    /**
+     * Test whether a resident page was referenced since the replacement
+     * policy last cleared its used bit, for <tt>VMKernel</tt>.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page was referenced.
+     */
+    boolean isUsed(int vpn) {
+        return pageTable.get(vpn).used || sampledUsedPages.get(vpn);
+    }
+
+    /**
+     * Clear the used bit of a resident page for the replacement policy.
+     *
+     * @param vpn the virtual page number.
+     */
+    void clearUsed(int vpn) {
+        pageTable.get(vpn).used = false;
+        sampledUsedPages.clear(vpn);
+    }
+
+    /**
+     * Return the number of resident pages referenced since the replacement
+     * policy last cleared their used bits, for
+     * <tt>PageFaultFrequencyAllocator</tt>. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @return the number of pages.
+     */
+    int countUsedPages() {
+        if ( Machine.processor().hasTLB() ) {
+            syncTLB();
+        }
+
+        int count = 0;
+        for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+            if ( pageTable.get(vpn) != null && pageTable.get(vpn).valid && isUsed(vpn) ) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Return the scheduling priority of the thread running this process.
+     *
+     * @return the priority, or 0 if the thread was not forked yet.
+     */
+    long getPriority() {
+        if ( getThread() == null ) {
+            return 0;
+        }
+
+        boolean intStatus = Machine.interrupt().disable();
+        long priority = ThreadedKernel.scheduler.getPriority(getThread());
+        Machine.interrupt().restore(intStatus);
+        return priority;
+    }
+
     /**
      * Restore the state of this process after a context switch. Called by
      * <tt>UThread.restoreState()</tt>.
      */
     @Override
     public void restoreState() {
-        super.restoreState();
+        if ( !Machine.processor().hasTLB() ) {
+            super.restoreState();
+            return;
+        }
+
+        if ( asidGenerationOfProcess != asidGeneration ) {
+            assignASID();
+        }
+        Machine.processor().setASID(asid);
+    }
+
+    /**
+     * Give this process a free address space ID, starting a new generation
+     * if all of them are taken.
+     */
+    private void assignASID() {
+        if ( nextASID == Processor.numASIDs ) {
+            Lib.debug(dbgVM, "\trecycling address space IDs");
+
+            Processor processor = Machine.processor();
+            for ( int i = 0; i < processor.getTLBSize(); i++ ) {
+                TranslationEntry tlbEntry = processor.readTLBEntry(i);
+                if ( tlbEntry.valid ) {
+                    syncTLBEntryOfOwner(tlbEntry);
+                    processor.writeTLBEntry(i, new TranslationEntry());
+                }
+            }
+
+            Arrays.fill(asidOwners, null);
+            asidGeneration++;
+            nextASID = 0;
+        }
+
+        asid = nextASID++;
+        asidGenerationOfProcess = asidGeneration;
+        asidOwners[asid] = this;
     }
 
     /**
      * Initializes page tables for this process so that the executable can be
-     * demand-paged.
+     * demand-paged. No frame is allocated until a page is first accessed.
      *
      * @return <tt>true</tt> if successful.
      */
     @Override
     protected boolean loadSections() {
-        return super.loadSections();
+        pageTable = new PageTable(numPages);
+        for ( int vpn = 0; vpn < numPages; vpn++ ) {
+            if ( isInitiallyMapped(vpn) ) {
+                pageTable.set(vpn, new TranslationEntry(vpn, 0, false, false, false, false));
+            }
+        }
+        swapSlots = new int[numPages];
+        Arrays.fill(swapSlots, -1);
+
+        for ( int s = 0; s < elf.getNumSections(); s++ ) {
+            ElfSectionHeader section = elf.getSection(s);
+            Lib.debug(dbgProcess, "\tmapping " + section.getName()
+                    + " section (" + section.getNumPages() + " pages)");
+
+            for ( int i = 0; i < section.getNumPages(); i++ ) {
+                pageTable.get(section.getFirstVPN() + i).readOnly = section.isReadOnly();
+            }
+        }
+
+        VMKernel.pagingLock.acquire();
+        VMKernel.addProcess(this);
+        if ( VMKernel.frameQuotas != null ) {
+            VMKernel.frameQuotas.addProcess(this);
+        }
+        VMKernel.pagingLock.release();
+
+        return true;
     }
 
     /**
-     * Release any resources allocated by <tt>loadSections()</tt>.
+     * Release any resources allocated by <tt>loadSections()</tt>, including
+     * swap slots, pinned frames and the frame quota.
      */
     @Override
     protected void unloadSections() {
+        boolean locked = acquirePagingLock();
+
+        if ( Machine.processor().hasTLB() ) {
+            flushTLB();
+            if ( asidGenerationOfProcess == asidGeneration ) {
+                asidOwners[asid] = null;
+            }
+        }
+
+        unpinFrames();
+        for ( MemoryMap map : memoryMaps ) {
+            writeBackMap(map);
+            map.close();
+        }
+        memoryMaps.clear();
+        mergedPages.clear();
+
+        if ( VMKernel.frameQuotas != null ) {
+            VMKernel.frameQuotas.removeProcess(this);
+        }
+        VMKernel.removeProcess(this);
+
+        if ( pageTable != null ) {
+            for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+                if ( pageTable.get(vpn) != null && pageTable.get(vpn).valid ) {
+                    VMKernel.unmapFrame(pageTable.get(vpn).ppn, this, vpn);
+                    VMKernel.mappedPageCache.release(pageTable.get(vpn).ppn);
+                }
+                if ( swapSlots[vpn] != -1 ) {
+                    VMKernel.swapFile.free(swapSlots[vpn]);
+                }
+            }
+        }
+
         super.unloadSections();
+        swapSlots = null;
+
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Make this newly allocated process a copy of the specified process.
+     * Resident pages are shared copy-on-write; pages the parent has in swap
+     * are copied to new swap slots of the child, and pages the parent never
+     * accessed are demand-paged by the child from the same executable. Mapped
+     * files are mapped by the child too, sharing the pages of the parent's
+     * maps rather than copying them.
+     *
+     * @param parent the process calling <tt>fork()</tt>.
+     * @return <tt>true</tt> on success.
+     */
+    @Override
+    protected boolean forkFrom(UserProcess parent) {
+        VMProcess vmParent = (VMProcess) parent;
+
+        VMKernel.pagingLock.acquire();
+
+        // parent's writable pages become copy-on-write
+        if ( Machine.processor().hasTLB() ) {
+            vmParent.flushTLB();
+        }
+
+        for ( MemoryMap map : vmParent.memoryMaps ) {
+            MemoryMap copy = map.duplicate();
+            if ( copy == null ) {
+                closeMaps();
+                VMKernel.pagingLock.release();
+                return false;
+            }
+            memoryMaps.add(copy);
+        }
+
+        swapSlots = new int[vmParent.swapSlots.length];
+        Arrays.fill(swapSlots, -1);
+        for ( int vpn = 0; vpn < swapSlots.length; vpn++ ) {
+            if ( vmParent.swapSlots[vpn] != -1 && !vmParent.pageTable.get(vpn).valid ) {
+                swapSlots[vpn] = VMKernel.swapFile.duplicate(vmParent.swapSlots[vpn]);
+                if ( swapSlots[vpn] == -1 ) {
+                    freeSwapSlots();
+                    closeMaps();
+                    VMKernel.pagingLock.release();
+                    return false;
+                }
+            }
+        }
+
+        if ( !super.forkFrom(parent) ) {
+            freeSwapSlots();
+            closeMaps();
+            VMKernel.pagingLock.release();
+            return false;
+        }
+        elf = vmParent.elf;
+        mergedPages.addAll(vmParent.mergedPages);
+
+        // the child has no swap copy of the shared pages, so they must be
+        // written out rather than refilled from the executable when evicted;
+        // mapped pages stay dirty only in the parent, which writes them back
+        for ( int vpn = 0; vpn < pageTable.getNumPages(); vpn++ ) {
+            if ( pageTable.get(vpn) != null && pageTable.get(vpn).valid && !isReadOnlySectionPage(vpn) ) {
+                pageTable.get(vpn).dirty = !isFileBacked(vpn);
+            }
+        }
+
+        VMKernel.addProcess(this);
+        if ( VMKernel.frameQuotas != null ) {
+            VMKernel.frameQuotas.addProcess(this);
+        }
+
+        VMKernel.pagingLock.release();
+        return true;
+    }
+
+    /**
+     * Fault in the page if it is not resident yet, before translating the
+     * address for the kernel. The frame is pinned until the kernel is done
+     * copying to or from it and releases the translation with
+     * <tt>releaseTranslations()</tt>.
+     */
+    @Override
+    protected int translateVirtualAddress(int vaddr, boolean writing) {
+        VMKernel.pagingLock.acquire();
+
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( vaddr >= 0 && pageTable != null && vpn < pageTable.getNumPages() && pageTable.get(vpn) == null ) {
+            mapOnDemand(vpn);
+        }
+        if ( vaddr >= 0 && pageTable != null && vpn < pageTable.getNumPages() && pageTable.get(vpn) != null &&
+                !pageTable.get(vpn).valid ) {
+            if ( VMKernel.frameQuotas != null ) {
+                VMKernel.frameQuotas.waitWhileSuspended(this);
+            }
+            if ( !pageIn(vpn) ) {
+                VMKernel.pagingLock.release();
+                return -1;
+            }
+        }
+
+        int paddr = super.translateVirtualAddress(vaddr, writing);
+        if ( paddr != -1 ) {
+            int ppn = Processor.pageFromAddress(paddr);
+            VMKernel.invertedPageTable.pin(ppn);
+            pinnedFrames.add(ppn);
+        }
+
+        VMKernel.pagingLock.release();
+        return paddr;
+    }
+
+    /**
+     * Translate the address only if its page is resident, and pin its frame
+     * like <tt>translateVirtualAddress()</tt> does.
+     */
+    @Override
+    protected int translateResidentAddress(int vaddr, boolean writing) {
+        boolean locked = acquirePagingLock();
+
+        int paddr = super.translateResidentAddress(vaddr, writing);
+        if ( paddr != -1 ) {
+            int ppn = Processor.pageFromAddress(paddr);
+            VMKernel.invertedPageTable.pin(ppn);
+            pinnedFrames.add(ppn);
+        }
+
+        releasePagingLock(locked);
+        return paddr;
+    }
+
+    /**
+     * Unpin the frames pinned by <tt>translateVirtualAddress()</tt> and
+     * <tt>translateResidentAddress()</tt>, once the kernel is done copying to
+     * or from them, so a large buffer or the loading of a program pins no
+     * more than a segment at a time.
+     */
+    @Override
+    protected void releaseTranslations() {
+        if ( pinnedFrames.isEmpty() ) {
+            return;
+        }
+
+        boolean locked = acquirePagingLock();
+        unpinFrames();
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Give this process its own copy of a page shared copy-on-write, and drop
+     * the stale read-only translation from the TLB. The copy gets a frame
+     * from <tt>VMKernel</tt>, evicting a page if necessary.
+     */
+    @Override
+    protected boolean breakCopyOnWrite(int vpn) {
+        boolean locked = acquirePagingLock();
+
+        if ( Machine.processor().hasTLB() ) {
+            invalidateTLBEntry(vpn);
+        }
+
+        int oldPPN = pageTable.get(vpn).ppn;
+        boolean copied = UserKernel.frameAllocator.getReferenceCount(oldPPN) > 1;
+        if ( copied && !VMKernel.reserveFrame(this) ) {
+            releasePagingLock(locked);
+            return false;
+        }
+
+        // the frame stays with the other sharers
+        if ( copied ) {
+            VMKernel.unmapFrame(oldPPN, this, vpn);
+        }
+
+        boolean success = super.breakCopyOnWrite(vpn);
+        if ( success ) {
+            VMKernel.mapFrame(pageTable.get(vpn).ppn, this, vpn);
+            if ( mergedPages.remove(vpn) ) {
+                VMKernel.pagingStats.numUnmergedPages++;
+            }
+        }
+
+        releasePagingLock(locked);
+        return success;
+    }
+
+    /**
+     * <p>
+     * Handle a syscall, then release any frame still pinned by it. Besides the
+     * syscalls of <tt>UserProcess</tt>, the following are supported:
+     * </p>
+     * <table>
+     * <caption>Syscall numbers and prototypes</caption>
+     * <tr><td>syscall#</td><td>syscall prototype</td></tr>
+     * <tr><td>10</td><td><tt>char *mmap(int fd, int length, int prot);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  munmap(char *address);</tt></td></tr>
+     * </table>
+     *
+     * @param syscall the syscall number.
+     * @param a0      the first syscall argument.
+     * @param a1      the second syscall argument.
+     * @param a2      the third syscall argument.
+     * @param a3      the fourth syscall argument.
+     * @return the value to be returned to the user.
+     */
+    @Override
+    public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+        int result;
+        switch ( syscall ) {
+            case syscallMmap:
+                result = handleMmap(a0, a1, a2);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(getPid(), result, syscall, a0, a1, a2, a3);
+                break;
+            case syscallMunmap:
+                result = handleMunmap(a0);
+                Machine.nachosRuntimeRecorder().reportSyscallCalledByUserProcess(getPid(), result, syscall, a0, a1, a2, a3);
+                break;
+            default:
+                result = super.handleSyscall(syscall, a0, a1, a2, a3);
+                break;
+        }
+
+        VMKernel.pagingLock.acquire();
+        unpinFrames();
+        VMKernel.pagingLock.release();
+
+        return result;
+    }
+
+    /**
+     * Map the first <i>length</i> bytes of the file referred to by
+     * <i>fileDescriptor</i> into the address space of this process. The
+     * kernel chooses the address. All maps of a file share its pages, which
+     * are read from the file when first accessed. Dirty pages are written
+     * back when evicted, when the file is closed or read, and by
+     * <tt>munmap()</tt>.
+     *
+     * @param fileDescriptor a file descriptor referring to a file, not to the
+     *                       console.
+     * @param length         the number of bytes to map, which may extend past
+     *                       the end of the file.
+     * @param prot           <tt>protRead</tt>, optionally or-ed with
+     *                       <tt>protWrite</tt> to make the map writable.
+     * @return the address of the map, or -1 if an error occurred.
+     */
+    private int handleMmap(int fileDescriptor, int length, int prot) {
+        Lib.debug(dbgProcess, "called handleMmap()");
+
+        OpenFile file = getOpenFile(fileDescriptor);
+        if ( file == null || length <= 0 || (prot & ~(protRead | protWrite)) != 0 ) {
+            return -1;
+        }
+
+        // the map keeps the file open after the descriptor is closed
+        OpenFile mapFile = ThreadedKernel.fileSystem.open(file.getName(), false);
+        if ( mapFile == null ) {
+            return -1;
+        }
+
+        VMKernel.pagingLock.acquire();
+
+        int numMapPages = (int) (((long) length + pageSize - 1) / pageSize);
+        int firstVPN = findFreeRegion(numMapPages);
+        if ( firstVPN == -1 ) {
+            VMKernel.pagingLock.release();
+            mapFile.close();
+            return -1;
+        }
+
+        MemoryMap map = new MemoryMap(mapFile, firstVPN, length, (prot & protWrite) != 0);
+        for ( int vpn = firstVPN; vpn < firstVPN + numMapPages; vpn++ ) {
+            pageTable.set(vpn, new TranslationEntry(vpn, 0, false, !map.isWritable(), false, false));
+        }
+        memoryMaps.add(map);
+
+        Lib.debug(dbgVM, "\tmapped " + file.getName() + " at pages " + firstVPN + "-" + (firstVPN + numMapPages - 1));
+
+        VMKernel.pagingLock.release();
+        return Processor.makeAddress(firstVPN, 0);
+    }
+
+    /**
+     * Remove the map starting at the specified address, writing its dirty
+     * pages back to the file.
+     *
+     * @param address the address returned by <tt>mmap()</tt>.
+     * @return 0 on success, or -1 if there is no map at <i>address</i> or the
+     * file could not be written.
+     */
+    private int handleMunmap(int address) {
+        Lib.debug(dbgProcess, "called handleMunmap()");
+
+        if ( address <= 0 || Processor.offsetFromAddress(address) != 0 ) {
+            return -1;
+        }
+
+        VMKernel.pagingLock.acquire();
+
+        MemoryMap map = findMap(Processor.pageFromAddress(address));
+        if ( map == null || map.getFirstVPN() != Processor.pageFromAddress(address) ) {
+            VMKernel.pagingLock.release();
+            return -1;
+        }
+
+        boolean written = writeBackMap(map);
+        for ( int vpn = map.getFirstVPN(); vpn < map.getFirstVPN() + map.getNumPages(); vpn++ ) {
+            if ( pageTable.get(vpn).valid ) {
+                VMKernel.unmapFrame(pageTable.get(vpn).ppn, this, vpn);
+                VMKernel.mappedPageCache.release(pageTable.get(vpn).ppn);
+                UserKernel.frameAllocator.free(pageTable.get(vpn).ppn);
+            }
+            pageTable.set(vpn, null);
+        }
+        memoryMaps.remove(map);
+        map.close();
+
+        VMKernel.pagingLock.release();
+        return written ? 0 : -1;
+    }
+
+    /**
+     * Find unmapped virtual pages for a new map: the first hole left by
+     * removed maps that is large enough, or else new pages past the end of
+     * the address space. The caller must hold <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param count the number of pages.
+     * @return the first page, or -1 if the address space is full.
+     */
+    private int findFreeRegion(int count) {
+        int run = 0;
+        for ( int vpn = numPages; vpn < pageTable.getNumPages(); vpn++ ) {
+            run = (pageTable.get(vpn) == null) ? run + 1 : 0;
+            if ( run == count ) {
+                return vpn - count + 1;
+            }
+        }
+
+        // addresses must stay positive
+        int firstVPN = pageTable.getNumPages() - run;
+        if ( (long) firstVPN + count > Processor.maxPages / 2 ) {
+            return -1;
+        }
+
+        growPageTable(firstVPN + count);
+        return firstVPN;
+    }
+
+    /**
+     * Create the page table entries of new stack or heap pages, which get
+     * their frames on first access like all other pages.
+     */
+    @Override
+    protected boolean mapZeroFilledPages(int firstVPN, int count) {
+        for ( int vpn = firstVPN; vpn < firstVPN + count; vpn++ ) {
+            pageTable.set(vpn, new TranslationEntry(vpn, 0, false, false, false, false));
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove heap pages above the break, releasing their frames and swap
+     * slots, and their translations in the TLB.
+     */
+    @Override
+    protected void unmapPages(int firstVPN, int count) {
+        boolean locked = acquirePagingLock();
+
+        for ( int vpn = firstVPN; vpn < firstVPN + count; vpn++ ) {
+            TranslationEntry entry = pageTable.get(vpn);
+            if ( entry == null ) {
+                continue;
+            }
+
+            if ( Machine.processor().hasTLB() ) {
+                invalidateTLBEntry(vpn);
+            }
+            if ( entry.valid ) {
+                VMKernel.unmapFrame(entry.ppn, this, vpn);
+                UserKernel.frameAllocator.free(entry.ppn);
+                entry.valid = false;
+            }
+            if ( swapSlots[vpn] != -1 ) {
+                VMKernel.swapFile.free(swapSlots[vpn]);
+                swapSlots[vpn] = -1;
+            }
+            mergedPages.remove(vpn);
+        }
+
+        super.unmapPages(firstVPN, count);
+
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Extend the page table, and the swap slots along with it.
+     */
+    @Override
+    protected void growPageTable(int length) {
+        int oldLength = pageTable.getNumPages();
+        super.growPageTable(length);
+
+        swapSlots = Arrays.copyOf(swapSlots, length);
+        Arrays.fill(swapSlots, oldLength, length, -1);
+    }
+
+    /**
+     * Write back the dirty pages of the maps of a file before it is closed.
+     */
+    @Override
+    protected void fileClosing(OpenFile file) {
+        boolean locked = acquirePagingLock();
+        writeBackMaps(file.getName());
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Write back the dirty pages of the maps of a file, in every process, so
+     * that the file is up to date before it is read.
+     */
+    @Override
+    protected void fileReading(OpenFile file) {
+        boolean locked = acquirePagingLock();
+        VMKernel.writeBackMappedPages(file.getName());
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Copy the bytes written to a file into the pages of its maps.
+     */
+    @Override
+    protected void fileWritten(OpenFile file, int position, int length) {
+        boolean locked = acquirePagingLock();
+        VMKernel.mappedPageCache.update(file, position, length);
+        releasePagingLock(locked);
+    }
+
+    /**
+     * Stop sharing the mapped pages of a deleted file with new maps, which
+     * would be maps of a different file by the same name.
+     */
+    @Override
+    protected void fileUnlinked(String filename) {
+        boolean locked = acquirePagingLock();
+        VMKernel.mappedPageCache.invalidate(filename);
+        releasePagingLock(locked);
     }
 
     /**
@@ -69,9 +813,751 @@ public class VMProcess extends UserProcess {
         Processor processor = Machine.processor();
 
         switch ( cause ) {
+            case Processor.exceptionTLBMiss:
+                handleTLBMiss(processor.readRegister(Processor.regBadVAddr));
+                break;
+            case Processor.exceptionPageFault:
+                handlePageFault(processor.readRegister(Processor.regBadVAddr));
+                break;
             default:
                 super.handleException(cause);
                 break;
         }
     }
+
+    /**
+     * Refill the TLB with the translation of the faulting page, faulting the
+     * page in first if necessary. The faulting instruction is restarted.
+     *
+     * @param vaddr the virtual address that missed in the TLB.
+     */
+    private void handleTLBMiss(int vaddr) {
+        usage.numTLBMisses++;
+
+        VMKernel.pagingLock.acquire();
+
+        boolean resident = makeResident(vaddr);
+        if ( resident ) {
+            writeTLBEntry(getTLBEntry(Processor.pageFromAddress(vaddr)));
+        }
+
+        VMKernel.pagingLock.release();
+
+        if ( !resident ) {
+            exit(-1, false);
+        }
+    }
+
+    /**
+     * Fault in the page that is not resident. The faulting instruction is
+     * restarted.
+     *
+     * @param vaddr the virtual address that caused the page fault.
+     */
+    private void handlePageFault(int vaddr) {
+        VMKernel.pagingLock.acquire();
+        boolean resident = makeResident(vaddr);
+        VMKernel.pagingLock.release();
+
+        if ( !resident ) {
+            exit(-1, false);
+        }
+    }
+
+    /**
+     * Make sure the page containing the specified address is resident. A page
+     * faulted in brings in its cached neighbours and, if the process faults
+     * on ascending pages, the pages following it. With frame allocation by
+     * page fault frequency, the fault adjusts the quota of this process, and
+     * this process sleeps here while suspended. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vaddr the faulting virtual address.
+     * @return <tt>true</tt> if the page is resident, <tt>false</tt> if the
+     * address is outside of the address space or there is no frame for the
+     * page.
+     */
+    private boolean makeResident(int vaddr) {
+        int vpn = Processor.pageFromAddress(vaddr);
+        if ( vaddr < 0 || vpn >= pageTable.getNumPages() || (pageTable.get(vpn) == null && !mapOnDemand(vpn)) ) {
+            Lib.debug(dbgVM, "\taddress 0x" + Lib.toHexString(vaddr) + " outside of address space");
+            return false;
+        }
+
+        if ( pageTable.get(vpn).valid ) {
+            return true;
+        }
+
+        if ( VMKernel.frameQuotas != null ) {
+            VMKernel.frameQuotas.pageFaulted(this);
+            VMKernel.frameQuotas.waitWhileSuspended(this);
+        }
+
+        if ( !pageIn(vpn) ) {
+            return false;
+        }
+
+        VMKernel.pagingStats.numDemandFaults++;
+        usage.numPageFaults++;
+        faultAround(vpn);
+        prefetch(vpn);
+        return true;
+    }
+
+    /**
+     * Map the text pages in the aligned window around a faulting page that
+     * are in the text page cache, which costs no I/O and saves a fault for
+     * each of them.
+     *
+     * @param vpn the faulting virtual page number.
+     */
+    private void faultAround(int vpn) {
+        int window = VMKernel.faultAroundPages;
+        int first = vpn - vpn % window;
+        for ( int v = first; v < first + window && v < pageTable.getNumPages(); v++ ) {
+            if ( pageTable.get(v) == null || pageTable.get(v).valid || swapSlots[v] != -1 ) {
+                continue;
+            }
+
+            int s = findSection(v);
+            if ( s == -1 || !elf.getSection(s).isReadOnly() ) {
+                continue;
+            }
+
+            int ppn = UserKernel.textPageCache.getCachedPage(executableName, s, v - elf.getSection(s).getFirstVPN());
+            if ( ppn != -1 ) {
+                Lib.debug(dbgVM, "\tfault around page " + v + " in frame " + ppn);
+                setResident(v, ppn);
+                VMKernel.pagingStats.numFaultAroundPages++;
+            }
+        }
+    }
+
+    /**
+     * Read ahead the pages following a faulting page if the fault continues
+     * an ascending run of faults. The read-ahead window doubles with each
+     * sequential fault, up to <tt>VMKernel.maxPrefetchPages</tt>, and is reset
+     * by a fault out of sequence. Only pages backed by the executable, by swap
+     * or by a mapped file are read, into free frames; nothing is evicted for
+     * them.
+     *
+     * @param vpn the faulting virtual page number.
+     */
+    private void prefetch(int vpn) {
+        if ( vpn != nextSequentialVPN ) {
+            prefetchWindow = 0;
+            nextSequentialVPN = vpn + 1;
+            return;
+        }
+
+        prefetchWindow = Math.min(Math.max(1, 2 * prefetchWindow), VMKernel.maxPrefetchPages);
+
+        int v = vpn + 1;
+        while ( v <= vpn + prefetchWindow && v < pageTable.getNumPages() && pageTable.get(v) != null && !pageTable.get(v).valid &&
+                (swapSlots[v] != -1 || findSection(v) != -1 || findMap(v) != null) &&
+                UserKernel.frameAllocator.getNumFreeFrames() > 0 && pageIn(v) ) {
+            Lib.debug(dbgVM, "\tprefetched page " + v);
+            VMKernel.pagingStats.numPrefetchedPages++;
+            v++;
+        }
+
+        // the run continues with a fault just past the pages read ahead
+        nextSequentialVPN = v;
+    }
+
+    /**
+     * Allocate a frame for a non-resident page and fill it: pages with a swap
+     * slot are read from swap, other pages of ELF sections are read from the
+     * executable (<tt>loadPage()</tt> zero-fills <tt>.bss</tt>), pages of
+     * mapped files are read from the files, and all other pages are
+     * zero-filled. With superpages enabled, a writable page is
+     * faulted in together with its aligned group if possible. The caller must
+     * hold <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> on success, <tt>false</tt> if there is no free
+     * frame.
+     */
+    protected boolean pageIn(int vpn) {
+        Lib.assertTrue(VMKernel.pagingLock.isHeldByCurrentThread());
+
+        TranslationEntry entry = pageTable.get(vpn);
+        Lib.assertTrue(!entry.valid);
+
+        int s = findSection(vpn);
+        ElfSectionHeader section = (s != -1) ? elf.getSection(s) : null;
+
+        MemoryMap map = findMap(vpn);
+
+        int ppn;
+        if ( map != null ) {
+            // pages of a file are shared with its other maps
+            ppn = VMKernel.reserveFrame(this) ? map.getPage(vpn) : -1;
+        }
+        else if ( swapSlots[vpn] != -1 ) {
+            ppn = VMKernel.allocateFrame(this);
+            if ( ppn != -1 ) {
+                Lib.debug(dbgVM, "\tswap in page " + vpn + " from slot " + swapSlots[vpn]);
+                VMKernel.swapFile.read(swapSlots[vpn], ppn);
+                VMKernel.pagingStats.numSwapIns++;
+                usage.numSwapIns++;
+            }
+        }
+        else if ( section != null && section.isReadOnly() ) {
+            // read-only pages are shared with other instances of the executable
+            ppn = VMKernel.reserveFrame(this)
+                    ? UserKernel.textPageCache.getPage(executableName, elf, s, vpn - section.getFirstVPN())
+                    : -1;
+        }
+        else if ( VMKernel.superpages && pageInSuperpage(vpn) ) {
+            return true;
+        }
+        else {
+            ppn = VMKernel.allocateFrame(this);
+            if ( ppn != -1 ) {
+                fillPage(vpn, ppn);
+            }
+        }
+
+        if ( ppn == -1 ) {
+            Lib.debug(dbgVM, "\tno free frame for page " + vpn);
+            return false;
+        }
+
+        Lib.debug(dbgVM, "\tpage in " + vpn + " to frame " + ppn);
+
+        setResident(vpn, ppn);
+        return true;
+    }
+
+    /**
+     * Map a page to the frame it was just loaded into, or found in.
+     *
+     * @param vpn the virtual page number.
+     * @param ppn the frame.
+     */
+    private void setResident(int vpn, int ppn) {
+        // a shared text page keeps the owner that faulted it in first
+        if ( VMKernel.invertedPageTable.getOwner(ppn) == null ||
+                UserKernel.frameAllocator.getReferenceCount(ppn) == 1 ) {
+            VMKernel.mapFrame(ppn, this, vpn);
+        }
+
+        TranslationEntry entry = pageTable.get(vpn);
+        entry.ppn = ppn;
+        entry.valid = true;
+        entry.used = false;
+        entry.dirty = false;
+        sampledUsedPages.clear(vpn);
+    }
+
+    /**
+     * Fill the frame of a writable page that is neither in swap nor shared:
+     * pages of ELF sections are read from the executable, all other pages are
+     * zero-filled.
+     *
+     * @param vpn the virtual page number.
+     * @param ppn the frame.
+     */
+    private void fillPage(int vpn, int ppn) {
+        int s = findSection(vpn);
+        if ( s != -1 ) {
+            ElfSectionHeader section = elf.getSection(s);
+            section.loadPage(vpn - section.getFirstVPN(), ppn);
+        }
+        else {
+            int paddr = Processor.makeAddress(ppn, 0);
+            Arrays.fill(Machine.processor().getMemory(), paddr, paddr + pageSize, (byte) 0);
+        }
+    }
+
+    /**
+     * Fault in the aligned group of pages containing a page into the frames
+     * of a superpage, if no page of the group was paged in before, all of them
+     * are writable, and memory has an aligned run of free frames. The caller
+     * must hold <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vpn the faulting virtual page number.
+     * @return <tt>true</tt> if the group was paged in.
+     */
+    private boolean pageInSuperpage(int vpn) {
+        for ( int numPages : superpageSizes ) {
+            int firstVPN = vpn & -numPages;
+            if ( !isUntouchedWritableGroup(firstVPN, numPages) ) {
+                continue;
+            }
+
+            int firstPPN = VMKernel.allocateSuperpage(numPages);
+            if ( firstPPN == -1 ) {
+                continue;
+            }
+
+            Lib.debug(dbgVM, "\tpage in pages " + firstVPN + "-" + (firstVPN + numPages - 1) +
+                    " to superpage at frame " + firstPPN);
+
+            for ( int i = 0; i < numPages; i++ ) {
+                fillPage(firstVPN + i, firstPPN + i);
+                setResident(firstVPN + i, firstPPN + i);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean isUntouchedWritableGroup(int firstVPN, int numPages) {
+        if ( firstVPN + numPages > pageTable.getNumPages() ) {
+            return false;
+        }
+
+        for ( int vpn = firstVPN; vpn < firstVPN + numPages; vpn++ ) {
+            if ( pageTable.get(vpn) == null || pageTable.get(vpn).valid || pageTable.get(vpn).readOnly ||
+                    swapSlots[vpn] != -1 || isReadOnlySectionPage(vpn) || findMap(vpn) != null ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the translation to load into the TLB for a resident page: a
+     * superpage covering the aligned group of pages around it, if superpages
+     * are enabled and the whole group is resident in aligned contiguous
+     * frames with the same protection, or else its page table entry.
+     *
+     * @param vpn the virtual page number.
+     * @return the translation entry.
+     */
+    private TranslationEntry getTLBEntry(int vpn) {
+        if ( VMKernel.superpages ) {
+            for ( int numPages : superpageSizes ) {
+                int firstVPN = vpn & -numPages;
+                if ( isMappedAsSuperpage(firstVPN, numPages) ) {
+                    TranslationEntry entry = new TranslationEntry(pageTable.get(firstVPN));
+                    entry.numPages = numPages;
+                    entry.used = false;
+                    entry.dirty = false;
+                    return entry;
+                }
+            }
+        }
+
+        return pageTable.get(vpn);
+    }
+
+    private boolean isMappedAsSuperpage(int firstVPN, int numPages) {
+        if ( firstVPN + numPages > pageTable.getNumPages() ) {
+            return false;
+        }
+
+        TranslationEntry first = pageTable.get(firstVPN);
+        if ( first == null || !first.valid || first.ppn % numPages != 0 ) {
+            return false;
+        }
+
+        for ( int i = 1; i < numPages; i++ ) {
+            TranslationEntry entry = pageTable.get(firstVPN + i);
+            if ( entry == null || !entry.valid || entry.ppn != first.ppn + i || entry.readOnly != first.readOnly ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the ELF section containing the specified virtual page.
+     *
+     * @param vpn the virtual page number.
+     * @return the section index, or -1 if the page is a stack or arguments
+     * page.
+     */
+    private int findSection(int vpn) {
+        for ( int s = 0; s < elf.getNumSections(); s++ ) {
+            ElfSectionHeader section = elf.getSection(s);
+            if ( vpn >= section.getFirstVPN() && vpn < section.getFirstVPN() + section.getNumPages() ) {
+                return s;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isReadOnlySectionPage(int vpn) {
+        int s = findSection(vpn);
+        return s != -1 && elf.getSection(s).isReadOnly();
+    }
+
+    /**
+     * Find a resident page mapped to a frame, for <tt>VMKernel</tt>.
+     *
+     * @param ppn       the frame.
+     * @param exceptVPN a virtual page number to skip, or -1.
+     * @return the virtual page number, or -1 if no other page of this process
+     * maps the frame.
+     */
+    int findPage(int ppn, int exceptVPN) {
+        for ( int vpn = 0; pageTable != null && vpn < pageTable.getNumPages(); vpn++ ) {
+            TranslationEntry entry = pageTable.get(vpn);
+            if ( vpn != exceptVPN && entry != null && entry.valid && entry.ppn == ppn ) {
+                return vpn;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Return the page table entry of a page, for <tt>VMKernel</tt>.
+     *
+     * @param vpn the virtual page number.
+     * @return the page table entry, or <tt>null</tt> if this process has no
+     * such page.
+     */
+    TranslationEntry getPageTableEntry(int vpn) {
+        if ( pageTable == null || vpn < 0 || vpn >= pageTable.getNumPages() ) {
+            return null;
+        }
+
+        return pageTable.get(vpn);
+    }
+
+    /**
+     * Test whether a resident page may share its frame with identical pages,
+     * for <tt>SamePageMerger</tt>. Only anonymous pages qualify: text pages
+     * are shared through the text page cache already, and pages of mapped
+     * files must keep frames of their own to be written back.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page may be merged.
+     */
+    boolean isMergeable(int vpn) {
+        TranslationEntry entry = getPageTableEntry(vpn);
+        return entry != null && entry.valid && !isReadOnlySectionPage(vpn) && !isFileBacked(vpn);
+    }
+
+    /**
+     * Keep a page in its frame, which an identical page is being merged into.
+     * The page becomes copy-on-write. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vpn the virtual page number of a mergeable page.
+     */
+    void shareMergedPage(int vpn) {
+        if ( Machine.processor().hasTLB() ) {
+            invalidateTLBEntry(vpn);
+        }
+
+        makeCopyOnWrite(vpn);
+        mergedPages.add(vpn);
+    }
+
+    /**
+     * Map a page to a frame holding identical contents, freeing its own frame.
+     * The page becomes copy-on-write. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param vpn the virtual page number of a mergeable page whose frame is
+     *            not shared.
+     * @param ppn the frame to share.
+     */
+    void mergePage(int vpn, int ppn) {
+        if ( Machine.processor().hasTLB() ) {
+            invalidateTLBEntry(vpn);
+        }
+
+        TranslationEntry entry = pageTable.get(vpn);
+        VMKernel.unmapFrame(entry.ppn, this, vpn);
+        UserKernel.frameAllocator.free(entry.ppn);
+        UserKernel.frameAllocator.share(ppn);
+        entry.ppn = ppn;
+
+        makeCopyOnWrite(vpn);
+        mergedPages.add(vpn);
+    }
+
+    /**
+     * Return the swap slot of a page.
+     *
+     * @param vpn the virtual page number.
+     * @return the swap slot, or -1 if the page was never swapped out.
+     */
+    int getSwapSlot(int vpn) {
+        return swapSlots[vpn];
+    }
+
+    /**
+     * Set the swap slot of a page, which has been written to it.
+     *
+     * @param vpn  the virtual page number.
+     * @param slot the swap slot.
+     */
+    void setSwapSlot(int vpn, int slot) {
+        swapSlots[vpn] = slot;
+    }
+
+    /**
+     * Find the map containing the specified virtual page.
+     *
+     * @param vpn the virtual page number.
+     * @return the map, or <tt>null</tt> if the page is not in a mapped file.
+     */
+    private MemoryMap findMap(int vpn) {
+        for ( MemoryMap map : memoryMaps ) {
+            if ( map.contains(vpn) ) {
+                return map;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Pages of mapped files are shared with the child, like all maps of a
+     * file.
+     */
+    @Override
+    protected boolean isSharedPage(int vpn) {
+        return isFileBacked(vpn);
+    }
+
+    /**
+     * Test whether a page belongs to a mapped file, for <tt>VMKernel</tt>.
+     * Such a page is written to its file rather than to swap.
+     *
+     * @param vpn the virtual page number.
+     * @return <tt>true</tt> if the page is file-backed.
+     */
+    boolean isFileBacked(int vpn) {
+        return findMap(vpn) != null;
+    }
+
+    /**
+     * Write a dirty page of a mapped file back to the file, and unmap it so
+     * that its frame can be freed. Called by <tt>VMKernel</tt> on eviction,
+     * with <tt>VMKernel.pagingLock</tt> held.
+     *
+     * @param vpn the virtual page number of a resident, file-backed page.
+     * @return <tt>true</tt> on success.
+     */
+    boolean evictMappedPage(int vpn) {
+        TranslationEntry entry = pageTable.get(vpn);
+        if ( !findMap(vpn).writePage(vpn, entry.ppn) ) {
+            return false;
+        }
+
+        entry.dirty = false;
+        entry.valid = false;
+        return true;
+    }
+
+    /**
+     * Write the dirty resident pages of all maps of a file back to it, for
+     * <tt>VMKernel</tt>. The caller must hold <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param filename the name of the file.
+     * @return <tt>true</tt> if all pages were written.
+     */
+    boolean writeBackMaps(String filename) {
+        boolean written = true;
+        for ( MemoryMap map : memoryMaps ) {
+            if ( map.getFileName().equals(filename) ) {
+                written &= writeBackMap(map);
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Write the dirty resident pages of a map back to its file. The pages
+     * stay resident and become clean. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @param map a map of this process.
+     * @return <tt>true</tt> if all pages were written.
+     */
+    private boolean writeBackMap(MemoryMap map) {
+        // dirty bits may only be in the TLB
+        if ( Machine.processor().hasTLB() ) {
+            flushTLB();
+        }
+
+        boolean written = true;
+        for ( int vpn = map.getFirstVPN(); vpn < map.getFirstVPN() + map.getNumPages(); vpn++ ) {
+            TranslationEntry entry = pageTable.get(vpn);
+            if ( entry.valid && entry.dirty ) {
+                if ( map.writePage(vpn, entry.ppn) ) {
+                    entry.dirty = false;
+                }
+                else {
+                    written = false;
+                }
+            }
+        }
+
+        return written;
+    }
+
+    private void closeMaps() {
+        for ( MemoryMap map : memoryMaps ) {
+            map.close();
+        }
+        memoryMaps.clear();
+    }
+
+    private void freeSwapSlots() {
+        for ( int vpn = 0; vpn < swapSlots.length; vpn++ ) {
+            if ( swapSlots[vpn] != -1 ) {
+                VMKernel.swapFile.free(swapSlots[vpn]);
+                swapSlots[vpn] = -1;
+            }
+        }
+    }
+
+    private void unpinFrames() {
+        for ( int ppn : pinnedFrames ) {
+            VMKernel.invertedPageTable.unpin(ppn);
+        }
+        pinnedFrames.clear();
+    }
+
+    /**
+     * Acquire <tt>VMKernel.pagingLock</tt> unless the current thread already
+     * holds it.
+     *
+     * @return <tt>true</tt> if the lock was acquired by this call.
+     */
+    private static boolean acquirePagingLock() {
+        if ( VMKernel.pagingLock.isHeldByCurrentThread() ) {
+            return false;
+        }
+
+        VMKernel.pagingLock.acquire();
+        return true;
+    }
+
+    private static void releasePagingLock(boolean locked) {
+        if ( locked ) {
+            VMKernel.pagingLock.release();
+        }
+    }
+
+    /**
+     * Copy the used and dirty bits of all TLB entries into the page tables
+     * of their processes, and clear them in the TLB, so that the page tables
+     * show all references made since the last call.
+     */
+    static void syncTLB() {
+        Processor processor = Machine.processor();
+        for ( int i = 0; i < processor.getTLBSize(); i++ ) {
+            TranslationEntry tlbEntry = processor.readTLBEntry(i);
+            if ( tlbEntry.valid && (tlbEntry.used || tlbEntry.dirty) ) {
+                syncTLBEntryOfOwner(tlbEntry);
+                tlbEntry.used = false;
+                tlbEntry.dirty = false;
+                processor.writeTLBEntry(i, tlbEntry);
+            }
+        }
+    }
+
+    private static void syncTLBEntryOfOwner(TranslationEntry tlbEntry) {
+        VMProcess owner = asidOwners[tlbEntry.asid];
+        if ( owner != null ) {
+            owner.syncTLBEntry(tlbEntry);
+        }
+    }
+
+    private boolean isOwnTLBEntry(TranslationEntry tlbEntry) {
+        return tlbEntry.valid && tlbEntry.asid == asid && asidGenerationOfProcess == asidGeneration;
+    }
+
+    /**
+     * Write the translation of a resident page into its TLB set, replacing an
+     * invalid way if there is one, or else the ways in round-robin order.
+     *
+     * @param entry the page table entry.
+     */
+    private void writeTLBEntry(TranslationEntry entry) {
+        Processor processor = Machine.processor();
+        int set = processor.getTLBSet(entry.vpn);
+
+        int victim = -1;
+        for ( int way = 0; way < processor.getTLBWays(); way++ ) {
+            if ( !processor.readTLBEntry(set, way).valid ) {
+                victim = way;
+                break;
+            }
+        }
+
+        if ( victim == -1 ) {
+            victim = nextTLBVictim;
+            nextTLBVictim = (nextTLBVictim + 1) % processor.getTLBWays();
+            syncTLBEntryOfOwner(processor.readTLBEntry(set, victim));
+        }
+
+        TranslationEntry tlbEntry = new TranslationEntry(entry);
+        tlbEntry.asid = asid;
+        processor.writeTLBEntry(set, victim, tlbEntry);
+    }
+
+    /**
+     * Remove the translation of the specified page of this process from the
+     * TLB, if present, saving its used and dirty bits into the page table. A
+     * superpage entry containing the page is removed as a whole.
+     *
+     * @param vpn the virtual page number.
+     */
+    void invalidateTLBEntry(int vpn) {
+        Processor processor = Machine.processor();
+        for ( int numPages : tlbPageSizes ) {
+            int firstVPN = vpn & -numPages;
+            int set = processor.getTLBSet(firstVPN);
+            for ( int way = 0; way < processor.getTLBWays(); way++ ) {
+                TranslationEntry tlbEntry = processor.readTLBEntry(set, way);
+                if ( isOwnTLBEntry(tlbEntry) && tlbEntry.vpn == firstVPN && tlbEntry.numPages == numPages ) {
+                    syncTLBEntry(tlbEntry);
+                    processor.writeTLBEntry(set, way, new TranslationEntry());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all translations of this process from the TLB, saving their
+     * used and dirty bits into the page table.
+     */
+    private void flushTLB() {
+        Processor processor = Machine.processor();
+        for ( int i = 0; i < processor.getTLBSize(); i++ ) {
+            TranslationEntry tlbEntry = processor.readTLBEntry(i);
+            if ( isOwnTLBEntry(tlbEntry) ) {
+                syncTLBEntry(tlbEntry);
+                processor.writeTLBEntry(i, new TranslationEntry());
+            }
+        }
+    }
+
+    /**
+     * Copy the used and dirty bits the processor set in a TLB entry back to
+     * the page table entries it was loaded from. The bits of a superpage
+     * entry are copied to all of its pages, as the TLB does not record which
+     * of them were referenced.
+     *
+     * @param tlbEntry a TLB entry of this process.
+     */
+    private void syncTLBEntry(TranslationEntry tlbEntry) {
+        if ( !tlbEntry.valid || pageTable == null ) {
+            return;
+        }
+
+        for ( int i = 0; i < tlbEntry.numPages && tlbEntry.vpn + i < pageTable.getNumPages(); i++ ) {
+            TranslationEntry entry = pageTable.get(tlbEntry.vpn + i);
+            if ( entry != null && entry.valid && entry.ppn == tlbEntry.ppn + i ) {
+                entry.used |= tlbEntry.used;
+                entry.dirty |= tlbEntry.dirty;
+            }
+        }
+    }
 }
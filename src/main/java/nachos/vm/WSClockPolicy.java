@@ -0,0 +1,96 @@
+package nachos.vm;
+
+/**
+ * <p>
+ * The WSClock algorithm. Like the clock algorithm, a hand sweeps the frames
+ * and clears used bits, but a referenced page also records the current time
+ * as its last use. A page not used for longer than the working set window is
+ * outside of its process's working set and may be evicted.
+ * </p>
+ * <p>
+ * Clean pages outside of the working set are preferred, as evicting them
+ * needs no I/O. If a whole sweep finds none, the first dirty page outside of
+ * the working set is chosen (and written back, with its neighbours, by the
+ * kernel), or failing that the least recently used evictable page.
+ * </p>
+ */
+public class WSClockPolicy implements ReplacementPolicy {
+    /**
+     * Default working set window, in ticks of the simulated machine.
+     */
+    public static final long defaultWindow = 20000;
+
+    private final long window;
+    private FrameTable frames;
+    private long[] lastUse;
+    private int hand;
+
+    /**
+     * Allocate a new WSClock policy with the default working set window.
+     */
+    public WSClockPolicy() {
+        this(defaultWindow);
+    }
+
+    /**
+     * Allocate a new WSClock policy.
+     *
+     * @param window the working set window, in units of
+     *               <tt>FrameTable.getTime()</tt>.
+     */
+    public WSClockPolicy(long window) {
+        this.window = window;
+    }
+
+    @Override
+    public void initialize(FrameTable frames) {
+        this.frames = frames;
+        lastUse = new long[frames.getNumFrames()];
+        hand = 0;
+    }
+
+    @Override
+    public void frameLoaded(int ppn, long page) {
+        lastUse[ppn] = frames.getTime();
+    }
+
+    @Override
+    public void frameFreed(int ppn) {
+    }
+
+    @Override
+    public int selectVictim() {
+        int numFrames = lastUse.length;
+        long now = frames.getTime();
+
+        int oldDirty = -1;
+        int leastRecent = -1;
+        for ( int i = 0; i < numFrames; i++ ) {
+            int ppn = hand;
+            hand = (hand + 1) % numFrames;
+
+            if ( !frames.isEvictable(ppn) ) {
+                continue;
+            }
+
+            if ( frames.isUsed(ppn) ) {
+                frames.clearUsed(ppn);
+                lastUse[ppn] = now;
+            }
+            else if ( now - lastUse[ppn] > window ) {
+                if ( !frames.isDirty(ppn) ) {
+                    return ppn;
+                }
+                if ( oldDirty == -1 ) {
+                    oldDirty = ppn;
+                }
+            }
+
+            if ( leastRecent == -1 || lastUse[ppn] < lastUse[leastRecent] ) {
+                leastRecent = ppn;
+            }
+        }
+
+        return (oldDirty != -1) ? oldDirty : leastRecent;
+    }
+}
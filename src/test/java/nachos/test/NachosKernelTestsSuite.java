@@ -12,6 +12,8 @@ import nachos.machine.tcb.NachosSystemExitException;
 import nachos.machine.tcb.TCB;
 import nachos.threads.KThread;
 import nachos.userprog.UserKernel;
+import nachos.vm.VMKernel;
+import nachos.vm.VMProcess;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -73,6 +75,8 @@ public abstract class NachosKernelTestsSuite extends NachosTestsSuite {
         Lib.callStaticMethod(TCB.class, void.class, "initializeStaticFields");
         Lib.callStaticMethod(KThread.class, void.class, "initializeStaticFields");
         Lib.callStaticMethod(UserKernel.class, void.class, "initializeStaticFields");
+        Lib.callStaticMethod(VMKernel.class, void.class, "initializeStaticFields");
+        Lib.callStaticMethod(VMProcess.class, void.class, "initializeStaticFields");
 
         System.out.print("nachos 5.0j initializing...");
 
@@ -0,0 +1,57 @@
+package nachos.test.phase2.task2;
+
+import nachos.test.NachosUserProgramTestsSuite;
+import nachos.userprog.UserProcess;
+import org.junit.Test;
+
+import java.util.List;
+
+import static nachos.machine.recorder.NachosRuntimeRecorder.SyscallCallRecord;
+
+/**
+ * Tests for getrusage system call.
+ */
+public class Phase2Task2GetrusageSystemCallTests extends NachosUserProgramTestsSuite {
+    public Phase2Task2GetrusageSystemCallTests() {
+        super("phase2/phase2.round.robin.conf");
+    }
+
+    /**
+     * Tests if calling getrusage reports the resident pages and a non empty
+     * working set of a process, which keeps referencing its pages for more
+     * than one timer interval.
+     * <p>
+     * See test_getrusage_1.c for more detailed description on how this was
+     * achieved.
+     */
+    @Test
+    public void testIfGetrusageReportsWorkingSetOfRunningProcess() throws Throwable {
+        List<SyscallCallRecord> records = runUserProgram("test_getrusage_1", new String[]{"first"})
+                .get(UserProcess.rootPid);
+
+        threadAssertLastExitSyscallStatusEquals(0, records);
+        threadAssertEquals(2, records.size());
+
+        threadAssertEquals(UserProcess.syscallGetrusage, records.get(0).syscall);
+        threadAssertEquals(0, records.get(0).valueReturnedBySyscall);
+    }
+
+    /**
+     * Tests if calling getrusage returns -1 when provided address is outside
+     * of the address space.
+     * <p>
+     * See test_getrusage_1.c for more detailed description on how this was
+     * achieved.
+     */
+    @Test
+    public void testIfGetrusageFailsWhenProvidedAddressIsInvalid() throws Throwable {
+        List<SyscallCallRecord> records = runUserProgram("test_getrusage_1", new String[]{"second"})
+                .get(UserProcess.rootPid);
+
+        threadAssertLastExitSyscallStatusEquals(0, records);
+        threadAssertEquals(2, records.size());
+
+        threadAssertEquals(UserProcess.syscallGetrusage, records.get(0).syscall);
+        threadAssertEquals(-1, records.get(0).valueReturnedBySyscall);
+    }
+}
@@ -0,0 +1,63 @@
+package nachos.test.phase2.task2;
+
+import nachos.test.NachosUserProgramTestsSuite;
+import nachos.userprog.UserProcess;
+import org.junit.Test;
+
+import java.util.List;
+
+import static nachos.machine.recorder.NachosRuntimeRecorder.SyscallCallRecord;
+
+/**
+ * Tests for sbrk system call.
+ */
+public class Phase2Task2SbrkSystemCallTests extends NachosUserProgramTestsSuite {
+    public Phase2Task2SbrkSystemCallTests() {
+        super("phase2/phase2.round.robin.conf");
+    }
+
+    /**
+     * Tests if calling sbrk grows the heap with zero filled pages, releases
+     * the pages above the break when shrinking it, and fails when the break
+     * would leave the heap.
+     * <p>
+     * See test_sbrk_1.c for more detailed description on how this was achieved.
+     */
+    @Test
+    public void testIfSbrkGrowsAndShrinksHeap() throws Throwable {
+        final int pageSize = UserProcess.pageSize;
+
+        List<SyscallCallRecord> records = runUserProgram("test_sbrk_1", new String[]{}).get(UserProcess.rootPid);
+
+        threadAssertLastExitSyscallStatusEquals(0, records);
+        threadAssertEquals(10, records.size());
+        for ( int i = 0; i < records.size() - 1; i++ ) {
+            threadAssertEquals(UserProcess.syscallSbrk, records.get(i).syscall);
+        }
+
+        // break starts at a page boundary
+        int base = records.get(0).valueReturnedBySyscall;
+        threadAssertEquals(0, records.get(0).a0);
+        threadAssertEquals(0, base % pageSize);
+
+        // grow by three pages
+        threadAssertEquals(3 * pageSize, records.get(1).a0);
+        threadAssertEquals(base, records.get(1).valueReturnedBySyscall);
+        threadAssertEquals(base + 3 * pageSize, records.get(2).valueReturnedBySyscall);
+
+        // shrink by two pages
+        threadAssertEquals(-2 * pageSize, records.get(3).a0);
+        threadAssertEquals(base + 3 * pageSize, records.get(3).valueReturnedBySyscall);
+        threadAssertEquals(base + pageSize, records.get(4).valueReturnedBySyscall);
+
+        // grow by two pages again
+        threadAssertEquals(2 * pageSize, records.get(5).a0);
+        threadAssertEquals(base + pageSize, records.get(5).valueReturnedBySyscall);
+
+        // below the heap and above its limit
+        threadAssertEquals(-4 * pageSize, records.get(6).a0);
+        threadAssertEquals(-1, records.get(6).valueReturnedBySyscall);
+        threadAssertEquals(-1, records.get(7).valueReturnedBySyscall);
+        threadAssertEquals(base + 3 * pageSize, records.get(8).valueReturnedBySyscall);
+    }
+}
@@ -0,0 +1,67 @@
+package nachos.test.phase2.task3;
+
+import nachos.test.NachosUserProgramTestsSuite;
+import nachos.userprog.UserProcess;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static nachos.machine.recorder.NachosRuntimeRecorder.SyscallCallRecord;
+
+/**
+ * Tests for fork system call.
+ * <p>
+ * N.B. All tests in this class depend on working multiprogramming support!
+ */
+public class Phase2Task3ForkSystemCallTests extends NachosUserProgramTestsSuite {
+    public Phase2Task3ForkSystemCallTests() {
+        super("phase2/phase2.round.robin.conf");
+    }
+
+    /**
+     * Tests if calling fork creates a child process, whose writes to memory
+     * are not seen by the parent process, and which continues reading the
+     * open files of the parent from their positions, without moving the
+     * positions of the parent.
+     * <p>
+     * See test_fork_1.c for more detailed description on how this was achieved.
+     * <p>
+     * N.B. Depends on another syscalls so it's possible, that this test will
+     * fail even if handleFork implementation is correct!
+     */
+    @Test
+    public void testIfForkCopiesAddressSpaceAndOpenFiles() throws Throwable {
+        final String file = "test_file.txt";
+        final int number = (int) (Math.random() * 123456) + 10;
+        threadAssertTrue(doesFileExistsInNachosHomeDirectory(file));
+
+        HashMap<Integer, ArrayList<SyscallCallRecord>> recordsMap = runUserProgram("test_fork_1",
+                new String[]{file, Integer.toString(number)});
+
+        List<SyscallCallRecord> rootRecords = recordsMap.get(UserProcess.rootPid);
+        threadAssertLastExitSyscallStatusEquals(number, rootRecords);
+        threadAssertEquals(6, rootRecords.size());
+
+        threadAssertEquals(UserProcess.syscallFork, rootRecords.get(2).syscall);
+        threadAssertNotEquals(-1, rootRecords.get(2).valueReturnedBySyscall);
+        int childPid = rootRecords.get(2).valueReturnedBySyscall;
+        threadAssertNotEquals(UserProcess.rootPid, childPid);
+
+        threadAssertEquals(UserProcess.syscallJoin, rootRecords.get(3).syscall);
+        threadAssertEquals(childPid, rootRecords.get(3).a0);
+        threadAssertEquals(1, rootRecords.get(3).valueReturnedBySyscall);
+
+        threadAssertEquals(UserProcess.syscallRead, rootRecords.get(4).syscall);
+        threadAssertEquals("file", rootRecords.get(4).extraData);
+
+        List<SyscallCallRecord> childRecords = recordsMap.get(childPid);
+        threadAssertLastExitSyscallStatusEquals(number + 1, childRecords);
+        threadAssertEquals(2, childRecords.size());
+
+        threadAssertEquals(UserProcess.syscallRead, childRecords.get(0).syscall);
+        threadAssertEquals(rootRecords.get(0).valueReturnedBySyscall, childRecords.get(0).a0);
+        threadAssertEquals("file", childRecords.get(0).extraData);
+    }
+}
@@ -0,0 +1,68 @@
+package nachos.test.phase3;
+
+import nachos.test.NachosUserProgramTestsSuite;
+import nachos.userprog.UserProcess;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static nachos.machine.recorder.NachosRuntimeRecorder.SyscallCallRecord;
+
+/**
+ * Tests for futex_wait and futex_wake system calls.
+ * <p>
+ * N.B. All tests in this class depend on working fork and mmap support!
+ */
+public class Phase3FutexSystemCallTests extends NachosUserProgramTestsSuite {
+    public Phase3FutexSystemCallTests() {
+        super("phase3/phase3.round.robin.conf");
+    }
+
+    /**
+     * Tests if locking a mutex held by another process, in memory both
+     * processes share, puts the caller to sleep in futex_wait until the
+     * holder unlocks the mutex and wakes it up with futex_wake.
+     * <p>
+     * See test_futex_1.c for more detailed description on how this was achieved.
+     * <p>
+     * N.B. Depends on another syscalls so it's possible, that this test will
+     * fail even if handleFutexWait and handleFutexWake implementation is correct!
+     */
+    @Test
+    public void testIfContendedMutexSleepsUntilUnlocked() throws Throwable {
+        final String file = "futex_file.txt";
+        threadAssertFalse(doesFileExistsInNachosHomeDirectory(file));
+
+        HashMap<Integer, ArrayList<SyscallCallRecord>> recordsMap = runUserProgram("test_futex_1",
+                new String[]{file});
+
+        List<SyscallCallRecord> rootRecords = recordsMap.get(UserProcess.rootPid);
+        threadAssertLastExitSyscallStatusEquals(0, rootRecords);
+        threadAssertEquals(8, rootRecords.size());
+
+        threadAssertEquals(UserProcess.syscallFork, rootRecords.get(2).syscall);
+        int childPid = rootRecords.get(2).valueReturnedBySyscall;
+        threadAssertNotEquals(-1, childPid);
+
+        // unlocking wakes up the child
+        threadAssertEquals(UserProcess.syscallFutexWake, rootRecords.get(3).syscall);
+        threadAssertEquals(1, rootRecords.get(3).a1);
+        threadAssertEquals(1, rootRecords.get(3).valueReturnedBySyscall);
+
+        List<SyscallCallRecord> childRecords = recordsMap.get(childPid);
+        threadAssertLastExitSyscallStatusEquals(2, childRecords);
+        threadAssertEquals(3, childRecords.size());
+
+        // the child slept on the same futex word
+        threadAssertEquals(UserProcess.syscallFutexWait, childRecords.get(0).syscall);
+        threadAssertEquals(rootRecords.get(3).a0, childRecords.get(0).a0);
+        threadAssertEquals(2, childRecords.get(0).a1);
+        threadAssertEquals(0, childRecords.get(0).valueReturnedBySyscall);
+
+        // and finds no waiter when it unlocks
+        threadAssertEquals(UserProcess.syscallFutexWake, childRecords.get(1).syscall);
+        threadAssertEquals(0, childRecords.get(1).valueReturnedBySyscall);
+    }
+}
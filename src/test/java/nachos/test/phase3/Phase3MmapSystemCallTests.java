@@ -0,0 +1,81 @@
+package nachos.test.phase3;
+
+import nachos.test.NachosUserProgramTestsSuite;
+import nachos.userprog.UserProcess;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static nachos.machine.recorder.NachosRuntimeRecorder.SyscallCallRecord;
+
+/**
+ * Tests for mmap and munmap system calls.
+ * <p>
+ * N.B. All tests in this class depend on working demand paging!
+ */
+public class Phase3MmapSystemCallTests extends NachosUserProgramTestsSuite {
+    public Phase3MmapSystemCallTests() {
+        super("phase3/phase3.round.robin.conf");
+    }
+
+    /**
+     * Tests if all maps of a file share its pages, in the same process and in
+     * a child created by fork, if read and write on the file are consistent
+     * with the maps, and if munmap writes the changed pages back to the file.
+     * <p>
+     * See test_mmap_1.c for more detailed description on how this was achieved.
+     * <p>
+     * N.B. Depends on another syscalls so it's possible, that this test will
+     * fail even if handleMmap implementation is correct!
+     */
+    @Test
+    public void testIfMapsOfFileShareItsPages() throws Throwable {
+        final String file = "test_file.txt";
+        threadAssertTrue(doesFileExistsInNachosHomeDirectory(file));
+
+        HashMap<Integer, ArrayList<SyscallCallRecord>> recordsMap = runUserProgram("test_mmap_1",
+                new String[]{file});
+
+        List<SyscallCallRecord> rootRecords = recordsMap.get(UserProcess.rootPid);
+        threadAssertLastExitSyscallStatusEquals(0, rootRecords);
+
+        threadAssertEquals(2, recordsMap.size());
+        for ( int pid : recordsMap.keySet() ) {
+            if ( pid != UserProcess.rootPid ) {
+                threadAssertLastExitSyscallStatusEquals(1, recordsMap.get(pid));
+            }
+        }
+
+        threadAssertEquals("Best FILE CONTENTS", readContentsOfFileInNachosHomeDirectory(file));
+    }
+
+    /**
+     * Tests if dirty pages of a map larger than physical memory are written
+     * back to the file when evicted and when the map is removed.
+     * <p>
+     * See test_mmap_2.c for more detailed description on how this was achieved.
+     * <p>
+     * N.B. Depends on another syscalls so it's possible, that this test will
+     * fail even if handleMmap implementation is correct!
+     */
+    @Test
+    public void testIfDirtyMappedPagesAreWrittenBack() throws Throwable {
+        final String file = "mapped_file.txt";
+        final int pageSize = UserProcess.pageSize;
+        final int mapPages = 24;
+        threadAssertFalse(doesFileExistsInNachosHomeDirectory(file));
+
+        List<SyscallCallRecord> records = runUserProgram("test_mmap_2", new String[]{file}).get(UserProcess.rootPid);
+        threadAssertLastExitSyscallStatusEquals(0, records);
+
+        StringBuilder expected = new StringBuilder();
+        for ( int i = 0; i < mapPages; i++ ) {
+            for ( int j = 0; j < pageSize; j++ ) {
+                expected.append((char) ('a' + i));
+            }
+        }
+        threadAssertEquals(expected.toString(), readContentsOfFileInNachosHomeDirectory(file));
+    }
+}